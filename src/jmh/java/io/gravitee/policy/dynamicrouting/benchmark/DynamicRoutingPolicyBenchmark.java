@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.benchmark;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.Response;
+import io.gravitee.gateway.reactive.api.context.ContextAttributes;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
+import io.gravitee.policy.api.PolicyChain;
+import io.gravitee.policy.dynamicrouting.DynamicRoutingPolicy;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.MatchingStrategy;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import io.reactivex.rxjava3.core.CompletableObserver;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link DynamicRoutingPolicy#onRequest} for a request routed by a list of rules, both on the legacy
+ * execution engine (<code>onRequest</code>) and on the reactive one used by V4 and emulated APIs (<code>onPlainRequest</code>),
+ * which resolves the patterns using EL without blocking.
+ *
+ * Run with <code>mvn -Pbenchmarks -DskipTests verify</code>, the allocation rate per operation being reported by the GC
+ * profiler (<code>gc.alloc.rate.norm</code>).
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DynamicRoutingPolicyBenchmark {
+
+    public enum PatternType {
+        /**
+         * Rules such as <code>/service42/v1/(.*)</code>
+         */
+        STATIC,
+        /**
+         * Rules such as <code>/{#properties['service42']}/v1/(.*)</code>
+         */
+        EL,
+    }
+
+    public enum PathType {
+        /**
+         * The first rule is matching
+         */
+        HIT_FIRST,
+        /**
+         * Only the last rule is matching
+         */
+        HIT_LAST,
+        /**
+         * No rule is matching
+         */
+        NO_MATCH,
+    }
+
+    @Param({ "1", "10", "100", "1000" })
+    private int ruleCount;
+
+    @Param
+    private PatternType patternType;
+
+    @Param
+    private PathType pathType;
+
+    @Param({ "false", "true" })
+    private boolean encoded;
+
+    @Param({ "SEQUENTIAL" })
+    private MatchingStrategy matchingStrategy;
+
+    @Param({ "0" })
+    private int routeCacheSize;
+
+    private DynamicRoutingPolicy policy;
+
+    private Request request;
+
+    private Response response;
+
+    private ExecutionContext executionContext;
+
+    private PolicyChain policyChain;
+
+    private StandIns.Outcome outcome;
+
+    private HttpPlainExecutionContext plainContext;
+
+    private CompletableObserver completion;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Rule> rules = new ArrayList<>(ruleCount);
+        Map<String, String> expressions = new HashMap<>();
+        for (int idx = 0; idx < ruleCount; idx++) {
+            String service = "service" + idx;
+            if (patternType == PatternType.EL) {
+                String property = "{#properties['" + service + "']}";
+                expressions.put("/" + property + "/v1/(.*)", "/" + service + "/v1/(.*)");
+                rules.add(new Rule("/" + property + "/v1/(.*)", "http://" + service + ".internal/{#group[0]}"));
+            } else {
+                rules.add(new Rule("/" + service + "/v1/(.*)", "http://" + service + ".internal/{#group[0]}"));
+            }
+        }
+
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(rules);
+        configuration.setMatchingStrategy(matchingStrategy);
+        configuration.setRouteCacheSize(routeCacheSize);
+
+        TemplateEngine templateEngine = StandIns.templateEngine(expressions);
+        policy = new DynamicRoutingPolicy(configuration);
+        request = StandIns.request(path());
+        response = StandIns.response();
+        executionContext = StandIns.executionContext(new HashMap<>(), templateEngine);
+        outcome = new StandIns.Outcome();
+        policyChain = StandIns.policyChain(outcome);
+
+        plainContext = StandIns.plainExecutionContext(path(), templateEngine, outcome);
+        completion = StandIns.completion(outcome);
+
+        // Fail fast rather than measuring a fixture which does not route as expected
+        onRequest();
+        checkOutcome();
+        onPlainRequest();
+        checkOutcome();
+    }
+
+    private void checkOutcome() {
+        if (outcome.next == (pathType == PathType.NO_MATCH)) {
+            throw new IllegalStateException("Unexpected routing outcome for " + path());
+        }
+    }
+
+    private String path() {
+        String items = encoded ? "/items/summer%20collection%2F2024" : "/items/summer-collection-2024";
+        switch (pathType) {
+            case HIT_FIRST:
+                return "/service0/v1" + items;
+            case HIT_LAST:
+                return "/service" + (ruleCount - 1) + "/v1" + items;
+            default:
+                return "/unknown/v1" + items;
+        }
+    }
+
+    @Benchmark
+    public Object onRequest() {
+        policy.onRequest(request, response, executionContext, policyChain);
+        return executionContext.getAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT);
+    }
+
+    @Benchmark
+    public Object onPlainRequest() {
+        policy.onRequest(plainContext).subscribe(completion);
+        return plainContext.getAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT);
+    }
+}
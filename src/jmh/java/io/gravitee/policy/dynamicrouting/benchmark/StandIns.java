@@ -0,0 +1,262 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.benchmark;
+
+import io.gravitee.el.TemplateContext;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.Response;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainRequest;
+import io.gravitee.policy.api.PolicyChain;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.CompletableObserver;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.disposables.Disposable;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight in-memory implementations of the gateway interfaces used by the policy.
+ *
+ * They are built as dynamic proxies so that they only have to implement what the policy calls, whatever the version of the
+ * gateway API. A call with arguments allocates its argument array: this constant overhead shows up in the allocation rate of
+ * every benchmark, regressions being measured against it.
+ *
+ * @author GraviteeSource Team
+ */
+final class StandIns {
+
+    private StandIns() {}
+
+    /**
+     * A request whose only known property is its path.
+     */
+    static Request request(String pathInfo) {
+        return proxy(
+            Request.class,
+            (method, args) -> {
+                switch (method) {
+                    case "pathInfo":
+                    case "path":
+                        return pathInfo;
+                    default:
+                        throw unsupported(Request.class, method);
+                }
+            }
+        );
+    }
+
+    static Response response() {
+        return proxy(
+            Response.class,
+            (method, args) -> {
+                throw unsupported(Response.class, method);
+            }
+        );
+    }
+
+    /**
+     * An execution context keeping its attributes in a map.
+     */
+    static ExecutionContext executionContext(Map<String, Object> attributes, TemplateEngine templateEngine) {
+        return proxy(
+            ExecutionContext.class,
+            (method, args) -> {
+                switch (method) {
+                    case "getTemplateEngine":
+                        return templateEngine;
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "removeAttribute":
+                        attributes.remove((String) args[0]);
+                        return null;
+                    default:
+                        throw unsupported(ExecutionContext.class, method);
+                }
+            }
+        );
+    }
+
+    /**
+     * An execution context of the reactive engine, used for V4 and emulated APIs, keeping its attributes in maps. Interrupting the
+     * execution records it in the given outcome.
+     */
+    static HttpPlainExecutionContext plainExecutionContext(String pathInfo, TemplateEngine templateEngine, Outcome outcome) {
+        Map<String, Object> attributes = new HashMap<>();
+        Map<String, Object> internalAttributes = new HashMap<>();
+        HttpPlainRequest request = proxy(
+            HttpPlainRequest.class,
+            (method, args) -> {
+                switch (method) {
+                    case "pathInfo":
+                    case "path":
+                        return pathInfo;
+                    default:
+                        throw unsupported(HttpPlainRequest.class, method);
+                }
+            }
+        );
+
+        return proxy(
+            HttpPlainExecutionContext.class,
+            (method, args) -> {
+                switch (method) {
+                    case "request":
+                        return request;
+                    case "getTemplateEngine":
+                        return templateEngine;
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "putInternalAttribute":
+                        internalAttributes.put((String) args[0], args[1]);
+                        return null;
+                    case "getInternalAttribute":
+                        return internalAttributes.get((String) args[0]);
+                    case "interruptWith":
+                        outcome.next = false;
+                        return Completable.complete();
+                    default:
+                        throw unsupported(HttpPlainExecutionContext.class, method);
+                }
+            }
+        );
+    }
+
+    /**
+     * An observer of the execution of a policy, reused for every request, recording its outcome.
+     */
+    static CompletableObserver completion(Outcome outcome) {
+        return new CompletableObserver() {
+            @Override
+            public void onSubscribe(Disposable disposable) {
+                outcome.next = true;
+            }
+
+            @Override
+            public void onComplete() {}
+
+            @Override
+            public void onError(Throwable error) {
+                throw new IllegalStateException("The policy failed", error);
+            }
+        };
+    }
+
+    /**
+     * A template engine resolving each expression to a precomputed value, the expression itself if it has none.
+     *
+     * The cost of a real expression evaluation is out of the scope of these benchmarks: they measure how often the policy
+     * requires one.
+     */
+    static TemplateEngine templateEngine(Map<String, String> values) {
+        Map<String, Object> variables = new HashMap<>();
+        TemplateContext templateContext = proxy(
+            TemplateContext.class,
+            (method, args) -> {
+                switch (method) {
+                    case "setVariable":
+                        variables.put((String) args[0], args[1]);
+                        return null;
+                    case "lookupVariable":
+                        return variables.get((String) args[0]);
+                    default:
+                        throw unsupported(TemplateContext.class, method);
+                }
+            }
+        );
+
+        return proxy(
+            TemplateEngine.class,
+            (method, args) -> {
+                switch (method) {
+                    case "getValue":
+                        return values.getOrDefault((String) args[0], (String) args[0]);
+                    case "eval":
+                        return Maybe.just(values.getOrDefault((String) args[0], (String) args[0]));
+                    case "getTemplateContext":
+                        return templateContext;
+                    default:
+                        throw unsupported(TemplateEngine.class, method);
+                }
+            }
+        );
+    }
+
+    /**
+     * A policy chain recording the outcome of the last request.
+     */
+    static PolicyChain policyChain(Outcome outcome) {
+        return proxy(
+            PolicyChain.class,
+            (method, args) -> {
+                switch (method) {
+                    case "doNext":
+                        outcome.next = true;
+                        return null;
+                    case "failWith":
+                    case "streamFailWith":
+                        outcome.next = false;
+                        return null;
+                    default:
+                        throw unsupported(PolicyChain.class, method);
+                }
+            }
+        );
+    }
+
+    static final class Outcome {
+
+        boolean next;
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(
+            Proxy.newProxyInstance(
+                StandIns.class.getClassLoader(),
+                new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return type.getSimpleName() + " stand-in";
+                        default:
+                            return handler.invoke(method.getName(), args);
+                    }
+                }
+            )
+        );
+    }
+
+    private static UnsupportedOperationException unsupported(Class<?> type, String method) {
+        return new UnsupportedOperationException(type.getSimpleName() + "." + method + " is not available in benchmarks");
+    }
+}
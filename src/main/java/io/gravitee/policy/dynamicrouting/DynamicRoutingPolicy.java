@@ -15,138 +15,509 @@
  */
 package io.gravitee.policy.dynamicrouting;
 
+import io.gravitee.common.http.HttpMethod;
 import io.gravitee.common.http.HttpStatusCode;
-import io.gravitee.gateway.api.ExecutionContext;
-import io.gravitee.gateway.api.Request;
-import io.gravitee.gateway.api.Response;
-import io.gravitee.policy.api.PolicyChain;
-import io.gravitee.policy.api.PolicyResult;
-import io.gravitee.policy.api.annotations.OnRequest;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.gateway.reactive.api.context.ContextAttributes;
+import io.gravitee.gateway.reactive.api.context.http.HttpBaseRequest;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
+import io.gravitee.gateway.reactive.api.message.Message;
+import io.gravitee.gateway.reactive.api.policy.http.HttpPolicy;
 import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
-import io.gravitee.policy.dynamicrouting.configuration.Rule;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.nio.charset.Charset;
+import io.gravitee.policy.dynamicrouting.routing.CompiledRule;
+import io.gravitee.policy.dynamicrouting.routing.CompiledRuleSet;
+import io.gravitee.policy.dynamicrouting.routing.MatchBudgetExceededException;
+import io.gravitee.policy.dynamicrouting.routing.PatternResolver;
+import io.gravitee.policy.dynamicrouting.routing.RequestAttributes;
+import io.gravitee.policy.dynamicrouting.routing.RequestPaths;
+import io.gravitee.policy.dynamicrouting.routing.RouteMatch;
+import io.gravitee.policy.dynamicrouting.routing.RoutingMetrics;
+import io.gravitee.policy.dynamicrouting.routing.TargetGroup;
+import io.gravitee.policy.v3.dynamicrouting.DynamicRoutingPolicyV3;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Maybe;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Optional;
 import java.util.regex.PatternSyntaxException;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * @author David BRASSELY (david.brassely at graviteesource.com)
- * @author Nicolas GERAUD (nicolas.geraud at graviteesource.com)
  * @author GraviteeSource Team
  */
-public class DynamicRoutingPolicy {
+public class DynamicRoutingPolicy extends DynamicRoutingPolicyV3 implements HttpPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamicRoutingPolicy.class);
+
+    static final String NO_MATCHING_RULE_KEY = "DYNAMIC_ROUTING_NO_MATCHING_RULE";
+
+    static final String INVALID_PATH_KEY = "DYNAMIC_ROUTING_INVALID_PATH";
+
+    static final String INVALID_PATTERN_KEY = "DYNAMIC_ROUTING_INVALID_PATTERN";
+
+    static final String MATCH_BUDGET_EXCEEDED_KEY = "DYNAMIC_ROUTING_MATCH_BUDGET_EXCEEDED";
+
+    static final String NO_ENDPOINT_KEY = "DYNAMIC_ROUTING_NO_ENDPOINT";
 
     /**
-     * LOGGER
+     * Maximum number of message keys whose selected rule is kept for each message flow
      */
-    private static final Logger LOGGER = LoggerFactory.getLogger(DynamicRoutingPolicy.class);
+    static final int MAX_CACHED_MESSAGE_KEYS = 1024;
+
+    /**
+     * Resolver used when no pattern relies on EL
+     */
+    private static final PatternResolver NO_DYNAMIC_PATTERN = rule -> null;
+
+    public DynamicRoutingPolicy(DynamicRoutingPolicyConfiguration configuration) {
+        super(configuration);
+    }
+
+    @Override
+    public String id() {
+        return "dynamic-routing";
+    }
+
+    @Override
+    public Completable onRequest(HttpPlainExecutionContext ctx) {
+        return Completable.defer(() -> {
+            CompiledRuleSet ruleSet = compiledRuleSet(ctx::getTemplateEngine);
+            if (ruleSet.isEmpty()) {
+                // No rule defined
+                return Completable.complete();
+            }
 
-    private static final Pattern GROUP_NAME_PATTERN = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+            String path = ctx.request().pathInfo();
+            String decodedPath;
+            try {
+                decodedPath = RequestPaths.decode(path);
+            } catch (IllegalArgumentException iae) {
+                ruleSet.getMetrics().recordInvalidPath();
+                return ctx.interruptWith(
+                    new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500).key(INVALID_PATH_KEY).message("Invalid path")
+                );
+            }
 
-    private static final String GROUP_ATTRIBUTE = "group";
-    private static final String GROUP_NAME_ATTRIBUTE = "groupName";
+            long start = System.nanoTime();
+            if (!ruleSet.mayMatch(path, decodedPath)) {
+                ruleSet.getMetrics().recordRejected();
+                exposeMetrics(ctx, ruleSet, null, System.nanoTime() - start);
+                return interruptWithNoMatchingRule(ctx);
+            }
+
+            LOGGER.debug("Dynamic routing for path {}", path);
+            TemplateEngine templateEngine = ctx.getTemplateEngine();
+            RequestAttributes request = new HttpRequestAttributes(ctx.request());
+            List<CompiledRule> dynamicRules = ruleSet.getDynamicRules(request);
+            Completable routing;
+            if (dynamicRules.isEmpty()) {
+                routing = Completable.defer(() ->
+                    route(ctx, templateEngine, ruleSet, path, request, ruleSet.match(path, decodedPath, NO_DYNAMIC_PATTERN, request), start)
+                );
+            } else {
+                routing = match(ruleSet, dynamicRules, path, decodedPath, request, templateEngine, new DynamicPatterns(ruleSet))
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty())
+                    .flatMapCompletable(routeMatch -> route(ctx, templateEngine, ruleSet, path, request, routeMatch.orElse(null), start));
+            }
+
+            return routing.onErrorResumeNext(error -> {
+                if (error instanceof MatchBudgetExceededException) {
+                    ruleSet.getMetrics().recordBudgetExceeded();
+                    return ctx.interruptWith(
+                        new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500)
+                            .key(MATCH_BUDGET_EXCEEDED_KEY)
+                            .message("Pattern matching budget exceeded")
+                    );
+                }
+                if (!(error instanceof PatternSyntaxException)) {
+                    return Completable.error(error);
+                }
+                // Pattern resolved from EL
+                ruleSet.getMetrics().recordInvalidPattern();
+                return interruptWithInvalidPattern(ctx);
+            });
+        });
+    }
 
     /**
-     * The associated configuration to this Policy
+     * Routes each message published on the flow according to the value of its {@link DynamicRoutingPolicyConfiguration#getMessageKey()
+     * key}, the selected endpoint being set as the {@link ContextAttributes#ATTR_REQUEST_ENDPOINT} attribute of the message.
+     *
+     * Messages are routed one by one, as they come. Patterns relying on EL are resolved once for the whole flow, when matching
+     * first reaches their rule, and the rule selected for a key is kept for the following messages with the same key. The target
+     * and the URL are selected for each message.
      */
-    private DynamicRoutingPolicyConfiguration configuration;
+    @Override
+    public Completable onMessageRequest(HttpMessageExecutionContext ctx) {
+        return Completable.defer(() -> {
+            CompiledRuleSet ruleSet = compiledRuleSet(ctx::getTemplateEngine);
+            String messageKey = configuration.getMessageKey();
+            if (ruleSet.isEmpty() || messageKey == null || messageKey.isEmpty()) {
+                // Messages are not routed
+                return Completable.complete();
+            }
+
+            return ctx.request().onMessage(new MessageRouting(ctx, ctx.getTemplateEngine(), ruleSet, messageKey)::route);
+        });
+    }
 
     /**
-     * Create a new policy instance based on its associated configuration
+     * Matches the rules in declaration order, stage by stage: the pattern of a rule relying on EL is only resolved, without
+     * blocking, once the rules declared before it are known not to match, as on the legacy execution engine. A request routed by
+     * a rule does not evaluate the patterns of the rules declared after it, nor fail because of them.
      *
-     * @param configuration the associated configuration to the new policy instance
+     * @param dynamicRules the rules relying on EL which may be evaluated for the request, in declaration order
+     * @param patterns the patterns resolved so far, for the request or the message flow
+     * @return the first matching rule, empty if none is matching
      */
-    public DynamicRoutingPolicy(DynamicRoutingPolicyConfiguration configuration) {
-        this.configuration = configuration;
+    private static Maybe<RouteMatch> match(
+        CompiledRuleSet ruleSet,
+        List<CompiledRule> dynamicRules,
+        String path,
+        String decodedPath,
+        RequestAttributes request,
+        TemplateEngine templateEngine,
+        DynamicPatterns patterns
+    ) {
+        return Flowable
+            .range(0, dynamicRules.size() + 1)
+            .concatMapMaybe(stage -> {
+                // Rules from the previous rule relying on EL, whose pattern is resolved first, up to the next one
+                int from = stage == 0 ? 0 : dynamicRules.get(stage - 1).getIndex();
+                int limit = stage < dynamicRules.size() ? dynamicRules.get(stage).getIndex() : Integer.MAX_VALUE;
+                Maybe<RouteMatch> match = Maybe.fromCallable(() -> ruleSet.match(path, decodedPath, patterns, request, from, limit));
+                return stage == 0 ? match : patterns.resolve(dynamicRules.get(stage - 1), templateEngine).andThen(match);
+            })
+            .firstElement();
     }
 
-    @OnRequest
-    public void onRequest(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
-        try {
-            String originalSubPath = request.pathInfo();
-            String decodedSubPath = URLDecoder.decode(originalSubPath, Charset.defaultCharset().name());
-
-            LOGGER.debug("Dynamic routing for path {}", originalSubPath);
-            Rule rule = null;
-            Pattern pattern = null;
-            if (configuration.getRules() != null && !configuration.getRules().isEmpty()) {
-                // Look for a matching pattern from rules
-                for (final Rule r : configuration.getRules()) {
-                    final String p = executionContext.getTemplateEngine().getValue(r.getPattern(), String.class);
-                    pattern = Pattern.compile(p);
-                    if (pattern.matcher(decodedSubPath).matches() || pattern.matcher(originalSubPath).matches()) {
-                        rule = r;
-                        break;
-                    }
+    /**
+     * @param routeMatch the rule selected for the request, <code>null</code> if none is matching
+     * @param start the time the selection of the rule started at, in nanoseconds
+     */
+    private Completable route(
+        HttpPlainExecutionContext ctx,
+        TemplateEngine templateEngine,
+        CompiledRuleSet ruleSet,
+        String path,
+        RequestAttributes request,
+        RouteMatch routeMatch,
+        long start
+    ) {
+        if (routeMatch == null && ruleSet.hasInvalidRules()) {
+            // The request reached a rule whose pattern is not valid
+            ruleSet.getMetrics().recordInvalidPattern();
+            return interruptWithInvalidPattern(ctx);
+        }
+        if (routeMatch == null) {
+            long latency = System.nanoTime() - start;
+            ruleSet.getMetrics().recordNoMatch(latency);
+            exposeMetrics(ctx, ruleSet, null, latency);
+
+            // No rule is matching request path
+            return interruptWithNoMatchingRule(ctx);
+        }
+
+        CompiledRule rule = routeMatch.getRule();
+        LOGGER.debug("Applying rule for path {}: [{} - {}]", path, rule.getRule().getPattern(), rule.getRule().getUrl());
+        TargetGroup.Target target = rule.getTargets() == null ? null : rule.getTargets().select(routeMatch, request);
+        return evalEndpoint(routeMatch, target, templateEngine)
+            .doOnSuccess(endpoint -> {
+                // Set final endpoint
+                ctx.setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, endpoint);
+                LOGGER.debug("Route request to {}", endpoint);
+                if (target != null) {
+                    // The response time of the target is observed in the response phase
+                    ctx.putInternalAttribute(ATTR_TARGET, target);
+                    ctx.putInternalAttribute(ATTR_TARGET_REQUEST_TIME, System.nanoTime());
                 }
+                long latency = System.nanoTime() - start;
+                ruleSet.getMetrics().recordMatch(rule.getIndex(), latency);
+                exposeMetrics(ctx, ruleSet, rule.getIndex(), latency);
+            })
+            .isEmpty()
+            .flatMapCompletable(noEndpoint -> noEndpoint ? interruptWithoutEndpoint(ctx) : Completable.complete());
+    }
+
+    /**
+     * Records the response time of the target the request has been routed to, if the rule has weighted targets.
+     */
+    @Override
+    public Completable onResponse(HttpPlainExecutionContext ctx) {
+        return Completable.fromRunnable(() ->
+            recordTargetLatency(ctx.getInternalAttribute(ATTR_TARGET), ctx.getInternalAttribute(ATTR_TARGET_REQUEST_TIME))
+        );
+    }
+
+    /**
+     * @param target the target picked among the weighted targets of the rule, <code>null</code> to use the URL of the rule
+     */
+    private static Maybe<String> evalEndpoint(RouteMatch routeMatch, TargetGroup.Target target, TemplateEngine templateEngine) {
+        return target == null ? routeMatch.evalEndpoint(templateEngine) : target.getUrlTemplate().eval(routeMatch, templateEngine);
+    }
+
+    private Completable interruptWithNoMatchingRule(HttpPlainExecutionContext ctx) {
+        return ctx.interruptWith(
+            new ExecutionFailure(HttpStatusCode.BAD_REQUEST_400).key(NO_MATCHING_RULE_KEY).message("No routing rule is matching path")
+        );
+    }
+
+    private Completable interruptWithoutEndpoint(HttpPlainExecutionContext ctx) {
+        return ctx.interruptWith(
+            new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500)
+                .key(NO_ENDPOINT_KEY)
+                .message("The URL of the routing rule evaluates to nothing")
+        );
+    }
+
+    private Completable interruptWithInvalidPattern(HttpPlainExecutionContext ctx) {
+        return ctx.interruptWith(
+            new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500).key(INVALID_PATTERN_KEY).message("Invalid pattern syntax")
+        );
+    }
+
+    private void exposeMetrics(HttpPlainExecutionContext ctx, CompiledRuleSet ruleSet, Integer ruleIndex, long latency) {
+        if (configuration.isExposeMetrics()) {
+            ctx.setAttribute(RoutingMetrics.ATTR_METRICS, ruleSet.getMetrics());
+            ctx.setAttribute(RoutingMetrics.ATTR_RULE, ruleIndex);
+            ctx.setAttribute(RoutingMetrics.ATTR_LATENCY, latency);
+        }
+    }
+
+    /**
+     * Patterns of the rules relying on EL, resolved as matching reaches their rule, and kept for the request, or the whole message
+     * flow, they have been resolved for.
+     */
+    private static final class DynamicPatterns implements PatternResolver {
 
-                if (rule != null && pattern != null) {
-                    LOGGER.debug("Applying rule for path {}: [{} - {}]", originalSubPath, rule.getPattern(), rule.getUrl());
-                    String endpoint = rule.getUrl();
-
-                    // Apply regex capture / replacement
-                    Matcher match = pattern.matcher(originalSubPath);
-
-                    // Required to calculate capture groups
-                    match.matches();
-
-                    // Extract capture group by index
-                    String[] groups = new String[match.groupCount()];
-                    for (int idx = 0; idx < match.groupCount(); idx++) {
-                        groups[idx] = match.group(idx + 1);
-                    }
-                    executionContext.getTemplateEngine().getTemplateContext().setVariable(GROUP_ATTRIBUTE, groups);
-
-                    // Extract capture group by name
-                    Set<String> extractedGroupNames = getNamedGroupCandidates(pattern.pattern());
-                    Map<String, String> groupNames = extractedGroupNames
-                        .stream()
-                        .collect(Collectors.toMap(groupName -> groupName, match::group));
-                    executionContext.getTemplateEngine().getTemplateContext().setVariable(GROUP_NAME_ATTRIBUTE, groupNames);
-
-                    // Given endpoint can be defined as the template using EL
-                    LOGGER.debug("Transform endpoint {} using template engine", endpoint);
-                    endpoint = executionContext.getTemplateEngine().getValue(endpoint, String.class);
-
-                    // Set final endpoint
-                    executionContext.setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, endpoint);
-                    LOGGER.debug("Route request to {}", endpoint);
-
-                    // And continue request processing....
-                    policyChain.doNext(request, response);
-                } else {
-                    // No rule is matching request path
-                    policyChain.failWith(PolicyResult.failure(HttpStatusCode.BAD_REQUEST_400, "No routing rule is matching path"));
+        private final String[] patterns;
+
+        /**
+         * Rules whose pattern has been resolved, possibly to nothing
+         */
+        private final BitSet resolved;
+
+        private DynamicPatterns(CompiledRuleSet ruleSet) {
+            this.patterns = new String[ruleSet.getRules().size()];
+            this.resolved = new BitSet(patterns.length);
+        }
+
+        @Override
+        public String resolve(CompiledRule rule) {
+            return patterns[rule.getIndex()];
+        }
+
+        /**
+         * Resolves the pattern of the given rule without blocking, unless it has been resolved already.
+         */
+        private Completable resolve(CompiledRule rule, TemplateEngine templateEngine) {
+            if (resolved.get(rule.getIndex())) {
+                return Completable.complete();
+            }
+            return templateEngine
+                .eval(rule.getRule().getPattern(), String.class)
+                .doOnSuccess(pattern -> patterns[rule.getIndex()] = pattern)
+                .ignoreElement()
+                .doOnComplete(() -> resolved.set(rule.getIndex()));
+        }
+    }
+
+    /**
+     * Routing state of a single message flow. Messages of a flow are routed one at a time, so the state needs no synchronization.
+     */
+    private static final class MessageRouting {
+
+        private final HttpMessageExecutionContext ctx;
+
+        private final TemplateEngine templateEngine;
+
+        private final CompiledRuleSet ruleSet;
+
+        private final String messageKey;
+
+        /**
+         * Request the messages are published with, which the conditions of the rules apply to
+         */
+        private final RequestAttributes request;
+
+        /**
+         * Rules relying on EL which may be evaluated for the request, in declaration order
+         */
+        private final List<CompiledRule> dynamicRules;
+
+        private final DynamicPatterns patterns;
+
+        /**
+         * Rule selected for the recent message keys, the least recently used key being evicted first. As the patterns are resolved
+         * once for the flow, and the conditions hold for all its messages, a key is always matched by the same rule.
+         */
+        private final Map<String, RouteMatch> matches = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RouteMatch> eldest) {
+                return size() > MAX_CACHED_MESSAGE_KEYS;
+            }
+        };
+
+        private MessageRouting(HttpMessageExecutionContext ctx, TemplateEngine templateEngine, CompiledRuleSet ruleSet, String messageKey) {
+            this.ctx = ctx;
+            this.templateEngine = templateEngine;
+            this.ruleSet = ruleSet;
+            this.messageKey = messageKey;
+            this.request = new HttpRequestAttributes(ctx.request());
+            this.dynamicRules = ruleSet.getDynamicRules(request);
+            this.patterns = dynamicRules.isEmpty() ? null : new DynamicPatterns(ruleSet);
+        }
+
+        private Maybe<Message> route(Message message) {
+            long start = System.nanoTime();
+            String key = key(message);
+            RouteMatch cached = key == null ? null : matches.get(key);
+            if (cached != null) {
+                return send(message, cached, start);
+            }
+
+            if (key == null || !ruleSet.mayMatch(key, key)) {
+                ruleSet.getMetrics().recordRejected();
+                return interruptMessageWithNoMatchingRule();
+            }
+
+            // Message keys are not URL encoded, so there is no decoded form to try
+            if (dynamicRules.isEmpty()) {
+                RouteMatch routeMatch;
+                try {
+                    routeMatch = ruleSet.match(key, key, NO_DYNAMIC_PATTERN, request);
+                } catch (RuntimeException error) {
+                    return interruptMessage(error);
                 }
-            } else {
-                // No rule defined
-                policyChain.doNext(request, response);
+                return send(message, remember(key, routeMatch), start);
             }
-        } catch (UnsupportedEncodingException uee) {
-            // Invalid path
-            policyChain.failWith(PolicyResult.failure(HttpStatusCode.INTERNAL_SERVER_ERROR_500, "Invalid path"));
-        } catch (PatternSyntaxException pse) {
-            // Invalid pattern syntax
-            policyChain.failWith(PolicyResult.failure(HttpStatusCode.INTERNAL_SERVER_ERROR_500, "Invalid pattern syntax"));
+            return match(ruleSet, dynamicRules, key, key, request, templateEngine, patterns)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMapMaybe(routeMatch -> send(message, remember(key, routeMatch.orElse(null)), start))
+                .onErrorResumeNext(this::interruptMessage);
+        }
+
+        /**
+         * @return the match to route the message with, kept for the following messages with the same key when it can be shared
+         */
+        private RouteMatch remember(String key, RouteMatch routeMatch) {
+            RouteMatch snapshot = routeMatch == null ? null : routeMatch.snapshot();
+            if (snapshot == null) {
+                return routeMatch;
+            }
+            matches.put(key, snapshot);
+            return snapshot;
+        }
+
+        /**
+         * Selects the target of the message, among the weighted targets of the rule if any, and renders its URL.
+         *
+         * @param routeMatch the rule selected for the key of the message, <code>null</code> if none is matching
+         */
+        private Maybe<Message> send(Message message, RouteMatch routeMatch, long start) {
+            if (routeMatch == null && ruleSet.hasInvalidRules()) {
+                // The message reached a rule whose pattern is not valid
+                ruleSet.getMetrics().recordInvalidPattern();
+                return interruptMessageWithInvalidPattern();
+            }
+            if (routeMatch == null) {
+                ruleSet.getMetrics().recordNoMatch(System.nanoTime() - start);
+                return interruptMessageWithNoMatchingRule();
+            }
+
+            CompiledRule rule = routeMatch.getRule();
+            TargetGroup.Target target = rule.getTargets() == null ? null : rule.getTargets().select(routeMatch, request);
+            return evalEndpoint(routeMatch, target, templateEngine)
+                .map(endpoint -> {
+                    message.attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, endpoint);
+                    ruleSet.getMetrics().recordMatch(rule.getIndex(), System.nanoTime() - start);
+                    return message;
+                })
+                .switchIfEmpty(Maybe.defer(this::interruptMessageWithoutEndpoint));
+        }
+
+        private String key(Message message) {
+            Object value = message.attribute(messageKey);
+            if (value == null && message.headers() != null) {
+                value = message.headers().get(messageKey);
+            }
+            return value != null ? value.toString() : null;
+        }
+
+        private Maybe<Message> interruptMessage(Throwable error) {
+            if (error instanceof MatchBudgetExceededException) {
+                ruleSet.getMetrics().recordBudgetExceeded();
+                return ctx.interruptMessageWith(
+                    new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500)
+                        .key(MATCH_BUDGET_EXCEEDED_KEY)
+                        .message("Pattern matching budget exceeded")
+                );
+            }
+            if (error instanceof PatternSyntaxException) {
+                // Pattern resolved from EL
+                ruleSet.getMetrics().recordInvalidPattern();
+                return interruptMessageWithInvalidPattern();
+            }
+            return Maybe.error(error);
+        }
+
+        private Maybe<Message> interruptMessageWithInvalidPattern() {
+            return ctx.interruptMessageWith(
+                new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500).key(INVALID_PATTERN_KEY).message("Invalid pattern syntax")
+            );
+        }
+
+        private Maybe<Message> interruptMessageWithNoMatchingRule() {
+            return ctx.interruptMessageWith(
+                new ExecutionFailure(HttpStatusCode.BAD_REQUEST_400)
+                    .key(NO_MATCHING_RULE_KEY)
+                    .message("No routing rule is matching message")
+            );
+        }
+
+        private Maybe<Message> interruptMessageWithoutEndpoint() {
+            return ctx.interruptMessageWith(
+                new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500)
+                    .key(NO_ENDPOINT_KEY)
+                    .message("The URL of the routing rule evaluates to nothing")
+            );
         }
     }
 
-    private Set<String> getNamedGroupCandidates(String regex) {
-        Set<String> namedGroups = new TreeSet<>();
-        Matcher m = GROUP_NAME_PATTERN.matcher(regex);
+    private static final class HttpRequestAttributes implements RequestAttributes {
+
+        private final HttpBaseRequest request;
 
-        while (m.find()) {
-            namedGroups.add(m.group(1));
+        private HttpRequestAttributes(HttpBaseRequest request) {
+            this.request = request;
         }
 
-        return namedGroups;
+        @Override
+        public String host() {
+            return request.host();
+        }
+
+        @Override
+        public HttpMethod method() {
+            return request.method();
+        }
+
+        @Override
+        public String header(String name) {
+            return request.headers() == null ? null : request.headers().get(name);
+        }
+
+        @Override
+        public String parameter(String name) {
+            return request.parameters() == null ? null : request.parameters().getFirst(name);
+        }
     }
 }
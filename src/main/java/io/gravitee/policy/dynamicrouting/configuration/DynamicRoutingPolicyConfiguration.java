@@ -26,6 +26,43 @@ public class DynamicRoutingPolicyConfiguration implements PolicyConfiguration {
 
     private List<Rule> rules;
 
+    /**
+     * Maximum number of distinct patterns resolved from EL to keep compiled
+     */
+    private int patternCacheSize = 256;
+
+    private PatternType patternType = PatternType.REGEX;
+
+    private MatchingStrategy matchingStrategy = MatchingStrategy.SEQUENTIAL;
+
+    /**
+     * Maximum number of request paths whose selected route is kept, 0 to disable the cache
+     */
+    private int routeCacheSize = 0;
+
+    /**
+     * Whether routing metrics are exposed as request attributes
+     */
+    private boolean exposeMetrics = false;
+
+    private RegexEngine regexEngine = RegexEngine.JAVA;
+
+    /**
+     * Maximum number of characters read by the JDK engine to match a path against a pattern, 0 for no limit
+     */
+    private int matchStepBudget = 0;
+
+    /**
+     * Name of the message attribute, or header, whose value is matched against the rules in the message phase, <code>null</code>
+     * not to route messages
+     */
+    private String messageKey;
+
+    /**
+     * Rules loaded from a file or a dictionary, evaluated after the rules of the configuration, <code>null</code> for none
+     */
+    private ExternalRules externalRules;
+
     public List<Rule> getRules() {
         return rules;
     }
@@ -33,4 +70,76 @@ public class DynamicRoutingPolicyConfiguration implements PolicyConfiguration {
     public void setRules(List<Rule> rules) {
         this.rules = rules;
     }
+
+    public int getPatternCacheSize() {
+        return patternCacheSize;
+    }
+
+    public void setPatternCacheSize(int patternCacheSize) {
+        this.patternCacheSize = patternCacheSize;
+    }
+
+    public PatternType getPatternType() {
+        return patternType;
+    }
+
+    public void setPatternType(PatternType patternType) {
+        this.patternType = patternType;
+    }
+
+    public MatchingStrategy getMatchingStrategy() {
+        return matchingStrategy;
+    }
+
+    public void setMatchingStrategy(MatchingStrategy matchingStrategy) {
+        this.matchingStrategy = matchingStrategy;
+    }
+
+    public int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    public void setRouteCacheSize(int routeCacheSize) {
+        this.routeCacheSize = routeCacheSize;
+    }
+
+    public boolean isExposeMetrics() {
+        return exposeMetrics;
+    }
+
+    public void setExposeMetrics(boolean exposeMetrics) {
+        this.exposeMetrics = exposeMetrics;
+    }
+
+    public RegexEngine getRegexEngine() {
+        return regexEngine;
+    }
+
+    public void setRegexEngine(RegexEngine regexEngine) {
+        this.regexEngine = regexEngine;
+    }
+
+    public int getMatchStepBudget() {
+        return matchStepBudget;
+    }
+
+    public void setMatchStepBudget(int matchStepBudget) {
+        this.matchStepBudget = matchStepBudget;
+    }
+
+    public String getMessageKey() {
+        return messageKey;
+    }
+
+    public void setMessageKey(String messageKey) {
+        this.messageKey = messageKey;
+    }
+
+    public ExternalRules getExternalRules() {
+        return externalRules;
+    }
+
+    public void setExternalRules(ExternalRules externalRules) {
+        this.externalRules = externalRules;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.configuration;
+
+/**
+ * Rules loaded from outside of the configuration, evaluated after the rules of the configuration and reloaded when their source
+ * changes, without redeploying the API.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ExternalRules {
+
+    private ExternalRulesSource source;
+
+    /**
+     * Path of the file holding the rules, for the {@link ExternalRulesSource#FILE} source
+     */
+    private String path;
+
+    /**
+     * Name of the dictionary holding the rules, for the {@link ExternalRulesSource#DICTIONARY} source
+     */
+    private String dictionary;
+
+    /**
+     * Delay, in milliseconds, between two checks of the file, or of the entries of the dictionary, for changes
+     */
+    private long refreshInterval = 5_000;
+
+    public ExternalRulesSource getSource() {
+        return source;
+    }
+
+    public void setSource(ExternalRulesSource source) {
+        this.source = source;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(String dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+}
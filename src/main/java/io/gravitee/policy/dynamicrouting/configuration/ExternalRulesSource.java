@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.configuration;
+
+/**
+ * Where the {@link ExternalRules} are loaded from.
+ *
+ * @author GraviteeSource Team
+ */
+public enum ExternalRulesSource {
+    /**
+     * Rules are read from a local JSON file holding an array of rules, in the format of the rules of the configuration. The file
+     * is checked for changes periodically.
+     */
+    FILE,
+
+    /**
+     * Rules are read from a gateway dictionary, each entry being a rule whose pattern is the key and whose URL is the value. The
+     * dictionary is checked for changes as requests come.
+     */
+    DICTIONARY,
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.configuration;
+
+/**
+ * How the rules of the policy are looked up for a matching one.
+ *
+ * @author GraviteeSource Team
+ */
+public enum MatchingStrategy {
+    /**
+     * Rules are evaluated one after the other, in their declaration order.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Consecutive rules without EL are combined in a single expression, evaluated once per request path. The first matching rule
+     * in declaration order still wins.
+     */
+    COMBINED,
+}
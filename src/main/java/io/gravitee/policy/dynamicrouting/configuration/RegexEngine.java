@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.configuration;
+
+/**
+ * How the patterns of the rules are matched against request paths.
+ *
+ * @author GraviteeSource Team
+ */
+public enum RegexEngine {
+    /**
+     * The backtracking engine of the JDK, supporting the whole <code>java.util.regex</code> syntax. Some patterns may take a time
+     * exponential in the length of the path to be matched.
+     */
+    JAVA,
+
+    /**
+     * An engine matching any pattern in a time linear in the length of the path. Patterns relying on constructs which can not be
+     * matched that way (back references, look-arounds, atomic groups, possessive quantifiers, boundaries, ...) are rejected.
+     */
+    LINEAR,
+}
@@ -15,6 +15,10 @@
  */
 package io.gravitee.policy.dynamicrouting.configuration;
 
+import io.gravitee.common.http.HttpMethod;
+import java.util.List;
+import java.util.Set;
+
 /**
  * @author David BRASSELY (david.brassely at graviteesource.com)
  * @author GraviteeSource Team
@@ -25,6 +29,31 @@ public final class Rule {
 
     private String url;
 
+    /**
+     * Host the request must be sent to, <code>null</code> for any host
+     */
+    private String host;
+
+    /**
+     * Methods the request must use, <code>null</code> or empty for any method
+     */
+    private Set<HttpMethod> methods;
+
+    /**
+     * Values the request headers must have, <code>null</code> or empty for any headers
+     */
+    private List<HeaderCondition> headers;
+
+    /**
+     * Target URLs the requests are spread across, in place of the URL of the rule, <code>null</code> or empty for the URL only
+     */
+    private List<WeightedTarget> targets;
+
+    /**
+     * Key the targets are picked by, <code>null</code> to pick them by observed latency
+     */
+    private StickyKey stickyKey;
+
     public Rule() {}
 
     public Rule(String pattern, String url) {
@@ -47,4 +76,44 @@ public final class Rule {
     public void setUrl(String url) {
         this.url = url;
     }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public Set<HttpMethod> getMethods() {
+        return methods;
+    }
+
+    public void setMethods(Set<HttpMethod> methods) {
+        this.methods = methods;
+    }
+
+    public List<HeaderCondition> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(List<HeaderCondition> headers) {
+        this.headers = headers;
+    }
+
+    public List<WeightedTarget> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(List<WeightedTarget> targets) {
+        this.targets = targets;
+    }
+
+    public StickyKey getStickyKey() {
+        return stickyKey;
+    }
+
+    public void setStickyKey(StickyKey stickyKey) {
+        this.stickyKey = stickyKey;
+    }
 }
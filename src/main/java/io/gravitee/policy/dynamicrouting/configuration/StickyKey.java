@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.configuration;
+
+/**
+ * Key the weighted targets of a {@link Rule} are picked by, so that the requests sharing a key are all routed to the same target.
+ *
+ * @author GraviteeSource Team
+ */
+public final class StickyKey {
+
+    private StickyKeySource source;
+
+    private String name;
+
+    public StickyKey() {}
+
+    public StickyKey(StickyKeySource source, String name) {
+        this.source = source;
+        this.name = name;
+    }
+
+    public StickyKeySource getSource() {
+        return source;
+    }
+
+    public void setSource(StickyKeySource source) {
+        this.source = source;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.configuration;
+
+/**
+ * The part of the request the sticky key of a {@link Rule} is read from.
+ *
+ * @author GraviteeSource Team
+ */
+public enum StickyKeySource {
+    /**
+     * The key is the value captured by a group of the pattern, given by its index, the first group being at index 0, or by its name.
+     */
+    GROUP,
+
+    /**
+     * The key is the first value of a request header.
+     */
+    HEADER,
+
+    /**
+     * The key is the first value of a query parameter.
+     */
+    QUERY_PARAMETER,
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A bounded cache, safe to use from any number of threads.
+ *
+ * Lookups are lock-free. When the cache is full, entries are evicted following a second-chance (clock) policy: an entry which
+ * has been hit since it was last considered for eviction is kept once more.
+ *
+ * @author GraviteeSource Team
+ */
+public final class BoundedCache<K, V> {
+
+    private final int maximumSize;
+
+    /**
+     * Estimates the memory retained by an entry, may be <code>null</code>
+     */
+    private final ToLongBiFunction<K, V> weigher;
+
+    private final ConcurrentHashMap<K, Entry<K, V>> entries;
+
+    private final Queue<Entry<K, V>> evictionQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder weight = new LongAdder();
+
+    BoundedCache(int maximumSize, ToLongBiFunction<K, V> weigher) {
+        this.maximumSize = Math.max(0, maximumSize);
+        this.weigher = weigher;
+        this.entries = new ConcurrentHashMap<>(Math.min(this.maximumSize, 1024));
+    }
+
+    /**
+     * @return the cached value, or <code>null</code> on a cache miss
+     */
+    V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            entry.referenced = true;
+            return entry.value;
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the given value, unless a value is already cached for the key.
+     *
+     * @return the value now cached for the key
+     */
+    V putIfAbsent(K key, V value) {
+        if (maximumSize == 0) {
+            return value;
+        }
+
+        Entry<K, V> created = new Entry<>(key, value, weigher == null ? 0 : weigher.applyAsLong(key, value));
+        Entry<K, V> existing = entries.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing.value;
+        }
+
+        weight.add(created.weight);
+        evictionQueue.offer(created);
+        if (size.incrementAndGet() > maximumSize) {
+            evict();
+        }
+
+        return value;
+    }
+
+    private void evict() {
+        // Bound the number of entries considered so that entries hit concurrently cannot keep the caller spinning
+        int attempts = 2 * maximumSize + 1;
+        Entry<K, V> candidate;
+        while (size.get() > maximumSize && attempts-- > 0 && (candidate = evictionQueue.poll()) != null) {
+            if (candidate.referenced) {
+                // Give it a second chance
+                candidate.referenced = false;
+                evictionQueue.offer(candidate);
+            } else if (entries.remove(candidate.key, candidate)) {
+                size.decrementAndGet();
+                weight.add(-candidate.weight);
+                evictions.increment();
+            }
+        }
+    }
+
+    int getMaximumSize() {
+        return maximumSize;
+    }
+
+    Stats stats() {
+        return new Stats(maximumSize, size.get(), hits.sum(), misses.sum(), evictions.sum(), weight.sum());
+    }
+
+    private static final class Entry<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private final long weight;
+
+        private volatile boolean referenced;
+
+        private Entry(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A point-in-time view of the cache usage.
+     */
+    public static final class Stats {
+
+        private final int maximumSize;
+
+        private final int size;
+
+        private final long hitCount;
+
+        private final long missCount;
+
+        private final long evictionCount;
+
+        private final long estimatedMemory;
+
+        Stats(int maximumSize, int size, long hitCount, long missCount, long evictionCount, long estimatedMemory) {
+            this.maximumSize = maximumSize;
+            this.size = size;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.estimatedMemory = estimatedMemory;
+        }
+
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return the ratio of lookups which were hits, between 0 and 1
+         */
+        public double getHitRatio() {
+            long lookups = hitCount + missCount;
+            return lookups == 0 ? 0 : (double) hitCount / lookups;
+        }
+
+        /**
+         * @return an estimate, in bytes, of the memory retained by the cached entries, 0 if not estimated
+         */
+        public long getEstimatedMemory() {
+            return estimatedMemory;
+        }
+
+        @Override
+        public String toString() {
+            return (
+                "size=" +
+                size +
+                "/" +
+                maximumSize +
+                ", hits=" +
+                hitCount +
+                ", misses=" +
+                missCount +
+                ", evictions=" +
+                evictionCount +
+                ", estimatedMemory=" +
+                estimatedMemory
+            );
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Combines each run of consecutive static rules into a single alternation <code>(p0)|(p1)|...|(pn)</code>.
+ *
+ * Alternatives of a regular expression are tried in order, so the alternative reported by a successful match is the first rule
+ * of the run matching the path, which keeps the first-match-wins semantics. The rule is identified thanks to the capturing group
+ * wrapping each alternative. Rules which can not be combined (EL patterns, back references, invalid syntax, ...) are evaluated
+ * on their own, at their position. The alternation is matched by the engine the rules are compiled for; a run too large for it is
+ * evaluated rule by rule.
+ *
+ * @author GraviteeSource Team
+ */
+final class CombinedRuleMatcher implements RuleMatcher {
+
+    private final List<Segment> segments;
+
+    private final PatternCache patternCache;
+
+    CombinedRuleMatcher(List<CompiledRule> rules, PatternCache patternCache) {
+        this.segments = new ArrayList<>();
+        this.patternCache = patternCache;
+
+        List<CompiledRule> run = new ArrayList<>();
+        List<String> alternatives = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            String alternative = rule.isDynamic() || !rule.isValid() ? null : RegexSyntax.anonymizeGroups(rule.getRule().getPattern());
+            if (alternative != null) {
+                run.add(rule);
+                alternatives.add(alternative);
+            } else {
+                flush(run, alternatives);
+                segments.add(new SingleRule(rule));
+            }
+        }
+        flush(run, alternatives);
+    }
+
+    private void flush(List<CompiledRule> run, List<String> alternatives) {
+        if (run.size() == 1) {
+            segments.add(new SingleRule(run.get(0)));
+        } else if (run.size() > 1) {
+            try {
+                segments.add(new CombinedRules(run, alternatives, patternCache));
+            } catch (PatternSyntaxException pse) {
+                for (CompiledRule rule : run) {
+                    segments.add(new SingleRule(rule));
+                }
+            }
+        }
+        run.clear();
+        alternatives.clear();
+    }
+
+    @Override
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver, int from, int limit) {
+        for (Segment segment : segments) {
+            if (segment.firstRule() >= limit) {
+                break;
+            }
+            if (segment.lastRule() < from) {
+                continue;
+            }
+            RouteMatch match = segment.match(path, decodedPath, resolver);
+            if (match != null) {
+                return match.getRule().getIndex() < limit ? match : null;
+            }
+        }
+
+        return null;
+    }
+
+    private interface Segment {
+        RouteMatch match(String path, String decodedPath, PatternResolver resolver);
+
+        /**
+         * @return the index of the first rule of the segment
+         */
+        int firstRule();
+
+        /**
+         * @return the index of the last rule of the segment
+         */
+        int lastRule();
+    }
+
+    private static final class SingleRule implements Segment {
+
+        private final CompiledRule rule;
+
+        private SingleRule(CompiledRule rule) {
+            this.rule = rule;
+        }
+
+        @Override
+        public RouteMatch match(String path, String decodedPath, PatternResolver resolver) {
+            CompiledPattern pattern = rule.pattern(resolver);
+            if (pattern == null) {
+                return null;
+            }
+            MatchResult result = pattern.match(path);
+            if (result != null) {
+                return new RouteMatch(rule, pattern, result, path);
+            }
+            result = decodedPath != path ? pattern.match(decodedPath) : null;
+            return result != null ? new RouteMatch(rule, pattern, result, decodedPath) : null;
+        }
+
+        @Override
+        public int firstRule() {
+            return rule.getIndex();
+        }
+
+        @Override
+        public int lastRule() {
+            return rule.getIndex();
+        }
+    }
+
+    private static final class CombinedRules implements Segment {
+
+        private final CompiledRule[] rules;
+
+        private final CompiledPattern combined;
+
+        /**
+         * Number of the capturing group wrapping each alternative
+         */
+        private final int[] markers;
+
+        private CombinedRules(List<CompiledRule> rules, List<String> alternatives, PatternCache patternCache) {
+            this.rules = rules.toArray(new CompiledRule[0]);
+            this.markers = new int[this.rules.length];
+
+            StringBuilder expression = new StringBuilder();
+            int group = 1;
+            for (int idx = 0; idx < this.rules.length; idx++) {
+                if (idx > 0) {
+                    expression.append('|');
+                }
+                expression.append('(').append(alternatives.get(idx)).append(')');
+                markers[idx] = group;
+                group += 1 + this.rules[idx].getPattern().getGroupCount();
+            }
+            this.combined = patternCache.compile(expression.toString());
+        }
+
+        @Override
+        public RouteMatch match(String path, String decodedPath, PatternResolver resolver) {
+            String matchingPath = path;
+            int index = firstMatching(path);
+            if (index != 0 && decodedPath != path) {
+                int decoded = firstMatching(decodedPath);
+                if (decoded >= 0 && (index < 0 || decoded < index)) {
+                    index = decoded;
+                    matchingPath = decodedPath;
+                }
+            }
+
+            if (index < 0) {
+                return null;
+            }
+
+            // Match again against the rule alone to get its capture groups with their own numbering
+            CompiledPattern pattern = rules[index].getPattern();
+            return new RouteMatch(rules[index], pattern, pattern.match(matchingPath), matchingPath);
+        }
+
+        @Override
+        public int firstRule() {
+            return rules[0].getIndex();
+        }
+
+        @Override
+        public int lastRule() {
+            return rules[rules.length - 1].getIndex();
+        }
+
+        private int firstMatching(String path) {
+            MatchResult result = combined.match(path);
+            if (result != null) {
+                for (int idx = 0; idx < markers.length; idx++) {
+                    if (result.start(markers[idx]) >= 0) {
+                        return idx;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+}
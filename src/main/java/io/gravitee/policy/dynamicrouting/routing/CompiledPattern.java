@@ -0,0 +1,366 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled rule pattern along with the metadata of its capture groups, computed once at compile time.
+ *
+ * Patterns are matched either by <code>java.util.regex</code>, optionally within a budget of steps, or by the {@link LinearRegex}
+ * engine, depending on the {@link RegexEngine} they are compiled for. Plain literal patterns are simply compared to the input,
+ * and {@link PathTemplate} patterns are matched segment by segment.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CompiledPattern {
+
+    /**
+     * Used to find named groups when the capturing groups of a pattern could not be numbered
+     */
+    private static final Pattern GROUP_NAME_PATTERN = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+
+    private static final String[] NO_GROUP_NAMES = new String[0];
+
+    private static final int[] NO_GROUP_NUMBERS = new int[0];
+
+    private final String regex;
+
+    private final RegexEngine engine;
+
+    /**
+     * The pattern matched by the JDK engine, <code>null</code> with the linear engine
+     */
+    private final Pattern pattern;
+
+    /**
+     * The pattern matched by the linear engine, <code>null</code> with the JDK engine
+     */
+    private final LinearRegex linearRegex;
+
+    /**
+     * The only text matched by a plain literal pattern, <code>null</code> otherwise
+     */
+    private final String literal;
+
+    /**
+     * The path template matched, <code>null</code> for a regular expression
+     */
+    private final PathTemplate template;
+
+    /**
+     * Maximum number of characters read by the JDK engine to match an input, 0 if unlimited
+     */
+    private final int stepBudget;
+
+    private final int groupCount;
+
+    private final String[] groupNames;
+
+    /**
+     * Number of each named group, or -1 when it could not be determined and the group has to be looked up by name
+     */
+    private final int[] groupNumbers;
+
+    private CompiledPattern(Pattern pattern, int stepBudget) {
+        this.regex = pattern.pattern();
+        this.engine = RegexEngine.JAVA;
+        this.pattern = pattern;
+        this.linearRegex = null;
+        this.literal = null;
+        this.template = null;
+        this.stepBudget = stepBudget;
+        this.groupCount = pattern.matcher("").groupCount();
+
+        String[] groups = RegexSyntax.capturingGroups(regex);
+        List<String> names = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        if (groups != null && groups.length == groupCount) {
+            for (int idx = 0; idx < groups.length; idx++) {
+                if (groups[idx] != null) {
+                    names.add(groups[idx]);
+                    numbers.add(idx + 1);
+                }
+            }
+        } else {
+            Matcher matcher = GROUP_NAME_PATTERN.matcher(regex);
+            while (matcher.find()) {
+                if (!names.contains(matcher.group(1))) {
+                    names.add(matcher.group(1));
+                    numbers.add(-1);
+                }
+            }
+        }
+
+        this.groupNames = names.isEmpty() ? NO_GROUP_NAMES : names.toArray(new String[0]);
+        this.groupNumbers = numbers.isEmpty() ? NO_GROUP_NUMBERS : numbers.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private CompiledPattern(LinearRegex linearRegex) {
+        this.regex = linearRegex.getRegex();
+        this.engine = RegexEngine.LINEAR;
+        this.pattern = null;
+        this.linearRegex = linearRegex;
+        this.literal = null;
+        this.template = null;
+        this.stepBudget = 0;
+        this.groupCount = linearRegex.getGroupCount();
+
+        // The linear engine parses the whole expression, so every named group has a known number
+        String[] groups = linearRegex.getGroupNames();
+        List<String> names = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        for (int idx = 1; idx < groups.length; idx++) {
+            if (groups[idx] != null) {
+                names.add(groups[idx]);
+                numbers.add(idx);
+            }
+        }
+
+        this.groupNames = names.isEmpty() ? NO_GROUP_NAMES : names.toArray(new String[0]);
+        this.groupNumbers = numbers.isEmpty() ? NO_GROUP_NUMBERS : numbers.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private CompiledPattern(PathTemplate template) {
+        this.regex = template.getTemplate();
+        this.engine = null;
+        this.pattern = null;
+        this.linearRegex = null;
+        this.literal = null;
+        this.template = template;
+        this.stepBudget = 0;
+        this.groupCount = template.getGroupCount();
+
+        String[] groups = template.getGroupNames();
+        List<String> names = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        for (int idx = 1; idx < groups.length; idx++) {
+            if (groups[idx] != null) {
+                names.add(groups[idx]);
+                numbers.add(idx);
+            }
+        }
+
+        this.groupNames = names.isEmpty() ? NO_GROUP_NAMES : names.toArray(new String[0]);
+        this.groupNumbers = numbers.isEmpty() ? NO_GROUP_NUMBERS : numbers.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private CompiledPattern(String regex, RegexEngine engine, String literal) {
+        this.regex = regex;
+        this.engine = engine;
+        this.pattern = null;
+        this.linearRegex = null;
+        this.literal = literal;
+        this.template = null;
+        this.stepBudget = 0;
+        this.groupCount = 0;
+        this.groupNames = NO_GROUP_NAMES;
+        this.groupNumbers = NO_GROUP_NUMBERS;
+    }
+
+    /**
+     * Compiles the regular expression for the JDK engine, without any budget.
+     *
+     * @throws PatternSyntaxException if the regular expression is invalid
+     */
+    public static CompiledPattern compile(String regex) {
+        return compile(regex, RegexEngine.JAVA, 0);
+    }
+
+    /**
+     * @param engine the engine to match the pattern with
+     * @param stepBudget maximum number of characters read by the JDK engine to match an input, 0 if unlimited. The linear engine
+     * needs no budget and ignores it.
+     * @throws PatternSyntaxException if the regular expression is invalid, or can not be matched by the given engine
+     */
+    public static CompiledPattern compile(String regex, RegexEngine engine, int stepBudget) {
+        if (engine == RegexEngine.LINEAR) {
+            return new CompiledPattern(LinearRegex.compile(regex));
+        }
+        return new CompiledPattern(Pattern.compile(regex), Math.max(stepBudget, 0));
+    }
+
+    /**
+     * Compiles a regular expression known to be a plain literal, without building any matching program.
+     *
+     * @param literal the only text matched by the regular expression, as given by {@link RegexSyntax#literal(String)}
+     */
+    static CompiledPattern literal(String regex, RegexEngine engine, String literal) {
+        return new CompiledPattern(regex, engine, literal);
+    }
+
+    /**
+     * Compiles a path template, without any regular expression.
+     *
+     * @throws PatternSyntaxException if the template is not made of literal, variable or wildcard segments
+     */
+    static CompiledPattern template(String template) {
+        return new CompiledPattern(PathTemplate.compile(template));
+    }
+
+    /**
+     * Matches the whole input against the pattern.
+     *
+     * @return the successful match, <code>null</code> if the input is not matching
+     * @throws MatchBudgetExceededException if matching the input exceeds the step budget of the pattern
+     */
+    public MatchResult match(CharSequence input) {
+        if (literal != null) {
+            return literal.contentEquals(input) ? new OffsetMatchResult(literal, new int[] { 0, literal.length() }) : null;
+        }
+        if (linearRegex != null) {
+            return linearRegex.matches(input);
+        }
+        if (template != null) {
+            return template.match(input);
+        }
+        Matcher matcher = pattern.matcher(stepBudget > 0 ? new BudgetedCharSequence(input, this) : input);
+        return matcher.matches() ? matcher : null;
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    /**
+     * @return the engine matching the regular expression, <code>null</code> for a path template
+     */
+    public RegexEngine getEngine() {
+        return engine;
+    }
+
+    public int getStepBudget() {
+        return stepBudget;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    public String[] getGroupNames() {
+        return groupNames;
+    }
+
+    /**
+     * @return <code>true</code> if every named group has a known number, so that it can be read from any {@link MatchResult} and
+     * not only from a {@link Matcher}
+     */
+    boolean hasNumberedGroups() {
+        for (int number : groupNumbers) {
+            if (number < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the values captured by the groups of the given successful match, by group number minus one
+     */
+    String[] groups(MatchResult result) {
+        String[] groups = new String[groupCount];
+        for (int idx = 0; idx < groupCount; idx++) {
+            groups[idx] = result.group(idx + 1);
+        }
+        return groups;
+    }
+
+    /**
+     * @return the value captured by the named group in the given successful match, <code>null</code> if there is no such group
+     */
+    String namedGroup(MatchResult result, String name) {
+        for (int idx = 0; idx < groupNames.length; idx++) {
+            if (groupNames[idx].equals(name)) {
+                return groupNumbers[idx] > 0 ? result.group(groupNumbers[idx]) : ((Matcher) result).group(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of the named group, 0 if there is no such group, -1 if its value can only be read from a {@link Matcher}
+     */
+    int groupNumber(String name) {
+        for (int idx = 0; idx < groupNames.length; idx++) {
+            if (groupNames[idx].equals(name)) {
+                return groupNumbers[idx];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the path template matched, <code>null</code> for a regular expression
+     */
+    PathTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the only text matched by the pattern if it is a plain literal, <code>null</code> otherwise
+     */
+    public String getLiteral() {
+        return literal;
+    }
+
+    /**
+     * Counts the characters read by the JDK engine, which reads them again each time it backtracks, and stops the match once the
+     * budget is exhausted. The captured values are read through {@link #subSequence(int, int)}, which is not counted.
+     */
+    private static final class BudgetedCharSequence implements CharSequence {
+
+        private final CharSequence input;
+
+        private final CompiledPattern pattern;
+
+        private int remaining;
+
+        private BudgetedCharSequence(CharSequence input, CompiledPattern pattern) {
+            this.input = input;
+            this.pattern = pattern;
+            this.remaining = pattern.stepBudget;
+        }
+
+        @Override
+        public int length() {
+            return input.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--remaining < 0) {
+                throw new MatchBudgetExceededException(pattern.regex, pattern.stepBudget);
+            }
+            return input.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return input.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return input.toString();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.dynamicrouting.configuration.HeaderCondition;
+import io.gravitee.policy.dynamicrouting.configuration.PatternType;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import io.gravitee.policy.dynamicrouting.configuration.WeightedTarget;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A routing {@link Rule} prepared for matching.
+ *
+ * Patterns without any expression language are compiled once, when the rule set is built, and shared by every request. Plain
+ * literal patterns are not compiled at all, the paths they match being looked up in an {@link ExactRuleIndex}. With the
+ * {@link PatternType#PATH_TEMPLATE} type, patterns are {@link PathTemplate}s and never rely on EL.
+ * Patterns relying on EL are resolved through the template engine each time they are evaluated, the resulting regular
+ * expressions being compiled through the {@link PatternCache} of the rule set.
+ *
+ * The conditions of the rule on the host, the method and the headers of the request are normalized to be looked up by the
+ * {@link ConditionIndex} of the rule set.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CompiledRule {
+
+    private final int index;
+
+    private final Rule rule;
+
+    private final boolean dynamic;
+
+    private final CompiledPattern pattern;
+
+    private final PatternCache patternCache;
+
+    private final UrlTemplate urlTemplate;
+
+    /**
+     * Weighted targets the requests are spread across, <code>null</code> if the rule routes to its URL only
+     */
+    private final TargetGroup targets;
+
+    /**
+     * Literal text any path matched by the rule starts with
+     */
+    private final String literalPrefix;
+
+    /**
+     * Syntax error of a static pattern, or construct not supported by the configured engine, kept to be raised when the rule is
+     * evaluated
+     */
+    private final PatternSyntaxException syntaxError;
+
+    /**
+     * Lower case host the request must be sent to, <code>null</code> for any host
+     */
+    private final String host;
+
+    /**
+     * Methods the request must use, <code>null</code> for any method
+     */
+    private final Set<HttpMethod> methods;
+
+    /**
+     * Values accepted for each header, by lower case header name, <code>null</code> for any headers
+     */
+    private final Map<String, Set<String>> headers;
+
+    CompiledRule(int index, Rule rule, PatternCache patternCache, PatternType patternType) {
+        this.index = index;
+        this.rule = rule;
+        this.patternCache = patternCache;
+        this.urlTemplate = UrlTemplate.compile(rule.getUrl());
+        this.targets = TargetGroup.of(rule.getTargets(), rule.getStickyKey());
+        this.dynamic = patternType != PatternType.PATH_TEMPLATE && Expressions.isExpression(rule.getPattern());
+
+        CompiledPattern compiled = null;
+        PatternSyntaxException error = null;
+        if (!dynamic) {
+            try {
+                compiled = compile(rule.getPattern(), patternCache, patternType);
+            } catch (PatternSyntaxException pse) {
+                error = pse;
+            }
+        }
+        this.pattern = compiled;
+        this.syntaxError = error;
+        if (compiled == null) {
+            this.literalPrefix = "";
+        } else if (compiled.getTemplate() != null) {
+            this.literalPrefix = compiled.getTemplate().literalPrefix();
+        } else {
+            this.literalPrefix = RegexSyntax.literalPrefix(rule.getPattern());
+        }
+
+        this.host = rule.getHost() == null || rule.getHost().isBlank() ? null : rule.getHost().trim().toLowerCase(Locale.ROOT);
+        this.methods = rule.getMethods() == null || rule.getMethods().isEmpty()
+            ? null
+            : Collections.unmodifiableSet(EnumSet.copyOf(rule.getMethods()));
+        this.headers = headers(rule);
+    }
+
+    /**
+     * The same rule, at another position: the pattern, the URL and the targets, along with their observed latency, are kept.
+     */
+    private CompiledRule(CompiledRule compiled, int index) {
+        this.index = index;
+        this.rule = compiled.rule;
+        this.dynamic = compiled.dynamic;
+        this.pattern = compiled.pattern;
+        this.patternCache = compiled.patternCache;
+        this.urlTemplate = compiled.urlTemplate;
+        this.targets = compiled.targets;
+        this.literalPrefix = compiled.literalPrefix;
+        this.syntaxError = compiled.syntaxError;
+        this.host = compiled.host;
+        this.methods = compiled.methods;
+        this.headers = compiled.headers;
+    }
+
+    /**
+     * @return this rule at the given position in the rule set
+     */
+    CompiledRule withIndex(int index) {
+        return index == this.index ? this : new CompiledRule(this, index);
+    }
+
+    /**
+     * @return the content of the rule which its compiled form depends on, equal for rules compiled the same way. The content is
+     * copied, as rules are mutable.
+     */
+    static List<Object> content(Rule rule) {
+        return Arrays.asList(
+            rule.getPattern(),
+            rule.getUrl(),
+            rule.getHost(),
+            rule.getMethods() == null ? null : new HashSet<>(rule.getMethods()),
+            headerContent(rule),
+            targetContent(rule),
+            rule.getStickyKey() == null ? null : rule.getStickyKey().getSource(),
+            rule.getStickyKey() == null ? null : rule.getStickyKey().getName()
+        );
+    }
+
+    private static List<String> headerContent(Rule rule) {
+        if (rule.getHeaders() == null) {
+            return null;
+        }
+        List<String> headers = new ArrayList<>(2 * rule.getHeaders().size());
+        for (HeaderCondition condition : rule.getHeaders()) {
+            headers.add(condition.getName());
+            headers.add(condition.getValue());
+        }
+        return headers;
+    }
+
+    private static List<Object> targetContent(Rule rule) {
+        if (rule.getTargets() == null) {
+            return null;
+        }
+        List<Object> targets = new ArrayList<>(2 * rule.getTargets().size());
+        for (WeightedTarget target : rule.getTargets()) {
+            targets.add(target == null ? null : target.getUrl());
+            targets.add(target == null ? 0 : target.getWeight());
+        }
+        return targets;
+    }
+
+    /**
+     * Several conditions on the same header accept any of their values.
+     */
+    private static Map<String, Set<String>> headers(Rule rule) {
+        if (rule.getHeaders() == null) {
+            return null;
+        }
+        Map<String, Set<String>> headers = new LinkedHashMap<>();
+        for (HeaderCondition condition : rule.getHeaders()) {
+            if (condition.getName() != null && !condition.getName().isBlank() && condition.getValue() != null) {
+                headers
+                    .computeIfAbsent(condition.getName().trim().toLowerCase(Locale.ROOT), name -> new HashSet<>())
+                    .add(condition.getValue());
+            }
+        }
+        return headers.isEmpty() ? null : Collections.unmodifiableMap(headers);
+    }
+
+    private static CompiledPattern compile(String pattern, PatternCache patternCache, PatternType patternType) {
+        if (patternType == PatternType.PATH_TEMPLATE) {
+            CompiledPattern template = CompiledPattern.template(pattern);
+            // A template without variable nor wildcard only matches itself
+            return template.getGroupCount() == 0 ? CompiledPattern.literal(pattern, null, pattern) : template;
+        }
+
+        String literal = RegexSyntax.literal(pattern);
+        if (literal != null) {
+            return CompiledPattern.literal(pattern, patternCache.getEngine(), literal);
+        }
+        return patternCache.compile(pattern);
+    }
+
+    /**
+     * Returns the pattern to match the request path against, resolving it with the given template engine if it relies on EL.
+     *
+     * @param templateEngine the template engine of the current request
+     * @return the compiled pattern, <code>null</code> if the pattern relies on EL and resolved to nothing
+     * @throws PatternSyntaxException if the (resolved) pattern is not a valid regular expression
+     */
+    public CompiledPattern pattern(TemplateEngine templateEngine) {
+        return pattern(PatternResolver.of(templateEngine));
+    }
+
+    /**
+     * Returns the pattern to match the request path against, resolving it with the given resolver if it relies on EL.
+     *
+     * @param resolver the resolver of the patterns relying on EL for the current request
+     * @return the compiled pattern, <code>null</code> if the pattern relies on EL and resolved to nothing
+     * @throws PatternSyntaxException if the (resolved) pattern is not a valid regular expression
+     */
+    public CompiledPattern pattern(PatternResolver resolver) {
+        if (dynamic) {
+            String regex = resolver.resolve(this);
+            return regex == null ? null : patternCache.get(regex);
+        }
+
+        if (syntaxError != null) {
+            throw syntaxError;
+        }
+
+        return pattern;
+    }
+
+    /**
+     * @return the pattern compiled with the rule set, <code>null</code> for a pattern relying on EL or an invalid one
+     */
+    public CompiledPattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return <code>false</code> if the pattern is static and is not a valid regular expression
+     */
+    public boolean isValid() {
+        return syntaxError == null;
+    }
+
+    /**
+     * @return the reason why the static pattern could not be compiled, <code>null</code> if it is valid or relies on EL
+     */
+    public PatternSyntaxException getSyntaxError() {
+        return syntaxError;
+    }
+
+    /**
+     * @return the only path matched by the rule if its pattern is a plain literal, <code>null</code> otherwise
+     */
+    public String getLiteral() {
+        return pattern != null ? pattern.getLiteral() : null;
+    }
+
+    /**
+     * @return the literal text any path matched by the rule starts with, empty if unknown
+     */
+    public String getLiteralPrefix() {
+        return literalPrefix;
+    }
+
+    public UrlTemplate getUrlTemplate() {
+        return urlTemplate;
+    }
+
+    /**
+     * @return the weighted targets of the rule, <code>null</code> if the requests are routed to the URL of the rule only
+     */
+    public TargetGroup getTargets() {
+        return targets;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    public boolean isDynamic() {
+        return dynamic;
+    }
+
+    /**
+     * @return <code>true</code> if the rule only applies to some hosts, methods or header values
+     */
+    public boolean hasConditions() {
+        return host != null || methods != null || headers != null;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    Set<HttpMethod> getMethods() {
+        return methods;
+    }
+
+    Map<String, Set<String>> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.MatchingStrategy;
+import io.gravitee.policy.dynamicrouting.configuration.PatternType;
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ordered list of {@link CompiledRule} built from a policy configuration.
+ *
+ * A rule set is immutable and meant to be shared by all the requests (and policy instances) using the same configuration. The
+ * compiled rules themselves are shared by all the configurations having the same content, see {@link CompiledRuleSetRegistry},
+ * each configuration keeping its own metrics.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CompiledRuleSet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledRuleSet.class);
+
+    /**
+     * Rough size, in bytes, of a cached route besides its strings: map node, cache entry, match and capture group offsets
+     */
+    private static final int ROUTE_ENTRY_OVERHEAD = 160;
+
+    /**
+     * Rough size, in bytes, of a string besides its characters
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * Maximum number of distinct subsets of rules, selected by their conditions, whose matching structures are kept
+     */
+    private static final int MAX_RULE_SUBSETS = 1024;
+
+    private final List<CompiledRule> rules;
+
+    private final PatternCache patternCache;
+
+    /**
+     * Matching structures of all the rules, <code>null</code> if some rules have conditions
+     */
+    private final RuleMatcher matcher;
+
+    /**
+     * Selects the rules whose conditions hold for a request, <code>null</code> if no rule has conditions
+     */
+    private final ConditionIndex conditionIndex;
+
+    /**
+     * Matching structures of the subsets of rules selected by their conditions, <code>null</code> if no rule has conditions
+     */
+    private final BoundedCache<BitSet, RuleMatcher> subsetMatchers;
+
+    private final List<CompiledRule> reachableRules;
+
+    private final PatternType patternType;
+
+    private final MatchingStrategy matchingStrategy;
+
+    /**
+     * Routes already selected by path, <code>null</code> if disabled
+     */
+    private final BoundedCache<String, RouteMatch> routeCache;
+
+    /**
+     * Index of the first rule depending on the request, through its pattern or its conditions. The route selected for a path can
+     * only be cached when it is one of the rules declared before, as the rules evaluated for that path can then not select another
+     * route for another request.
+     */
+    private final int firstRequestDependentRule;
+
+    private final List<CompiledRule> dynamicRules;
+
+    /**
+     * Rules whose pattern relies on EL which may be evaluated, being reachable and declared before the first invalid rule
+     */
+    private final List<CompiledRule> evaluableDynamicRules;
+
+    /**
+     * Rules whose pattern is not valid, reported when the rule set is compiled
+     */
+    private final List<CompiledRule> invalidRules;
+
+    /**
+     * Index of the first rule whose pattern is not valid: the rules declared from it are never evaluated, the requests matched
+     * by none of the rules declared before it being rejected
+     */
+    private final int firstInvalidRule;
+
+    /**
+     * Index of the rule shadowing each rule, by index, {@link RuleShadowing#NONE} for the rules which may be selected
+     */
+    private final int[] shadowedBy;
+
+    /**
+     * Rules which can never be selected, left out of the matching structures
+     */
+    private final List<CompiledRule> unreachableRules;
+
+    /**
+     * Rejects the paths no rule can match without evaluating the rules, <code>null</code> if any path may be matched
+     */
+    private final NoMatchFilter noMatchFilter;
+
+    private final RoutingMetrics metrics;
+
+    /**
+     * Rule set this one shares its compiled rules with, kept reachable as long as this one is in use, <code>null</code> if none
+     */
+    private final CompiledRuleSet origin;
+
+    private CompiledRuleSet(
+        List<CompiledRule> rules,
+        PatternCache patternCache,
+        PatternType patternType,
+        MatchingStrategy matchingStrategy,
+        int routeCacheSize,
+        RoutingMetrics metrics
+    ) {
+        this.origin = null;
+        this.rules = rules;
+        this.patternCache = patternCache;
+        this.metrics = metrics;
+
+        // Rules shadowed by rules declared before them are left out
+        this.shadowedBy = RuleShadowing.analyze(rules);
+        List<CompiledRule> reachable = new ArrayList<>();
+        List<CompiledRule> unreachable = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            (shadowedBy[rule.getIndex()] == RuleShadowing.NONE ? reachable : unreachable).add(rule);
+        }
+        this.unreachableRules = Collections.unmodifiableList(unreachable);
+        this.reachableRules = Collections.unmodifiableList(reachable);
+        this.patternType = patternType;
+        this.matchingStrategy = matchingStrategy;
+
+        // When rules have conditions, the matching structures are built for each subset of rules applying to some requests
+        this.conditionIndex = ConditionIndex.of(reachable);
+        this.matcher = conditionIndex == null ? matcher(reachable) : null;
+        if (matcher != null) {
+            // Rules carried over from a previous rule set keep being evaluated in order of hits
+            matcher.recordHits(metrics.getRuleHitCounts());
+        }
+        this.subsetMatchers = conditionIndex == null ? null : new BoundedCache<>(MAX_RULE_SUBSETS, null);
+
+        List<CompiledRule> dynamic = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            if (rule.isDynamic()) {
+                dynamic.add(rule);
+            }
+        }
+        this.dynamicRules = Collections.unmodifiableList(dynamic);
+
+        List<CompiledRule> invalid = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            if (!rule.isValid()) {
+                invalid.add(rule);
+            }
+        }
+        this.invalidRules = Collections.unmodifiableList(invalid);
+        this.firstInvalidRule = invalid.isEmpty() ? rules.size() : invalid.get(0).getIndex();
+        List<CompiledRule> evaluableDynamic = new ArrayList<>();
+        for (CompiledRule rule : dynamic) {
+            if (rule.getIndex() < firstInvalidRule && shadowedBy[rule.getIndex()] == RuleShadowing.NONE) {
+                evaluableDynamic.add(rule);
+            }
+        }
+        this.evaluableDynamicRules = Collections.unmodifiableList(evaluableDynamic);
+        // Paths reaching an invalid rule are not to be rejected as if no rule was matching
+        this.noMatchFilter = invalid.isEmpty() ? NoMatchFilter.of(reachable) : null;
+        int firstRequestDependent = rules.size();
+        for (CompiledRule rule : rules) {
+            if (rule.isDynamic() || rule.hasConditions()) {
+                firstRequestDependent = rule.getIndex();
+                break;
+            }
+        }
+        this.firstRequestDependentRule = firstRequestDependent;
+        this.routeCache = routeCacheSize > 0 && firstRequestDependent > 0
+            ? new BoundedCache<>(routeCacheSize, CompiledRuleSet::estimateSize)
+            : null;
+    }
+
+    private CompiledRuleSet(CompiledRuleSet origin) {
+        this.origin = origin;
+        this.rules = origin.rules;
+        this.patternCache = origin.patternCache;
+        this.matcher = origin.matcher;
+        this.conditionIndex = origin.conditionIndex;
+        this.subsetMatchers = origin.subsetMatchers;
+        this.reachableRules = origin.reachableRules;
+        this.patternType = origin.patternType;
+        this.matchingStrategy = origin.matchingStrategy;
+        this.routeCache = origin.routeCache;
+        this.firstRequestDependentRule = origin.firstRequestDependentRule;
+        this.dynamicRules = origin.dynamicRules;
+        this.evaluableDynamicRules = origin.evaluableDynamicRules;
+        this.invalidRules = origin.invalidRules;
+        this.firstInvalidRule = origin.firstInvalidRule;
+        this.noMatchFilter = origin.noMatchFilter;
+        this.shadowedBy = origin.shadowedBy;
+        this.unreachableRules = origin.unreachableRules;
+        this.metrics = new RoutingMetrics(rules.size());
+    }
+
+    /**
+     * Builds the matching structures of the given rules: rules whose pattern is a plain literal are looked up by path, the other
+     * ones are evaluated.
+     */
+    private RuleMatcher matcher(List<CompiledRule> reachable) {
+        List<CompiledRule> literalRules = new ArrayList<>();
+        List<CompiledRule> evaluatedRules = new ArrayList<>();
+        for (CompiledRule rule : reachable) {
+            if (rule.getLiteral() != null) {
+                literalRules.add(rule);
+            } else {
+                evaluatedRules.add(rule);
+            }
+        }
+        RuleMatcher evaluated;
+        if (patternType == PatternType.PATH_TEMPLATE) {
+            evaluated = new SegmentTreeMatcher(rules, evaluatedRules);
+        } else if (matchingStrategy == MatchingStrategy.COMBINED) {
+            evaluated = new CombinedRuleMatcher(evaluatedRules, patternCache);
+        } else {
+            evaluated = new SequentialRuleMatcher(rules, evaluatedRules);
+        }
+        return literalRules.isEmpty() ? evaluated : new ExactRuleMatcher(rules, literalRules, evaluated);
+    }
+
+    /**
+     * @return the matching structures of the rules whose conditions hold for the request
+     */
+    private RuleMatcher matcher(RequestAttributes request) {
+        if (conditionIndex == null) {
+            return matcher;
+        }
+
+        BitSet admitted = conditionIndex.admitted(request);
+        RuleMatcher subset = subsetMatchers.get(admitted);
+        if (subset == null) {
+            List<CompiledRule> admittedRules = new ArrayList<>();
+            for (CompiledRule rule : reachableRules) {
+                if (admitted.get(rule.getIndex())) {
+                    admittedRules.add(rule);
+                }
+            }
+            subset = subsetMatchers.putIfAbsent(admitted, matcher(admittedRules));
+        }
+        return subset;
+    }
+
+    /**
+     * @return a rule set sharing the compiled rules, the caches and the matching structures of this one, with its own metrics
+     */
+    CompiledRuleSet share() {
+        return new CompiledRuleSet(origin != null ? origin : this);
+    }
+
+    public static CompiledRuleSet compile(DynamicRoutingPolicyConfiguration configuration) {
+        return compile(configuration, configuration.getRules(), null);
+    }
+
+    /**
+     * Compiles the given rules with the settings of the configuration. The rules of the previous rule set which have not changed
+     * are reused as they are, whatever their new position, so that only the new and changed rules have their pattern compiled, and
+     * keep their counters, see {@link RoutingMetrics#carryOver(int[])}. The matching structures are built again for all the rules.
+     *
+     * @param configuration the configuration providing the settings
+     * @param rules the rules to compile, in place of the rules of the configuration
+     * @param previous a rule set compiled with the same settings, <code>null</code> to compile every rule
+     */
+    public static CompiledRuleSet compile(DynamicRoutingPolicyConfiguration configuration, List<Rule> rules, CompiledRuleSet previous) {
+        RegexEngine engine = configuration.getRegexEngine() == null ? RegexEngine.JAVA : configuration.getRegexEngine();
+        PatternType patternType = configuration.getPatternType() == null ? PatternType.REGEX : configuration.getPatternType();
+        PatternCache patternCache = previous != null
+            ? previous.patternCache
+            : new PatternCache(configuration.getPatternCacheSize(), engine, configuration.getMatchStepBudget());
+        if (rules == null || rules.isEmpty()) {
+            RoutingMetrics metrics = previous != null ? previous.metrics.carryOver(new int[0]) : new RoutingMetrics(0);
+            return new CompiledRuleSet(Collections.emptyList(), patternCache, PatternType.REGEX, MatchingStrategy.SEQUENTIAL, 0, metrics);
+        }
+
+        Map<List<Object>, Deque<CompiledRule>> reusable = new HashMap<>();
+        if (previous != null) {
+            for (CompiledRule rule : previous.rules) {
+                reusable.computeIfAbsent(CompiledRule.content(rule.getRule()), content -> new ArrayDeque<>()).add(rule);
+            }
+        }
+        List<CompiledRule> compiledRules = new ArrayList<>(rules.size());
+        int[] previousIndexes = new int[rules.size()];
+        int compiled = 0;
+        for (int idx = 0; idx < rules.size(); idx++) {
+            Deque<CompiledRule> unchanged = reusable.isEmpty() ? null : reusable.get(CompiledRule.content(rules.get(idx)));
+            CompiledRule rule = unchanged == null ? null : unchanged.poll();
+            if (rule == null) {
+                rule = new CompiledRule(idx, rules.get(idx), patternCache, patternType);
+                previousIndexes[idx] = -1;
+                compiled++;
+            } else {
+                previousIndexes[idx] = rule.getIndex();
+            }
+            compiledRules.add(rule.withIndex(idx));
+        }
+        if (previous != null) {
+            LOGGER.debug("{} of {} rules compiled, the other ones being unchanged", compiled, rules.size());
+        }
+
+        CompiledRuleSet ruleSet = new CompiledRuleSet(
+            Collections.unmodifiableList(compiledRules),
+            patternCache,
+            patternType,
+            configuration.getMatchingStrategy(),
+            configuration.getRouteCacheSize(),
+            previous != null ? previous.metrics.carryOver(previousIndexes) : new RoutingMetrics(rules.size())
+        );
+        if (!ruleSet.invalidRules.isEmpty()) {
+            LOGGER.warn(
+                "{} of {} rules are not valid, requests not matching a rule declared before rule #{} will be rejected: {}",
+                ruleSet.invalidRules.size(),
+                compiledRules.size(),
+                ruleSet.firstInvalidRule,
+                describe(ruleSet.invalidRules)
+            );
+        }
+        if (!ruleSet.unreachableRules.isEmpty()) {
+            LOGGER.warn(
+                "{} of {} rules can never be selected, as rules declared before them match all their paths: {}",
+                ruleSet.unreachableRules.size(),
+                compiledRules.size(),
+                ruleSet.describeUnreachable()
+            );
+        }
+        return ruleSet;
+    }
+
+    /**
+     * @return the index and pattern of each unreachable rule, and the index of the rule shadowing it
+     */
+    String describeUnreachable() {
+        StringBuilder description = new StringBuilder();
+        for (CompiledRule rule : unreachableRules) {
+            if (description.length() > 0) {
+                description.append("; ");
+            }
+            description
+                .append('#')
+                .append(rule.getIndex())
+                .append(" [")
+                .append(rule.getRule().getPattern())
+                .append("] shadowed by #")
+                .append(shadowedBy[rule.getIndex()]);
+        }
+        return description.toString();
+    }
+
+    /**
+     * @return the index, pattern and error of each of the given rules
+     */
+    static String describe(List<CompiledRule> invalidRules) {
+        StringBuilder description = new StringBuilder();
+        for (CompiledRule rule : invalidRules) {
+            if (description.length() > 0) {
+                description.append("; ");
+            }
+            description
+                .append('#')
+                .append(rule.getIndex())
+                .append(" [")
+                .append(rule.getRule().getPattern())
+                .append("]: ")
+                .append(rule.getSyntaxError().getDescription());
+        }
+        return description.toString();
+    }
+
+    /**
+     * Looks up the first rule, in declaration order, matching either the request path or its decoded form. Pass the same instance
+     * for both when the path has nothing to decode so that it is only matched once.
+     *
+     * When the route cache is enabled, the route selected for a path by rules which only depend on the path is reused for the
+     * following requests on the same path.
+     *
+     * Rules are only evaluated up to the first rule whose pattern is not valid, see {@link #hasInvalidRules()}.
+     *
+     * @return the matching rule, or <code>null</code> if none is matching
+     * @throws java.util.regex.PatternSyntaxException if a pattern resolved from EL is not a valid regular expression
+     */
+    public RouteMatch match(String path, String decodedPath, TemplateEngine templateEngine) {
+        return match(path, decodedPath, PatternResolver.of(templateEngine));
+    }
+
+    /**
+     * Same as {@link #match(String, String, TemplateEngine)}, the patterns relying on EL being resolved by the given resolver. Only
+     * the rules without conditions are considered.
+     */
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver) {
+        return match(path, decodedPath, resolver, RequestAttributes.NONE);
+    }
+
+    /**
+     * Same as {@link #match(String, String, PatternResolver)}, only considering the rules whose conditions hold for the given
+     * request. These rules are selected by hash lookups on the host, method and headers of the request, before any pattern is
+     * matched.
+     */
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver, RequestAttributes request) {
+        return match(path, decodedPath, resolver, request, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #match(String, String, PatternResolver, RequestAttributes)}, only considering the rules declared from the
+     * first given one and before the second one. This lets the rules be matched stage by stage, up to each rule relying on EL, its
+     * pattern being only resolved once the rules declared before it are known not to match, see
+     * {@link #getDynamicRules(RequestAttributes)}.
+     *
+     * @param from the index of the first rule to consider, the rules declared before it being known not to match the path
+     * @param limit the index of the first rule not to consider
+     */
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver, RequestAttributes request, int from, int limit) {
+        RuleMatcher matcher = matcher(request);
+        int bound = Math.min(limit, firstInvalidRule);
+        if (routeCache == null || from > 0) {
+            // A route cached for the path would have been found by the first stage
+            return matcher.match(path, decodedPath, resolver, from, bound);
+        }
+
+        RouteMatch cached = routeCache.get(path);
+        if (cached != null) {
+            return cached.getRule().getIndex() < bound ? cached : null;
+        }
+
+        RouteMatch match = matcher.match(path, decodedPath, resolver, 0, bound);
+        if (match != null && match.getRule().getIndex() < firstRequestDependentRule) {
+            RouteMatch snapshot = match.snapshot();
+            if (snapshot != null) {
+                return routeCache.putIfAbsent(path, snapshot);
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Checks, without evaluating any rule, whether a rule may match either the request path or its decoded form. A path for
+     * which no rule may match is never matched by {@link #match(String, String, PatternResolver)}, but the reverse does not
+     * hold: this is a cheap way to reject junk paths before matching.
+     *
+     * @return <code>false</code> if no rule can match the path
+     */
+    public boolean mayMatch(String path, String decodedPath) {
+        return noMatchFilter == null || noMatchFilter.mayMatch(path) || (decodedPath != path && noMatchFilter.mayMatch(decodedPath));
+    }
+
+    private static long estimateSize(String path, RouteMatch match) {
+        long size = ROUTE_ENTRY_OVERHEAD + 8L * match.groupCount() + STRING_OVERHEAD + path.length();
+        String url = match.getRule().getUrlTemplate().getUrl();
+        if (match.getRule().getUrlTemplate().dependsOnPathOnly() && url != null) {
+            // The endpoint rendered later on, assuming capture groups do not weigh more than the path
+            size += STRING_OVERHEAD + url.length() + path.length();
+        }
+        return size;
+    }
+
+    public List<CompiledRule> getRules() {
+        return rules;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @return the rules whose pattern relies on EL, in declaration order
+     */
+    public List<CompiledRule> getDynamicRules() {
+        return dynamicRules;
+    }
+
+    /**
+     * @return the rules whose pattern relies on EL and which may be evaluated for the given request, in declaration order: rules
+     * shadowed by an earlier rule, declared after an invalid rule or whose conditions do not hold for the request are left out
+     */
+    public List<CompiledRule> getDynamicRules(RequestAttributes request) {
+        if (conditionIndex == null || evaluableDynamicRules.isEmpty()) {
+            return evaluableDynamicRules;
+        }
+        BitSet admitted = conditionIndex.admitted(request);
+        List<CompiledRule> evaluable = new ArrayList<>(evaluableDynamicRules.size());
+        for (CompiledRule rule : evaluableDynamicRules) {
+            if (admitted.get(rule.getIndex())) {
+                evaluable.add(rule);
+            }
+        }
+        return evaluable;
+    }
+
+    /**
+     * When a rule is not valid, the requests matched by none of the rules declared before it can not be routed: they are to be
+     * rejected as they were evaluating the invalid rule, instead of being considered as matched by no rule.
+     *
+     * @return <code>true</code> if at least one of the rules has a pattern which is not valid
+     */
+    public boolean hasInvalidRules() {
+        return !invalidRules.isEmpty();
+    }
+
+    /**
+     * @return the rules whose pattern is not valid, in declaration order, along with their error
+     */
+    public List<CompiledRule> getInvalidRules() {
+        return invalidRules;
+    }
+
+    /**
+     * @return the rules which can never be selected, as rules declared before them match all their paths, in declaration order
+     */
+    public List<CompiledRule> getUnreachableRules() {
+        return unreachableRules;
+    }
+
+    /**
+     * @return the index of the rule declared before the given one and matching all its paths, <code>-1</code> if the given rule
+     * may be selected
+     */
+    public int getShadowingRule(CompiledRule rule) {
+        return shadowedBy[rule.getIndex()];
+    }
+
+    /**
+     * Routing decisions taken with this rule set, by all the policy instances sharing it. Rule sets sharing their compiled rules
+     * through {@link CompiledRuleSetRegistry} do not share their metrics.
+     */
+    public RoutingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Usage of the cache of patterns resolved from EL, to be used to size it according to the number of distinct values.
+     */
+    public BoundedCache.Stats getPatternCacheStats() {
+        return patternCache.stats();
+    }
+
+    /**
+     * Usage of the cache of routes selected by path, including its hit ratio and an estimate of its memory footprint.
+     *
+     * @return the usage of the cache, <code>null</code> if it is disabled
+     */
+    public BoundedCache.Stats getRouteCacheStats() {
+        return routeCache == null ? null : routeCache.stats();
+    }
+}
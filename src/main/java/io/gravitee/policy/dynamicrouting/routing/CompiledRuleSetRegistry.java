@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.MatchingStrategy;
+import io.gravitee.policy.dynamicrouting.configuration.PatternType;
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process-wide registry of the rule sets compiled from the policy configurations, so that the APIs declaring the same rules,
+ * e.g. because they are created from the same template, share the same compiled rules instead of each compiling its own.
+ *
+ * Rule sets are registered by the content of the configuration they are compiled from: the rules, and the settings affecting
+ * how they are compiled. Each configuration gets its own {@link CompiledRuleSet}, with its own metrics, sharing the compiled
+ * rules of the registered one. The registry only keeps weak references: compiled rules are released, and unregistered, once the
+ * last configuration using them is released, i.e. once the last API declaring them is undeployed.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CompiledRuleSetRegistry {
+
+    private static final CompiledRuleSetRegistry INSTANCE = new CompiledRuleSetRegistry();
+
+    private final Map<Key, Entry> ruleSets = new HashMap<>();
+
+    private final ReferenceQueue<CompiledRuleSet> released = new ReferenceQueue<>();
+
+    CompiledRuleSetRegistry() {}
+
+    public static CompiledRuleSetRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a rule set for the given configuration, sharing its compiled rules with the configurations having the same content
+     */
+    public synchronized CompiledRuleSet get(DynamicRoutingPolicyConfiguration configuration) {
+        expunge();
+
+        Key key = new Key(configuration);
+        Entry entry = ruleSets.get(key);
+        CompiledRuleSet compiled = entry == null ? null : entry.get();
+        if (compiled == null) {
+            compiled = CompiledRuleSet.compile(configuration);
+            ruleSets.put(key, new Entry(key, compiled, released));
+        }
+        return compiled.share();
+    }
+
+    /**
+     * @return the number of distinct rule sets in use
+     */
+    public synchronized int size() {
+        expunge();
+        return ruleSets.size();
+    }
+
+    private void expunge() {
+        Entry entry;
+        while ((entry = (Entry) released.poll()) != null) {
+            ruleSets.remove(entry.key, entry);
+        }
+    }
+
+    private static final class Entry extends WeakReference<CompiledRuleSet> {
+
+        private final Key key;
+
+        private Entry(Key key, CompiledRuleSet ruleSet, ReferenceQueue<CompiledRuleSet> queue) {
+            super(ruleSet, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Content of a configuration which the compiled rules depend on. The rules are copied, as they are mutable.
+     */
+    private static final class Key {
+
+        private final List<Object> rules;
+
+        private final PatternType patternType;
+
+        private final int patternCacheSize;
+
+        private final MatchingStrategy matchingStrategy;
+
+        private final int routeCacheSize;
+
+        private final RegexEngine regexEngine;
+
+        private final int matchStepBudget;
+
+        private final int hash;
+
+        private Key(DynamicRoutingPolicyConfiguration configuration) {
+            List<Rule> configured = configuration.getRules() == null ? Collections.emptyList() : configuration.getRules();
+            List<Object> content = new ArrayList<>(configured.size());
+            for (Rule rule : configured) {
+                content.add(CompiledRule.content(rule));
+            }
+            this.rules = content;
+            this.patternType = configuration.getPatternType() == null ? PatternType.REGEX : configuration.getPatternType();
+            this.patternCacheSize = configuration.getPatternCacheSize();
+            this.matchingStrategy = configuration.getMatchingStrategy();
+            this.routeCacheSize = configuration.getRouteCacheSize();
+            this.regexEngine = configuration.getRegexEngine() == null ? RegexEngine.JAVA : configuration.getRegexEngine();
+            this.matchStepBudget = configuration.getMatchStepBudget();
+            this.hash =
+                Objects.hash(rules, patternType, patternCacheSize, matchingStrategy, routeCacheSize, regexEngine, matchStepBudget);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return (
+                hash == other.hash &&
+                patternCacheSize == other.patternCacheSize &&
+                routeCacheSize == other.routeCacheSize &&
+                matchStepBudget == other.matchStepBudget &&
+                patternType == other.patternType &&
+                matchingStrategy == other.matchingStrategy &&
+                regexEngine == other.regexEngine &&
+                rules.equals(other.rules)
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.common.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Selects the rules whose conditions on the host, the method and the headers hold for a request, before any pattern is matched.
+ *
+ * Each dimension is a hash map from the values the rules expect to the rules accepting that value, rules without condition on the
+ * dimension included, so that the rules applying to a request are found with one lookup per dimension whatever the number of
+ * rules. A request host with a port is looked up both as is and without its port, a rule expecting a host without port applying
+ * whatever the port.
+ *
+ * @author GraviteeSource Team
+ */
+final class ConditionIndex {
+
+    private final Dimension<String> hosts;
+
+    private final Dimension<HttpMethod> methods;
+
+    private final String[] headerNames;
+
+    private final List<Dimension<String>> headers;
+
+    private ConditionIndex(Dimension<String> hosts, Dimension<HttpMethod> methods, String[] headerNames, List<Dimension<String>> headers) {
+        this.hosts = hosts;
+        this.methods = methods;
+        this.headerNames = headerNames;
+        this.headers = headers;
+    }
+
+    /**
+     * @return the index of the conditions of the given rules, <code>null</code> if no rule has conditions
+     */
+    static ConditionIndex of(List<CompiledRule> rules) {
+        boolean conditions = false;
+        Set<String> headerNames = new TreeSet<>();
+        for (CompiledRule rule : rules) {
+            conditions |= rule.hasConditions();
+            if (rule.getHeaders() != null) {
+                headerNames.addAll(rule.getHeaders().keySet());
+            }
+        }
+        if (!conditions) {
+            return null;
+        }
+
+        List<Dimension<String>> headers = new ArrayList<>(headerNames.size());
+        for (String name : headerNames) {
+            headers.add(Dimension.of(rules, rule -> rule.getHeaders() == null ? null : rule.getHeaders().get(name)));
+        }
+        return new ConditionIndex(
+            Dimension.of(rules, rule -> rule.getHost() == null ? null : Set.of(rule.getHost())),
+            Dimension.of(rules, CompiledRule::getMethods),
+            headerNames.toArray(new String[0]),
+            headers
+        );
+    }
+
+    /**
+     * @return the indexes of the rules whose conditions hold for the request, a new set owned by the caller
+     */
+    BitSet admitted(RequestAttributes request) {
+        BitSet admitted = hosts(request.host());
+        admitted.and(methods.admitted(request.method()));
+        for (int idx = 0; idx < headerNames.length; idx++) {
+            admitted.and(headers.get(idx).admitted(request.header(headerNames[idx])));
+        }
+        return admitted;
+    }
+
+    /**
+     * @return the indexes of the rules expecting the given host, with or without its port, or no host, a new set owned by the caller
+     */
+    private BitSet hosts(String host) {
+        if (host == null) {
+            return (BitSet) hosts.admitted(null).clone();
+        }
+        String normalized = host.toLowerCase(Locale.ROOT);
+        BitSet admitted = (BitSet) hosts.admitted(normalized).clone();
+        int port = normalized.lastIndexOf(':');
+        if (port > normalized.lastIndexOf(']')) {
+            admitted.or(hosts.admitted(normalized.substring(0, port)));
+        }
+        return admitted;
+    }
+
+    private static final class Dimension<K> {
+
+        /**
+         * Rules applying to each value expected by a rule
+         */
+        private final Map<K, BitSet> admitted;
+
+        /**
+         * Rules applying to any other value, which are the rules without condition on the dimension
+         */
+        private final BitSet otherwise;
+
+        private Dimension(Map<K, BitSet> admitted, BitSet otherwise) {
+            this.admitted = admitted;
+            this.otherwise = otherwise;
+        }
+
+        /**
+         * @param accepted the values accepted by a rule, <code>null</code> if the rule accepts any value
+         */
+        private static <K> Dimension<K> of(List<CompiledRule> rules, Function<CompiledRule, Set<K>> accepted) {
+            BitSet otherwise = new BitSet(rules.size());
+            for (CompiledRule rule : rules) {
+                if (accepted.apply(rule) == null) {
+                    otherwise.set(rule.getIndex());
+                }
+            }
+
+            Map<K, BitSet> admitted = new HashMap<>();
+            for (CompiledRule rule : rules) {
+                Set<K> values = accepted.apply(rule);
+                if (values != null) {
+                    for (K value : values) {
+                        admitted.computeIfAbsent(value, key -> (BitSet) otherwise.clone()).set(rule.getIndex());
+                    }
+                }
+            }
+            return new Dimension<>(admitted, otherwise);
+        }
+
+        private BitSet admitted(K value) {
+            BitSet rules = value == null ? null : admitted.get(value);
+            return rules != null ? rules : otherwise;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A list of candidate rules, in declaration order, split into runs of consecutive rules which can not match the same path, each
+ * run being evaluated in order of observed hits instead of declaration order.
+ *
+ * Two rules whose literal prefixes do not start with one another can not match the same path, as the path would have to start
+ * with both. Within a run of such rules, at most one rule can match a path, and only that rule has its pattern evaluated as the
+ * others are skipped on their prefix: evaluating the run in any order selects the same rule, with the same evaluations, while
+ * checking the prefix of the hottest rules first. This only holds for a single form of the path, as a rule may match the path
+ * and a rule declared before it its decoded form.
+ *
+ * Hits are counted per rule without contention, and the runs are sorted again from time to time, by the request drawing it.
+ *
+ * @author GraviteeSource Team
+ */
+final class DisjointRuns {
+
+    /**
+     * Average number of hits between two sorts of the runs
+     */
+    static final int REORDER_PERIOD = 1024;
+
+    private final int[] candidates;
+
+    /**
+     * Position, in the candidates, of the end of each run (exclusive)
+     */
+    private final int[] runEnds;
+
+    /**
+     * Hits by position in the candidates, <code>null</code> if every run has a single rule
+     */
+    private final LongAdder[] hits;
+
+    private final AtomicBoolean reordering = new AtomicBoolean();
+
+    /**
+     * Positions of the candidates in evaluation order, each run being sorted by hits
+     */
+    private volatile int[] order;
+
+    /**
+     * @param candidates the indexes of the candidate rules, in declaration order
+     * @param rules the rules by index
+     */
+    DisjointRuns(int[] candidates, CompiledRule[] rules) {
+        this.candidates = candidates;
+        int[] positions = new int[candidates.length];
+        for (int position = 0; position < positions.length; position++) {
+            positions[position] = position;
+        }
+        this.order = positions;
+
+        List<Integer> ends = new ArrayList<>();
+        int start = 0;
+        boolean adaptive = false;
+        // Prefixes of the rules of the current run, null if one of them is unknown
+        NavigableSet<String> runPrefixes = candidates.length == 0 ? null : prefixes(rules[candidates[0]]);
+        for (int position = 1; position <= candidates.length; position++) {
+            String prefix = position == candidates.length ? null : prefix(rules[candidates[position]]);
+            if (prefix == null || !disjoint(prefix, runPrefixes)) {
+                ends.add(position);
+                adaptive |= position - start > 1;
+                start = position;
+                runPrefixes = position == candidates.length ? null : prefixes(rules[candidates[position]]);
+            } else {
+                runPrefixes.add(prefix);
+            }
+        }
+        this.runEnds = ends.stream().mapToInt(Integer::intValue).toArray();
+
+        if (adaptive) {
+            this.hits = new LongAdder[candidates.length];
+            for (int position = 0; position < hits.length; position++) {
+                hits[position] = new LongAdder();
+            }
+        } else {
+            this.hits = null;
+        }
+    }
+
+    /**
+     * Tells whether a rule with the given prefix can not match the same path as any of the rules of a run, in time logarithmic in
+     * the size of the run, so that splitting the candidates stays fast with thousands of rules sharing a first segment.
+     *
+     * @param runPrefixes the sorted prefixes of the rules of the run, <code>null</code> if one of them is unknown
+     * @return <code>true</code> if no prefix of the run starts with the given one, nor is the start of it
+     */
+    private static boolean disjoint(String prefix, NavigableSet<String> runPrefixes) {
+        if (runPrefixes == null) {
+            return false;
+        }
+        // The prefixes starting with the given one come right after it, in sorted order
+        String next = runPrefixes.ceiling(prefix);
+        if (next != null && next.startsWith(prefix)) {
+            return false;
+        }
+        for (int length = 1; length < prefix.length(); length++) {
+            if (runPrefixes.contains(prefix.substring(0, length))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the prefixes of a run starting with the given rule, <code>null</code> if its prefix is unknown
+     */
+    private static NavigableSet<String> prefixes(CompiledRule rule) {
+        String prefix = prefix(rule);
+        if (prefix == null) {
+            return null;
+        }
+        NavigableSet<String> prefixes = new TreeSet<>();
+        prefixes.add(prefix);
+        return prefixes;
+    }
+
+    /**
+     * @return the prefix any path matched by the rule starts with, <code>null</code> if unknown
+     */
+    private static String prefix(CompiledRule rule) {
+        return rule.isDynamic() || !rule.isValid() || rule.getLiteralPrefix().isEmpty() ? null : rule.getLiteralPrefix();
+    }
+
+    /**
+     * @return the indexes of the candidate rules, in declaration order
+     */
+    int[] candidates() {
+        return candidates;
+    }
+
+    /**
+     * @return the positions of the candidates, in evaluation order, the position of a rule being kept within its run
+     */
+    int[] order() {
+        return order;
+    }
+
+    /**
+     * @return the position, in the candidates, of the end of each run (exclusive)
+     */
+    int[] runEnds() {
+        return runEnds;
+    }
+
+    /**
+     * @return <code>true</code> if at least one run has several rules
+     */
+    boolean isAdaptive() {
+        return hits != null;
+    }
+
+    /**
+     * Records that the candidate at the given position has been selected.
+     */
+    void recordHit(int position) {
+        if (hits == null) {
+            return;
+        }
+        hits[position].increment();
+        if (ThreadLocalRandom.current().nextInt(REORDER_PERIOD) == 0) {
+            reorder();
+        }
+    }
+
+    /**
+     * Records the given hits, e.g. counted by the rule set the candidates are reloaded from, then sorts the runs accordingly.
+     *
+     * @param ruleHits the number of hits of each rule, by index
+     */
+    void recordHits(long[] ruleHits) {
+        if (hits == null) {
+            return;
+        }
+        for (int position = 0; position < candidates.length; position++) {
+            hits[position].add(ruleHits[candidates[position]]);
+        }
+        reorder();
+    }
+
+    /**
+     * Sorts each run by descending hits, rules with as many hits keeping their declaration order.
+     */
+    void reorder() {
+        if (hits == null || !reordering.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long[] counts = new long[candidates.length];
+            for (int position = 0; position < counts.length; position++) {
+                counts[position] = hits[position].sum();
+            }
+
+            Integer[] sorted = new Integer[candidates.length];
+            for (int position = 0; position < sorted.length; position++) {
+                sorted[position] = position;
+            }
+            int start = 0;
+            for (int end : runEnds) {
+                Arrays.sort(sorted, start, end, (a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : a - b);
+                start = end;
+            }
+            order = Arrays.stream(sorted).mapToInt(Integer::intValue).toArray();
+        } finally {
+            reordering.set(false);
+        }
+    }
+}
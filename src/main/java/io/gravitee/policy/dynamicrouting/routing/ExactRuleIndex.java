@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.List;
+
+/**
+ * Indexes the rules whose pattern is a plain literal by the only path they match, so that the first of them matching a path is
+ * found with a single lookup whatever the number of rules.
+ *
+ * The index is an open addressing hash table made of two parallel arrays, the paths and the indexes of their rule, so that an
+ * entry costs a couple of array slots on top of the path, which is shared with the pattern of the rule whenever possible. When
+ * several rules match the same path, the first declared one is kept.
+ *
+ * @author GraviteeSource Team
+ */
+final class ExactRuleIndex {
+
+    private final String[] paths;
+
+    private final int[] rules;
+
+    private final int mask;
+
+    private final int shift;
+
+    private final int size;
+
+    ExactRuleIndex(List<CompiledRule> rules) {
+        int capacity = Integer.highestOneBit(Math.max(rules.size(), 1) * 2 - 1) << 1;
+        this.paths = new String[capacity];
+        this.rules = new int[capacity];
+        this.mask = capacity - 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+
+        int count = 0;
+        for (CompiledRule rule : rules) {
+            String path = rule.getLiteral();
+            int slot = slot(path);
+            if (paths[slot] == null) {
+                paths[slot] = path;
+                this.rules[slot] = rule.getIndex();
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    /**
+     * @return the index of the first rule matching exactly the given path, -1 if none
+     */
+    int lookup(String path) {
+        int slot = slot(path);
+        return paths[slot] == null ? -1 : rules[slot];
+    }
+
+    /**
+     * @return the number of distinct paths indexed
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot holding the given path, or the empty slot where it would be held
+     */
+    private int slot(String path) {
+        // Fibonacci hashing: paths of a same API often only differ by their last characters, which the hash code of a string
+        // maps to close values that would otherwise end up in a single long run of slots
+        int slot = (path.hashCode() * 0x9E3779B9) >>> shift;
+        while (paths[slot] != null && !paths[slot].equals(path)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.List;
+
+/**
+ * Looks up the rules whose pattern is a plain literal in an {@link ExactRuleIndex}, the other rules being evaluated by another
+ * matcher.
+ *
+ * The first literal rule matching the path (or its decoded form) is found with a single lookup. The other rules are then only
+ * evaluated up to that rule, so that a rule declared before it still wins, which keeps the first-match-wins semantics.
+ *
+ * @author GraviteeSource Team
+ */
+final class ExactRuleMatcher implements RuleMatcher {
+
+    private final List<CompiledRule> rules;
+
+    private final ExactRuleIndex index;
+
+    private final RuleMatcher others;
+
+    /**
+     * @param rules all the rules of the rule set, by index
+     * @param literalRules the rules whose pattern is a plain literal, in declaration order
+     * @param others the matcher of the other rules
+     */
+    ExactRuleMatcher(List<CompiledRule> rules, List<CompiledRule> literalRules, RuleMatcher others) {
+        this.rules = rules;
+        this.index = new ExactRuleIndex(literalRules);
+        this.others = others;
+    }
+
+    @Override
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver, int from, int limit) {
+        String matchingPath = path;
+        int exact = index.lookup(path);
+        if (decodedPath != path) {
+            int decoded = index.lookup(decodedPath);
+            if (decoded >= 0 && (exact < 0 || decoded < exact)) {
+                exact = decoded;
+                matchingPath = decodedPath;
+            }
+        }
+
+        // A literal rule declared before from is known not to match
+        if (exact < from || exact >= limit) {
+            return others.match(path, decodedPath, resolver, from, limit);
+        }
+
+        RouteMatch match = others.match(path, decodedPath, resolver, from, exact);
+        if (match != null) {
+            return match;
+        }
+        CompiledRule rule = rules.get(exact);
+        return new RouteMatch(rule, rule.getPattern(), rule.getPattern().match(matchingPath), matchingPath);
+    }
+
+    @Override
+    public void recordHits(long[] ruleHits) {
+        others.recordHits(ruleHits);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+/**
+ * @author GraviteeSource Team
+ */
+final class Expressions {
+
+    /**
+     * Template expressions are delimited by curly braces.
+     */
+    private static final char EXPRESSION_PREFIX = '{';
+
+    private Expressions() {}
+
+    /**
+     * Whether the given value has to go through the template engine. Any opening brace starts a template expression, so a value
+     * without one is returned unchanged by the engine and can be used as is.
+     */
+    static boolean isExpression(String value) {
+        return value == null || value.indexOf(EXPRESSION_PREFIX) >= 0;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.MatchResult;
+
+/**
+ * A read-only view of the named capture groups of a match, as a map from group name to captured value.
+ *
+ * Values are read from the successful match when they are looked up, nothing is copied. Patterns only have a handful of named
+ * groups, so lookups simply scan the names.
+ *
+ * @author GraviteeSource Team
+ */
+final class GroupNames extends AbstractMap<String, String> {
+
+    private final CompiledPattern pattern;
+
+    private final MatchResult result;
+
+    GroupNames(CompiledPattern pattern, MatchResult result) {
+        this.pattern = pattern;
+        this.result = result;
+    }
+
+    @Override
+    public String get(Object key) {
+        return key instanceof String ? pattern.namedGroup(result, (String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (String name : pattern.getGroupNames()) {
+            if (name.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return pattern.getGroupNames().length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < pattern.getGroupNames().length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        String name = pattern.getGroupNames()[next++];
+                        return new SimpleImmutableEntry<>(name, pattern.namedGroup(result, name));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return pattern.getGroupNames().length;
+            }
+        };
+    }
+}
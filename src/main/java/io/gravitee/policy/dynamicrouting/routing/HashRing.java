@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.policy.dynamicrouting.routing.TargetGroup.Target;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A consistent hash ring of weighted targets, locating the target of a key without allocating.
+ *
+ * Each target is placed on the ring at {@value #POINTS_PER_WEIGHT} points per unit of weight, at positions derived from its URL
+ * only, and a key goes to the target owning the first point at or after the hash of the key. Adding or removing a target thus
+ * only moves the keys of the points it owns, about 1/N of them, the others keeping their target. Weights above
+ * {@value #MAX_WEIGHT} count as {@value #MAX_WEIGHT}, which bounds the size of the ring.
+ *
+ * @author GraviteeSource Team
+ */
+final class HashRing {
+
+    static final int POINTS_PER_WEIGHT = 160;
+
+    static final int MAX_WEIGHT = 100;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Target[] targets;
+
+    /**
+     * Positions of the points of the targets, in ascending order
+     */
+    private final long[] points;
+
+    /**
+     * Index of the target owning each point
+     */
+    private final int[] owners;
+
+    HashRing(Target[] targets) {
+        this.targets = targets;
+
+        int count = 0;
+        for (Target target : targets) {
+            count += Math.min(target.getWeight(), MAX_WEIGHT) * POINTS_PER_WEIGHT;
+        }
+        long[] positions = new long[count];
+        int[] indexes = new int[count];
+        int point = 0;
+        StringBuilder label = new StringBuilder();
+        for (int idx = 0; idx < targets.length; idx++) {
+            String url = targets[idx].getUrlTemplate().getUrl();
+            int replicas = Math.min(targets[idx].getWeight(), MAX_WEIGHT) * POINTS_PER_WEIGHT;
+            for (int replica = 0; replica < replicas; replica++) {
+                label.setLength(0);
+                label.append(url).append('#').append(replica);
+                positions[point] = hash(label, 0, label.length());
+                indexes[point++] = idx;
+            }
+        }
+
+        Integer[] order = new Integer[count];
+        for (int idx = 0; idx < count; idx++) {
+            order[idx] = idx;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(idx -> positions[idx]).thenComparingInt(idx -> indexes[idx]));
+        this.points = new long[count];
+        this.owners = new int[count];
+        for (int idx = 0; idx < count; idx++) {
+            points[idx] = positions[order[idx]];
+            owners[idx] = indexes[order[idx]];
+        }
+    }
+
+    /**
+     * @param key the text holding the key
+     * @param start the offset of the first character of the key, included
+     * @param end the offset of the last character of the key, excluded
+     * @return the target of the key
+     */
+    Target locate(CharSequence key, int start, int end) {
+        int idx = Arrays.binarySearch(points, hash(key, start, end));
+        if (idx < 0) {
+            idx = -idx - 1;
+            if (idx == points.length) {
+                // Past the last point, the ring wraps around to the first one
+                idx = 0;
+            }
+        }
+        return targets[owners[idx]];
+    }
+
+    int size() {
+        return points.length;
+    }
+
+    /**
+     * Hashes characters with FNV-1a, whose output is then mixed as the finalizer of MurmurHash3 does, so that close keys spread
+     * over the whole ring.
+     */
+    static long hash(CharSequence text, int start, int end) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int idx = start; idx < end; idx++) {
+            hash ^= text.charAt(idx);
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
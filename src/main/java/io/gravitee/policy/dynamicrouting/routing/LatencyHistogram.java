@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, safe to update from any number of threads without contention.
+ *
+ * Durations are counted in buckets whose bounds are powers of two nanoseconds, which is precise enough to spot a regression while
+ * keeping the recording cost to a couple of striped increments.
+ *
+ * @author GraviteeSource Team
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Bucket <code>i</code> counts the durations in <code>[2^i, 2^(i+1))</code> nanoseconds, the last one everything above
+     */
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int idx = 0; idx < BUCKETS; idx++) {
+            buckets[idx] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long duration = Math.max(1, nanos);
+        buckets[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(duration))].increment();
+        totalNanos.add(duration);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return the count of each bucket, bucket <code>i</code> counting the durations in <code>[2^i, 2^(i+1))</code> nanoseconds
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[BUCKETS];
+        for (int idx = 0; idx < BUCKETS; idx++) {
+            counts[idx] = buckets[idx].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return an upper bound of the given quantile, in nanoseconds, 0 if nothing has been recorded
+     */
+    public long getQuantileNanos(double quantile) {
+        long[] counts = getBuckets();
+        long count = 0;
+        for (long bucket : counts) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int idx = 0; idx < BUCKETS; idx++) {
+            seen += counts[idx];
+            if (seen >= rank) {
+                return idx == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (idx + 1)) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        long count = getCount();
+        return (
+            "count=" +
+            count +
+            ", mean=" +
+            (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getTotalNanos() / count)) +
+            "us, p50<=" +
+            TimeUnit.NANOSECONDS.toMicros(getQuantileNanos(0.5)) +
+            "us, p99<=" +
+            TimeUnit.NANOSECONDS.toMicros(getQuantileNanos(0.99)) +
+            "us"
+        );
+    }
+}
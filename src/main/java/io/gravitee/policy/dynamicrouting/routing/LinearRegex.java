@@ -0,0 +1,988 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A regular expression matched in time linear in the length of the input, whatever the expression.
+ *
+ * The expression is compiled to a program run by a Pike virtual machine: all the ways the expression may match are followed
+ * at once, one input character at a time, instead of being tried one after the other as a backtracking engine does. Threads are
+ * kept in priority order, so that capture groups are the ones <code>java.util.regex</code> would report, except for groups
+ * repeated by a loop which may match the empty string, such as <code>(a*)*</code>, where an extra empty iteration is not tried.
+ *
+ * The syntax is the one of {@link java.util.regex.Pattern}, restricted to what can be matched that way: literals and escapes,
+ * character classes (without nesting nor intersection), <code>.</code>, <code>^</code> and <code>$</code>, capturing, named
+ * and non-capturing groups, alternations, greedy and lazy quantifiers, the <code>i</code> and <code>s</code> flags. Back
+ * references, look-arounds, atomic groups, possessive quantifiers and boundaries are rejected at compile time.
+ *
+ * @author GraviteeSource Team
+ */
+final class LinearRegex {
+
+    /**
+     * Upper bound of the number of instructions of a program, counted repetitions being expanded
+     */
+    private static final int MAX_PROGRAM_SIZE = 20_000;
+
+    private static final int CHAR = 0;
+    private static final int CLASS = 1;
+    private static final int SPLIT = 2;
+    private static final int JUMP = 3;
+    private static final int SAVE = 4;
+    private static final int BEGIN = 5;
+    private static final int END = 6;
+    private static final int MATCH = 7;
+
+    private final String regex;
+
+    private final int[] ops;
+
+    private final int[] args;
+
+    private final int[] alternatives;
+
+    private final CharClass[] classes;
+
+    private final int groupCount;
+
+    /**
+     * Name of each capturing group by group number, <code>null</code> for unnamed groups and at index 0
+     */
+    private final String[] groupNames;
+
+    private LinearRegex(String regex, Program program, int groupCount, String[] groupNames) {
+        this.regex = regex;
+        this.ops = Arrays.copyOf(program.ops, program.size);
+        this.args = Arrays.copyOf(program.args, program.size);
+        this.alternatives = Arrays.copyOf(program.alternatives, program.size);
+        this.classes = program.classes.toArray(new CharClass[0]);
+        this.groupCount = groupCount;
+        this.groupNames = groupNames;
+    }
+
+    /**
+     * @throws PatternSyntaxException if the expression is invalid, or uses a construct which can not be matched in linear time
+     */
+    static LinearRegex compile(String regex) {
+        Parser parser = new Parser(regex);
+        Node root = parser.parse();
+
+        Program program = new Program(regex);
+        program.emit(SAVE, 0, 0);
+        root.emit(program);
+        program.emit(SAVE, 1, 0);
+        program.emit(MATCH, 0, 0);
+
+        return new LinearRegex(regex, program, parser.groupCount, parser.groupNames.toArray(new String[0]));
+    }
+
+    String getRegex() {
+        return regex;
+    }
+
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return the name of each capturing group by group number, <code>null</code> for unnamed groups and at index 0
+     */
+    String[] getGroupNames() {
+        return groupNames;
+    }
+
+    /**
+     * Matches the whole input against the expression.
+     *
+     * @return the match, <code>null</code> if the input is not matching
+     */
+    MatchResult matches(CharSequence input) {
+        int length = input.length();
+        int size = ops.length;
+        int slots = 2 * (groupCount + 1);
+
+        ThreadList current = new ThreadList(size);
+        ThreadList next = new ThreadList(size);
+        int[] visited = new int[size];
+        int[] stackPcs = new int[size + 1];
+        int[][] stackCaps = new int[size + 1][];
+
+        int[] initial = new int[slots];
+        Arrays.fill(initial, -1);
+        addThread(current, 0, initial, 0, length, input, visited, stackPcs, stackCaps);
+
+        for (int pos = 0; current.size > 0; pos++) {
+            char c = pos < length ? input.charAt(pos) : 0;
+            for (int idx = 0; idx < current.size; idx++) {
+                int pc = current.pcs[idx];
+                int[] caps = current.caps[idx];
+                switch (ops[pc]) {
+                    case MATCH:
+                        if (pos == length) {
+                            // Threads are in priority order: the first one to match wins
+                            return new OffsetMatchResult(input.toString(), caps);
+                        }
+                        break;
+                    case CHAR:
+                        if (pos < length && c == args[pc]) {
+                            addThread(next, pc + 1, caps, pos + 1, length, input, visited, stackPcs, stackCaps);
+                        }
+                        break;
+                    default:
+                        if (pos < length && classes[args[pc]].matches(c)) {
+                            addThread(next, pc + 1, caps, pos + 1, length, input, visited, stackPcs, stackCaps);
+                        }
+                        break;
+                }
+            }
+
+            if (pos == length) {
+                break;
+            }
+            ThreadList swap = current;
+            current = next;
+            next = swap;
+            next.size = 0;
+        }
+
+        return null;
+    }
+
+    /**
+     * Follows the instructions which do not consume input from the given one, in priority order, and adds the reached threads.
+     */
+    private void addThread(
+        ThreadList list,
+        int startPc,
+        int[] startCaps,
+        int pos,
+        int length,
+        CharSequence input,
+        int[] visited,
+        int[] stackPcs,
+        int[][] stackCaps
+    ) {
+        // Positions are stamped from 1 so that the initial content of the array means not visited
+        int stamp = pos + 1;
+        int top = 0;
+        stackPcs[top] = startPc;
+        stackCaps[top++] = startCaps;
+
+        while (top > 0) {
+            int pc = stackPcs[--top];
+            int[] caps = stackCaps[top];
+            stackCaps[top] = null;
+
+            while (visited[pc] != stamp) {
+                visited[pc] = stamp;
+                switch (ops[pc]) {
+                    case JUMP:
+                        pc = args[pc];
+                        continue;
+                    case SPLIT:
+                        // The preferred alternative is followed first, the other one later
+                        stackPcs[top] = alternatives[pc];
+                        stackCaps[top++] = caps;
+                        pc = args[pc];
+                        continue;
+                    case SAVE:
+                        caps = caps.clone();
+                        caps[args[pc]] = pos;
+                        pc++;
+                        continue;
+                    case BEGIN:
+                        if (pos != 0) {
+                            break;
+                        }
+                        pc++;
+                        continue;
+                    case END:
+                        if (!atEnd(input, pos, length)) {
+                            break;
+                        }
+                        pc++;
+                        continue;
+                    default:
+                        list.add(pc, caps);
+                        break;
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * <code>$</code> matches at the end of the input, or before a final line terminator, as with <code>java.util.regex</code>.
+     */
+    private static boolean atEnd(CharSequence input, int pos, int length) {
+        if (pos == length) {
+            return true;
+        }
+        if (pos == length - 1) {
+            return isLineTerminator(input.charAt(pos));
+        }
+        return pos == length - 2 && input.charAt(pos) == '\r' && input.charAt(pos + 1) == '\n';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static final class ThreadList {
+
+        private final int[] pcs;
+
+        private final int[][] caps;
+
+        private int size;
+
+        private ThreadList(int capacity) {
+            this.pcs = new int[capacity];
+            this.caps = new int[capacity][];
+        }
+
+        private void add(int pc, int[] threadCaps) {
+            pcs[size] = pc;
+            caps[size++] = threadCaps;
+        }
+    }
+
+    /**
+     * A set of characters, as sorted and disjoint inclusive ranges.
+     */
+    private static final class CharClass {
+
+        private static final CharClass DIGITS = new CharClass(new int[] { '0', '9' });
+
+        private static final CharClass WORD = new CharClass(new int[] { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' });
+
+        private static final CharClass SPACES = new CharClass(new int[] { '\t', '\r', ' ', ' ' });
+
+        private static final CharClass LINE_TERMINATORS = new CharClass(
+            new int[] { '\n', '\n', '\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029' }
+        );
+
+        private final int[] ranges;
+
+        private CharClass(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        private boolean matches(char c) {
+            for (int idx = 0; idx < ranges.length; idx += 2) {
+                if (c < ranges[idx]) {
+                    return false;
+                }
+                if (c <= ranges[idx + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static CharClass of(List<int[]> ranges, boolean caseInsensitive, boolean negated) {
+            List<int[]> all = new ArrayList<>(ranges);
+            if (caseInsensitive) {
+                // Only ASCII letters are folded, as java.util.regex does without the UNICODE_CASE flag
+                for (int[] range : ranges) {
+                    addShifted(all, range, 'a', 'z', 'A' - 'a');
+                    addShifted(all, range, 'A', 'Z', 'a' - 'A');
+                }
+            }
+
+            all.sort((first, second) -> Integer.compare(first[0], second[0]));
+            List<int[]> merged = new ArrayList<>();
+            for (int[] range : all) {
+                int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && range[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], range[1]);
+                } else {
+                    merged.add(new int[] { range[0], range[1] });
+                }
+            }
+
+            if (negated) {
+                List<int[]> complement = new ArrayList<>();
+                int from = 0;
+                for (int[] range : merged) {
+                    if (range[0] > from) {
+                        complement.add(new int[] { from, range[0] - 1 });
+                    }
+                    from = range[1] + 1;
+                }
+                if (from <= Character.MAX_VALUE) {
+                    complement.add(new int[] { from, Character.MAX_VALUE });
+                }
+                merged = complement;
+            }
+
+            int[] flat = new int[merged.size() * 2];
+            for (int idx = 0; idx < merged.size(); idx++) {
+                flat[2 * idx] = merged.get(idx)[0];
+                flat[2 * idx + 1] = merged.get(idx)[1];
+            }
+            return new CharClass(flat);
+        }
+
+        private static void addShifted(List<int[]> all, int[] range, char from, char to, int shift) {
+            int low = Math.max(range[0], from);
+            int high = Math.min(range[1], to);
+            if (low <= high) {
+                all.add(new int[] { low + shift, high + shift });
+            }
+        }
+
+        private void addTo(List<int[]> target) {
+            for (int idx = 0; idx < ranges.length; idx += 2) {
+                target.add(new int[] { ranges[idx], ranges[idx + 1] });
+            }
+        }
+    }
+
+    private static final class Program {
+
+        private final String regex;
+
+        private int[] ops = new int[64];
+
+        private int[] args = new int[64];
+
+        private int[] alternatives = new int[64];
+
+        private final List<CharClass> classes = new ArrayList<>();
+
+        private int size;
+
+        private Program(String regex) {
+            this.regex = regex;
+        }
+
+        private int emit(int op, int arg, int alternative) {
+            if (size == MAX_PROGRAM_SIZE) {
+                throw new PatternSyntaxException("Expression too large for the linear engine", regex, -1);
+            }
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                args = Arrays.copyOf(args, size * 2);
+                alternatives = Arrays.copyOf(alternatives, size * 2);
+            }
+            ops[size] = op;
+            args[size] = arg;
+            alternatives[size] = alternative;
+            return size++;
+        }
+
+        private int addClass(CharClass charClass) {
+            classes.add(charClass);
+            return classes.size() - 1;
+        }
+
+        /**
+         * Emits a split whose targets are set later on
+         */
+        private int split() {
+            return emit(SPLIT, -1, -1);
+        }
+
+        private void patch(int pc, int preferred, int other) {
+            args[pc] = preferred;
+            alternatives[pc] = other;
+        }
+    }
+
+    private abstract static class Node {
+
+        abstract void emit(Program program);
+
+        /**
+         * Emits a split preferring the given node, or preferring to skip it when lazy, and returns the split.
+         */
+        static int optional(Program program, Node node, boolean greedy) {
+            int split = program.split();
+            int body = program.size;
+            node.emit(program);
+            if (greedy) {
+                program.patch(split, body, program.size);
+            } else {
+                program.patch(split, program.size, body);
+            }
+            return split;
+        }
+    }
+
+    private static final class Empty extends Node {
+
+        @Override
+        void emit(Program program) {}
+    }
+
+    private static final class Char extends Node {
+
+        private final char c;
+
+        private Char(char c) {
+            this.c = c;
+        }
+
+        @Override
+        void emit(Program program) {
+            program.emit(CHAR, c, 0);
+        }
+    }
+
+    private static final class Chars extends Node {
+
+        private final CharClass charClass;
+
+        private Chars(CharClass charClass) {
+            this.charClass = charClass;
+        }
+
+        @Override
+        void emit(Program program) {
+            program.emit(CLASS, program.addClass(charClass), 0);
+        }
+    }
+
+    private static final class Assertion extends Node {
+
+        private final int op;
+
+        private Assertion(int op) {
+            this.op = op;
+        }
+
+        @Override
+        void emit(Program program) {
+            program.emit(op, 0, 0);
+        }
+    }
+
+    private static final class Sequence extends Node {
+
+        private final List<Node> nodes;
+
+        private Sequence(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        void emit(Program program) {
+            for (Node node : nodes) {
+                node.emit(program);
+            }
+        }
+    }
+
+    private static final class Alternation extends Node {
+
+        private final List<Node> alternatives;
+
+        private Alternation(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        void emit(Program program) {
+            List<Integer> jumps = new ArrayList<>();
+            for (int idx = 0; idx < alternatives.size() - 1; idx++) {
+                int split = program.split();
+                int body = program.size;
+                alternatives.get(idx).emit(program);
+                jumps.add(program.emit(JUMP, -1, 0));
+                program.patch(split, body, program.size);
+            }
+            alternatives.get(alternatives.size() - 1).emit(program);
+            for (int jump : jumps) {
+                program.args[jump] = program.size;
+            }
+        }
+    }
+
+    private static final class Group extends Node {
+
+        private final int number;
+
+        private final Node node;
+
+        private Group(int number, Node node) {
+            this.number = number;
+            this.node = node;
+        }
+
+        @Override
+        void emit(Program program) {
+            program.emit(SAVE, 2 * number, 0);
+            node.emit(program);
+            program.emit(SAVE, 2 * number + 1, 0);
+        }
+    }
+
+    private static final class Repetition extends Node {
+
+        private final Node node;
+
+        private final int min;
+
+        /**
+         * -1 if unbounded
+         */
+        private final int max;
+
+        private final boolean greedy;
+
+        private Repetition(Node node, int min, int max, boolean greedy) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        @Override
+        void emit(Program program) {
+            for (int idx = 0; idx < min; idx++) {
+                node.emit(program);
+            }
+
+            if (max < 0) {
+                int split = optional(program, node, greedy);
+                program.emit(JUMP, split, 0);
+                // The loop exits after the jump back
+                if (greedy) {
+                    program.patch(split, split + 1, program.size);
+                } else {
+                    program.patch(split, program.size, split + 1);
+                }
+                return;
+            }
+
+            List<Integer> splits = new ArrayList<>();
+            for (int idx = min; idx < max; idx++) {
+                splits.add(program.split());
+                node.emit(program);
+            }
+            for (int split : splits) {
+                if (greedy) {
+                    program.patch(split, split + 1, program.size);
+                } else {
+                    program.patch(split, program.size, split + 1);
+                }
+            }
+        }
+    }
+
+    private static final class Flags {
+
+        private boolean caseInsensitive;
+
+        private boolean dotAll;
+
+        private Flags copy() {
+            Flags copy = new Flags();
+            copy.caseInsensitive = caseInsensitive;
+            copy.dotAll = dotAll;
+            return copy;
+        }
+    }
+
+    private static final class Parser {
+
+        private final String regex;
+
+        private int pos;
+
+        private int groupCount;
+
+        private final List<String> groupNames = new ArrayList<>();
+
+        private Parser(String regex) {
+            this.regex = regex;
+            this.groupNames.add(null);
+        }
+
+        private Node parse() {
+            Node node = alternation(new Flags());
+            if (pos < regex.length()) {
+                throw error("Unmatched closing ')'", pos);
+            }
+            return node;
+        }
+
+        private Node alternation(Flags flags) {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(sequence(flags));
+            while (pos < regex.length() && regex.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(sequence(flags));
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+        }
+
+        private Node sequence(Flags flags) {
+            List<Node> nodes = new ArrayList<>();
+            while (pos < regex.length()) {
+                char c = regex.charAt(pos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                Node atom = atom(flags);
+                nodes.add(quantified(atom));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+        }
+
+        private Node quantified(Node atom) {
+            if (pos >= regex.length()) {
+                return atom;
+            }
+
+            int start = pos;
+            int min;
+            int max;
+            char c = regex.charAt(pos);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                pos++;
+                min = number(start);
+                max = min;
+                if (pos < regex.length() && regex.charAt(pos) == ',') {
+                    pos++;
+                    max = pos < regex.length() && regex.charAt(pos) == '}' ? -1 : number(start);
+                }
+                if (pos >= regex.length() || regex.charAt(pos) != '}' || (max >= 0 && max < min)) {
+                    throw error("Illegal repetition range", start);
+                }
+                pos++;
+            } else {
+                return atom;
+            }
+
+            boolean greedy = true;
+            if (pos < regex.length() && regex.charAt(pos) == '?') {
+                greedy = false;
+                pos++;
+            } else if (pos < regex.length() && regex.charAt(pos) == '+') {
+                throw unsupported("Possessive quantifiers", pos);
+            }
+
+            if (pos < regex.length() && "*+?".indexOf(regex.charAt(pos)) >= 0) {
+                throw error("Dangling meta character '" + regex.charAt(pos) + "'", pos);
+            }
+            return new Repetition(atom, min, max, greedy);
+        }
+
+        private int number(int start) {
+            int from = pos;
+            while (pos < regex.length() && Character.isDigit(regex.charAt(pos)) && pos - from < 5) {
+                pos++;
+            }
+            if (pos == from) {
+                throw error("Illegal repetition", start);
+            }
+            return Integer.parseInt(regex.substring(from, pos));
+        }
+
+        private Node atom(Flags flags) {
+            int start = pos;
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case '(':
+                    return group(flags, start);
+                case '[':
+                    return new Chars(charClass(flags, start));
+                case '.':
+                    return flags.dotAll ? new Chars(CharClass.of(List.of(), false, true)) : new Chars(negate(CharClass.LINE_TERMINATORS));
+                case '^':
+                    return new Assertion(BEGIN);
+                case '$':
+                    return new Assertion(END);
+                case '\\':
+                    return escape(flags, start);
+                case '*':
+                case '+':
+                case '?':
+                    throw error("Dangling meta character '" + c + "'", start);
+                case '{':
+                    throw error("Illegal repetition", start);
+                default:
+                    return literal(c, flags);
+            }
+        }
+
+        private Node group(Flags flags, int start) {
+            if (!regex.startsWith("?", pos)) {
+                int number = ++groupCount;
+                groupNames.add(null);
+                return new Group(number, closeGroup(alternation(flags.copy()), start));
+            }
+
+            pos++;
+            if (regex.startsWith(":", pos)) {
+                pos++;
+                return closeGroup(alternation(flags.copy()), start);
+            }
+            if (regex.startsWith("<", pos) && pos + 1 < regex.length() && Character.isLetter(regex.charAt(pos + 1))) {
+                int nameStart = ++pos;
+                while (pos < regex.length() && isAsciiLetterOrDigit(regex.charAt(pos))) {
+                    pos++;
+                }
+                if (pos >= regex.length() || regex.charAt(pos) != '>') {
+                    throw error("Named capturing group is missing trailing '>'", pos);
+                }
+                String name = regex.substring(nameStart, pos++);
+                if (groupNames.contains(name)) {
+                    throw error("Named capturing group <" + name + "> is already defined", start);
+                }
+                int number = ++groupCount;
+                groupNames.add(name);
+                return new Group(number, closeGroup(alternation(flags.copy()), start));
+            }
+
+            // Inline flags, either for the rest of the enclosing group, (?i), or for a group of their own, (?i:X)
+            Flags modified = flags.copy();
+            boolean enable = true;
+            while (pos < regex.length()) {
+                char flag = regex.charAt(pos++);
+                if (flag == ')') {
+                    flags.caseInsensitive = modified.caseInsensitive;
+                    flags.dotAll = modified.dotAll;
+                    return new Empty();
+                } else if (flag == ':') {
+                    return closeGroup(alternation(modified), start);
+                } else if (flag == '-' && enable) {
+                    enable = false;
+                } else if (flag == 'i') {
+                    modified.caseInsensitive = enable;
+                } else if (flag == 's') {
+                    modified.dotAll = enable;
+                } else if (flag == '=' || flag == '!' || flag == '<') {
+                    throw unsupported("Look-arounds", start);
+                } else if (flag == '>') {
+                    throw unsupported("Atomic groups", start);
+                } else {
+                    throw unsupported("The '" + flag + "' flag", pos - 1);
+                }
+            }
+            throw error("Unknown inline modifier", start);
+        }
+
+        private Node closeGroup(Node node, int start) {
+            if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                throw error("Unclosed group", start);
+            }
+            pos++;
+            return node;
+        }
+
+        private Node escape(Flags flags, int start) {
+            if (pos >= regex.length()) {
+                throw error("Unexpected internal error", start);
+            }
+            char c = regex.charAt(pos++);
+            CharClass predefined = predefinedClass(c);
+            if (predefined != null) {
+                return new Chars(predefined);
+            }
+            if (c == 'Q') {
+                int end = regex.indexOf("\\E", pos);
+                String quoted = end < 0 ? regex.substring(pos) : regex.substring(pos, end);
+                pos = end < 0 ? regex.length() : end + 2;
+                List<Node> nodes = new ArrayList<>();
+                for (int idx = 0; idx < quoted.length(); idx++) {
+                    nodes.add(literal(quoted.charAt(idx), flags));
+                }
+                return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+            }
+            return literal(escapedChar(c, start), flags);
+        }
+
+        /**
+         * @return the character designated by an escape sequence which is not a predefined class
+         */
+        private char escapedChar(char c, int start) {
+            switch (c) {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001B';
+                case 'x':
+                    return hex(2, start);
+                case 'u':
+                    return hex(4, start);
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        // Back references, boundaries, properties, ...
+                        throw unsupported("The escape sequence \\" + c, start);
+                    }
+                    return c;
+            }
+        }
+
+        private char hex(int digits, int start) {
+            if (pos + digits > regex.length()) {
+                throw error("Illegal hexadecimal escape sequence", start);
+            }
+            try {
+                char c = (char) Integer.parseInt(regex.substring(pos, pos + digits), 16);
+                pos += digits;
+                return c;
+            } catch (NumberFormatException nfe) {
+                throw error("Illegal hexadecimal escape sequence", start);
+            }
+        }
+
+        private CharClass predefinedClass(char c) {
+            switch (c) {
+                case 'd':
+                    return CharClass.DIGITS;
+                case 'D':
+                    return negate(CharClass.DIGITS);
+                case 'w':
+                    return CharClass.WORD;
+                case 'W':
+                    return negate(CharClass.WORD);
+                case 's':
+                    return CharClass.SPACES;
+                case 'S':
+                    return negate(CharClass.SPACES);
+                default:
+                    return null;
+            }
+        }
+
+        private CharClass charClass(Flags flags, int start) {
+            boolean negated = pos < regex.length() && regex.charAt(pos) == '^';
+            if (negated) {
+                pos++;
+            }
+
+            List<int[]> ranges = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (pos >= regex.length()) {
+                    throw error("Unclosed character class", start);
+                }
+                char c = regex.charAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    break;
+                }
+                first = false;
+                if (c == '[') {
+                    throw unsupported("Nested character classes", pos);
+                }
+                if (c == '&' && regex.startsWith("&&", pos)) {
+                    throw unsupported("Character class intersections", pos);
+                }
+
+                int low;
+                if (c == '\\') {
+                    int escapeStart = pos;
+                    pos++;
+                    if (pos >= regex.length()) {
+                        throw error("Unclosed character class", start);
+                    }
+                    char escaped = regex.charAt(pos++);
+                    CharClass predefined = predefinedClass(escaped);
+                    if (predefined != null) {
+                        predefined.addTo(ranges);
+                        continue;
+                    }
+                    if (escaped == 'Q') {
+                        throw unsupported("Quotations in character classes", escapeStart);
+                    }
+                    low = escapedChar(escaped, escapeStart);
+                } else {
+                    low = c;
+                    pos++;
+                }
+
+                int high = low;
+                if (
+                    pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']' && regex.charAt(pos + 1) != '['
+                ) {
+                    pos++;
+                    char end = regex.charAt(pos++);
+                    if (end == '\\') {
+                        if (pos >= regex.length() || predefinedClass(regex.charAt(pos)) != null) {
+                            throw error("Illegal character range", pos);
+                        }
+                        end = escapedChar(regex.charAt(pos++), pos - 2);
+                    }
+                    high = end;
+                    if (high < low) {
+                        throw error("Illegal character range", pos - 1);
+                    }
+                }
+                ranges.add(new int[] { low, high });
+            }
+
+            return CharClass.of(ranges, flags.caseInsensitive, negated);
+        }
+
+        private Node literal(char c, Flags flags) {
+            if (flags.caseInsensitive && ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                List<int[]> range = new ArrayList<>();
+                range.add(new int[] { c, c });
+                return new Chars(CharClass.of(range, true, false));
+            }
+            return new Char(c);
+        }
+
+        private static CharClass negate(CharClass charClass) {
+            List<int[]> ranges = new ArrayList<>();
+            charClass.addTo(ranges);
+            return CharClass.of(ranges, false, true);
+        }
+
+        private static boolean isAsciiLetterOrDigit(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+        }
+
+        private PatternSyntaxException error(String description, int index) {
+            return new PatternSyntaxException(description, regex, index);
+        }
+
+        private PatternSyntaxException unsupported(String construct, int index) {
+            return new PatternSyntaxException(construct + " can not be matched in linear time", regex, index);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+/**
+ * Raised when matching a path against a pattern takes more steps than allowed by the configured budget.
+ *
+ * @author GraviteeSource Team
+ */
+public class MatchBudgetExceededException extends RuntimeException {
+
+    public MatchBudgetExceededException(String regex, int budget) {
+        super("Matching pattern " + regex + " exceeded the budget of " + budget + " steps", null, false, false);
+    }
+}
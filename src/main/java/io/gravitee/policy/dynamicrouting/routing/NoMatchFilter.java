@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proves, without evaluating any rule, that no rule can match a path, so that junk paths (scanners probing random paths, ...)
+ * are rejected at the cost of a binary search.
+ *
+ * A rule can only match the paths starting with its literal prefix. Once the prefixes starting with another one are removed,
+ * at most one of the remaining prefixes can start a given path: the greatest one not greater than the path, found by a binary
+ * search over the sorted prefixes. A path shorter than the shortest prefix is rejected without any search.
+ *
+ * The filter can only be built when every rule has a literal prefix: a single rule without prefix (EL patterns, patterns
+ * starting with a group, ...) may match any path.
+ *
+ * @author GraviteeSource Team
+ */
+final class NoMatchFilter {
+
+    /**
+     * Literal prefixes of the rules, sorted, none of them starting with another one
+     */
+    private final String[] prefixes;
+
+    private final int minLength;
+
+    private NoMatchFilter(String[] prefixes) {
+        this.prefixes = prefixes;
+        int min = Integer.MAX_VALUE;
+        for (String prefix : prefixes) {
+            min = Math.min(min, prefix.length());
+        }
+        this.minLength = min;
+    }
+
+    /**
+     * @return the filter for the given rules, <code>null</code> if a rule may match any path
+     */
+    static NoMatchFilter of(List<CompiledRule> rules) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+
+        String[] sorted = new String[rules.size()];
+        for (int idx = 0; idx < sorted.length; idx++) {
+            CompiledRule rule = rules.get(idx);
+            if (rule.isDynamic() || rule.getLiteralPrefix().isEmpty()) {
+                return null;
+            }
+            sorted[idx] = rule.getLiteralPrefix();
+        }
+        Arrays.sort(sorted);
+
+        // A prefix starting with another one sorts right after it, or after other prefixes starting with it
+        List<String> prefixes = new ArrayList<>();
+        for (String prefix : sorted) {
+            if (prefixes.isEmpty() || !prefix.startsWith(prefixes.get(prefixes.size() - 1))) {
+                prefixes.add(prefix);
+            }
+        }
+        return new NoMatchFilter(prefixes.toArray(new String[0]));
+    }
+
+    /**
+     * @return <code>false</code> if no rule can match the given path
+     */
+    boolean mayMatch(String path) {
+        if (path.length() < minLength) {
+            return false;
+        }
+        int found = Arrays.binarySearch(prefixes, path);
+        if (found >= 0) {
+            return true;
+        }
+        int floor = -found - 2;
+        return floor >= 0 && path.startsWith(prefixes[floor]);
+    }
+
+    /**
+     * @return the number of distinct prefixes the paths are checked against
+     */
+    int size() {
+        return prefixes.length;
+    }
+}
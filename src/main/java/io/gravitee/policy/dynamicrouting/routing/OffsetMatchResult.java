@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.regex.MatchResult;
+
+/**
+ * An immutable successful match, given by the start and end offsets of each group in the matched text.
+ *
+ * @author GraviteeSource Team
+ */
+final class OffsetMatchResult implements MatchResult {
+
+    private final String text;
+
+    /**
+     * Start and end offsets of each group, group 0 being the whole match, -1 for a group which did not participate in the match
+     */
+    private final int[] offsets;
+
+    OffsetMatchResult(String text, int[] offsets) {
+        this.text = text;
+        this.offsets = offsets;
+    }
+
+    @Override
+    public int start() {
+        return start(0);
+    }
+
+    @Override
+    public int start(int group) {
+        checkGroup(group);
+        return offsets[2 * group];
+    }
+
+    @Override
+    public int end() {
+        return end(0);
+    }
+
+    @Override
+    public int end(int group) {
+        checkGroup(group);
+        return offsets[2 * group + 1];
+    }
+
+    @Override
+    public String group() {
+        return group(0);
+    }
+
+    @Override
+    public String group(int group) {
+        checkGroup(group);
+        int start = offsets[2 * group];
+        int end = offsets[2 * group + 1];
+        return start < 0 || end < 0 ? null : text.substring(start, end);
+    }
+
+    @Override
+    public int groupCount() {
+        return offsets.length / 2 - 1;
+    }
+
+    private void checkGroup(int group) {
+        if (group < 0 || group > groupCount()) {
+            throw new IndexOutOfBoundsException("No group " + group);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A path template, such as <code>/stores/{storeId}/items/*</code>, matched segment by segment without any regular expression.
+ *
+ * Each segment of a template is either literal text, a <code>{name}</code> variable or a <code>*</code> wildcard, both matching
+ * one whole non-empty segment, or, as the last segment only, <code>**</code> matching the rest of the path. Variables and
+ * wildcards are capture groups, numbered in order, variables being named groups as well.
+ *
+ * @author GraviteeSource Team
+ */
+final class PathTemplate {
+
+    static final String WILDCARD = "*";
+
+    static final String REST = "**";
+
+    private final String template;
+
+    /**
+     * Text of each segment, <code>null</code> for a variable or a wildcard, the last one being <code>**</code> if the template
+     * matches the rest of the path
+     */
+    private final String[] segments;
+
+    private final boolean rest;
+
+    private final int groupCount;
+
+    /**
+     * Name of each capture group by group number, <code>null</code> for wildcards and at index 0
+     */
+    private final String[] groupNames;
+
+    private PathTemplate(String template, String[] segments, boolean rest, String[] groupNames) {
+        this.template = template;
+        this.segments = segments;
+        this.rest = rest;
+        this.groupCount = groupNames.length - 1;
+        this.groupNames = groupNames;
+    }
+
+    /**
+     * @throws PatternSyntaxException if the template is not made of literal, variable or wildcard segments
+     */
+    static PathTemplate compile(String template) {
+        if (template == null) {
+            throw new PatternSyntaxException("Missing path template", null, -1);
+        }
+
+        String[] segments = template.split("/", -1);
+        List<String> groupNames = new ArrayList<>();
+        groupNames.add(null);
+        boolean rest = false;
+        int offset = 0;
+        for (int idx = 0; idx < segments.length; idx++) {
+            String segment = segments[idx];
+            if (REST.equals(segment)) {
+                if (idx != segments.length - 1) {
+                    throw new PatternSyntaxException("'**' is only allowed as the last segment", template, offset);
+                }
+                rest = true;
+                groupNames.add(null);
+            } else if (WILDCARD.equals(segment)) {
+                segments[idx] = null;
+                groupNames.add(null);
+            } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (!isGroupName(name)) {
+                    throw new PatternSyntaxException("Invalid variable name '" + name + "'", template, offset);
+                }
+                if (groupNames.contains(name)) {
+                    throw new PatternSyntaxException("Variable '" + name + "' is already defined", template, offset);
+                }
+                segments[idx] = null;
+                groupNames.add(name);
+            } else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 || segment.indexOf('*') >= 0) {
+                throw new PatternSyntaxException(
+                    "A segment is either literal text, a {name} variable, a '*' or a final '**' wildcard",
+                    template,
+                    offset
+                );
+            }
+            offset += segment.length() + 1;
+        }
+
+        return new PathTemplate(template, segments, rest, groupNames.toArray(new String[0]));
+    }
+
+    /**
+     * @return <code>true</code> if the given value is a valid name for a named capture group
+     */
+    private static boolean isGroupName(String name) {
+        if (name.isEmpty() || !isAsciiLetter(name.charAt(0))) {
+            return false;
+        }
+        for (int idx = 1; idx < name.length(); idx++) {
+            char c = name.charAt(idx);
+            if (!isAsciiLetter(c) && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Matches the whole input against the template.
+     *
+     * @return the match, <code>null</code> if the input is not matching
+     */
+    MatchResult match(CharSequence input) {
+        String path = input.toString();
+        int length = path.length();
+        int[] offsets = new int[2 * (groupCount + 1)];
+        offsets[0] = 0;
+        offsets[1] = length;
+
+        int group = 1;
+        int start = 0;
+        int last = rest ? segments.length - 1 : segments.length;
+        for (int idx = 0; idx < last; idx++) {
+            if (start > length) {
+                return null;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            String segment = segments[idx];
+            if (segment == null) {
+                if (end == start) {
+                    return null;
+                }
+                offsets[2 * group] = start;
+                offsets[2 * group + 1] = end;
+                group++;
+            } else if (end - start != segment.length() || !path.startsWith(segment, start)) {
+                return null;
+            }
+
+            // Skip the separator, an offset past the end of the path meaning that there is no more segment
+            start = end + 1;
+        }
+
+        if (rest) {
+            if (start > length) {
+                return null;
+            }
+            offsets[2 * group] = start;
+            offsets[2 * group + 1] = length;
+        } else if (start <= length) {
+            return null;
+        }
+
+        return new OffsetMatchResult(path, offsets);
+    }
+
+    String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the segments of the template, <code>null</code> for variables and wildcards, the last one being <code>**</code> if
+     * the template matches the rest of the path
+     */
+    String[] getSegments() {
+        return Arrays.copyOf(segments, segments.length);
+    }
+
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return the name of each capture group by group number, <code>null</code> for wildcards and at index 0
+     */
+    String[] getGroupNames() {
+        return groupNames;
+    }
+
+    /**
+     * @return <code>true</code> if the template is made of literal segments followed by <code>**</code>, so that it matches any
+     * path starting with its {@link #literalPrefix()}
+     */
+    boolean isCatchAll() {
+        if (!rest) {
+            return false;
+        }
+        for (int idx = 0; idx < segments.length - 1; idx++) {
+            if (segments[idx] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the literal text before the first variable or wildcard
+     */
+    String literalPrefix() {
+        StringBuilder prefix = new StringBuilder();
+        for (int idx = 0; idx < segments.length; idx++) {
+            if (segments[idx] == null || (rest && idx == segments.length - 1)) {
+                return prefix.toString();
+            }
+            prefix.append(segments[idx]);
+            if (idx < segments.length - 1) {
+                prefix.append('/');
+            }
+        }
+        return prefix.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A bounded cache of compiled patterns, keyed by the pattern resolved from a rule using EL.
+ *
+ * Patterns are all compiled for the same {@link RegexEngine} and step budget, those of the rule set owning the cache.
+ *
+ * @author GraviteeSource Team
+ */
+public final class PatternCache {
+
+    private final BoundedCache<String, CompiledPattern> patterns;
+
+    private final RegexEngine engine;
+
+    private final int stepBudget;
+
+    public PatternCache(int maximumSize) {
+        this(maximumSize, RegexEngine.JAVA, 0);
+    }
+
+    public PatternCache(int maximumSize, RegexEngine engine, int stepBudget) {
+        this.patterns = new BoundedCache<>(maximumSize, null);
+        this.engine = engine;
+        this.stepBudget = stepBudget;
+    }
+
+    /**
+     * Returns the compiled pattern for the given regular expression, compiling it on a cache miss.
+     *
+     * @throws PatternSyntaxException if the regular expression is invalid, or can not be matched by the engine. Invalid expressions
+     * are not cached.
+     */
+    public CompiledPattern get(String regex) {
+        CompiledPattern pattern = patterns.get(regex);
+        if (pattern == null) {
+            pattern = patterns.putIfAbsent(regex, compile(regex));
+        }
+        return pattern;
+    }
+
+    /**
+     * Compiles the regular expression for the engine of the cache, without caching it.
+     *
+     * @throws PatternSyntaxException if the regular expression is invalid, or can not be matched by the engine
+     */
+    public CompiledPattern compile(String regex) {
+        return CompiledPattern.compile(regex, engine, stepBudget);
+    }
+
+    public RegexEngine getEngine() {
+        return engine;
+    }
+
+    public int getMaximumSize() {
+        return patterns.getMaximumSize();
+    }
+
+    public BoundedCache.Stats stats() {
+        return patterns.stats();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.el.TemplateEngine;
+
+/**
+ * Resolves the regular expression of a rule whose pattern relies on EL, for the current request.
+ *
+ * @author GraviteeSource Team
+ */
+@FunctionalInterface
+public interface PatternResolver {
+    /**
+     * @param rule a rule whose pattern relies on EL
+     * @return the regular expression of the rule for the current request, <code>null</code> if it could not be resolved, in which
+     * case the rule is not matching
+     */
+    String resolve(CompiledRule rule);
+
+    /**
+     * @return a resolver evaluating patterns with the given template engine, as they are needed
+     */
+    static PatternResolver of(TemplateEngine templateEngine) {
+        return rule -> templateEngine.getValue(rule.getRule().getPattern(), String.class);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes rules by the first path segment their literal prefix requires.
+ *
+ * A rule whose pattern starts with <code>/billing/</code> can only match paths whose first segment is <code>billing</code>. Rules
+ * without such a prefix (EL patterns, patterns starting with a group, a partial segment, ...) are candidates for every path. Each
+ * list of candidates is kept in declaration order.
+ *
+ * @author GraviteeSource Team
+ */
+final class PrefixIndex {
+
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    private final Map<String, DisjointRuns> candidatesBySegment;
+
+    /**
+     * Rules which are candidates whatever the first segment of the path
+     */
+    private final DisjointRuns defaultCandidates;
+
+    PrefixIndex(List<CompiledRule> rules) {
+        Map<String, List<Integer>> indexed = new HashMap<>();
+        List<Integer> unindexed = new ArrayList<>();
+
+        for (CompiledRule rule : rules) {
+            String segment = firstSegment(rule.getLiteralPrefix());
+            if (segment == null) {
+                unindexed.add(rule.getIndex());
+                // Such a rule is a candidate for any path, including the ones with an indexed segment
+                indexed.values().forEach(candidates -> candidates.add(rule.getIndex()));
+            } else {
+                indexed.computeIfAbsent(segment, key -> new ArrayList<>(unindexed)).add(rule.getIndex());
+            }
+        }
+
+        CompiledRule[] byIndex = new CompiledRule[rules.isEmpty() ? 0 : rules.get(rules.size() - 1).getIndex() + 1];
+        for (CompiledRule rule : rules) {
+            byIndex[rule.getIndex()] = rule;
+        }
+
+        this.candidatesBySegment = new HashMap<>();
+        indexed.forEach((segment, candidates) -> candidatesBySegment.put(segment, new DisjointRuns(toArray(candidates), byIndex)));
+        this.defaultCandidates = new DisjointRuns(toArray(unindexed), byIndex);
+    }
+
+    /**
+     * @return the indexes of the rules which may match the given path, in declaration order
+     */
+    int[] candidates(String path) {
+        return runs(path).candidates();
+    }
+
+    /**
+     * @return the rules which may match the given path, split into runs of rules which can not match the same path
+     */
+    DisjointRuns runs(String path) {
+        String segment = firstSegment(path);
+        if (segment != null) {
+            DisjointRuns candidates = candidatesBySegment.get(segment);
+            if (candidates != null) {
+                return candidates;
+            }
+        }
+        return defaultCandidates;
+    }
+
+    /**
+     * Records the given hits in the runs of candidates, which are sorted again accordingly.
+     *
+     * @param ruleHits the number of hits of each rule, by index
+     */
+    void recordHits(long[] ruleHits) {
+        candidatesBySegment.values().forEach(runs -> runs.recordHits(ruleHits));
+        defaultCandidates.recordHits(ruleHits);
+    }
+
+    /**
+     * @return the first segment of a path, when it is followed by another segment, <code>null</code> otherwise
+     */
+    static String firstSegment(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        int end = path.indexOf('/', 1);
+        return end < 0 ? null : path.substring(1, end);
+    }
+
+    private static int[] toArray(List<Integer> indexes) {
+        if (indexes.isEmpty()) {
+            return NO_CANDIDATES;
+        }
+        int[] array = new int[indexes.size()];
+        for (int idx = 0; idx < array.length; idx++) {
+            array[idx] = indexes.get(idx);
+        }
+        return array;
+    }
+}
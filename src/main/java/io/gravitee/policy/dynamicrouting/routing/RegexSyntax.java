@@ -0,0 +1,424 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Lightweight analysis of the syntax of rule patterns.
+ *
+ * The analysis is deliberately conservative: whenever a construct is not fully understood, the pattern is reported as not
+ * eligible and the caller falls back to evaluating it on its own.
+ *
+ * @author GraviteeSource Team
+ */
+final class RegexSyntax {
+
+    private static final String QUANTIFIERS_ALLOWING_NONE = "?*{";
+
+    private static final String DOT_ALL_FLAG = "(?s)";
+
+    /**
+     * A final <code>.*</code>, possibly wrapped in a group and followed by <code>$</code>
+     */
+    private static final Pattern CATCH_ALL_TAIL = Pattern.compile(
+        "(?:\\.\\*|\\((?:\\?:|\\?<[a-zA-Z][a-zA-Z0-9]*>)?\\.\\*\\))\\$?$"
+    );
+
+    private RegexSyntax() {}
+
+    /**
+     * Extracts the literal text any input matched by the given regular expression starts with.
+     *
+     * For example, <code>/v1/stores/(.*)</code> gives <code>/v1/stores/</code> and <code>/v1/stores?</code> gives
+     * <code>/v1/store</code>.
+     *
+     * @return the literal prefix, possibly empty
+     */
+    static String literalPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            // The prefix would only apply to the first alternative
+            return "";
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        int length = regex.length();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < length) {
+            char c = regex.charAt(i);
+            int consumed;
+            if (c == '\\') {
+                if (i + 1 >= length || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // Character classes, anchors, quotations, ...
+                    break;
+                }
+                c = regex.charAt(i + 1);
+                consumed = 2;
+            } else if (isMetaCharacter(c)) {
+                break;
+            } else {
+                consumed = 1;
+            }
+
+            if (i + consumed < length && QUANTIFIERS_ALLOWING_NONE.indexOf(regex.charAt(i + consumed)) >= 0) {
+                // The character may not be there
+                break;
+            }
+
+            prefix.append(c);
+            i += consumed;
+        }
+
+        return prefix.toString();
+    }
+
+    /**
+     * Extracts the text matched by the given regular expression when it is a plain literal, such as <code>^/tenants/acme$</code>
+     * or <code>/v1/stores\.json</code>. As patterns are matched against the whole path, leading <code>^</code> and trailing
+     * <code>$</code> anchors are ignored.
+     *
+     * @return the only text the expression matches, the expression itself when it has no anchor nor escape, or <code>null</code>
+     * if the expression is not a plain literal
+     */
+    static String literal(String regex) {
+        int length = regex.length();
+        int start = regex.startsWith("^") ? 1 : 0;
+        int end = length > start && regex.endsWith("$") && !regex.endsWith("\\$") ? length - 1 : length;
+
+        StringBuilder literal = null;
+        for (int i = start; i < end; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= end || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return null;
+                }
+                if (literal == null) {
+                    literal = new StringBuilder(regex.substring(start, i));
+                }
+                literal.append(regex.charAt(++i));
+            } else if (isMetaCharacter(c)) {
+                return null;
+            } else if (literal != null) {
+                literal.append(c);
+            }
+        }
+
+        if (literal != null) {
+            return literal.toString();
+        }
+        return start == 0 && end == length ? regex : regex.substring(start, end);
+    }
+
+    /**
+     * Extracts the literal text a catch-all expression, such as <code>/v1/.*</code>, <code>^/v1/(.*)$</code> or
+     * <code>(?s)/v1/(?&lt;rest&gt;.*)</code>, starts with. Such an expression matches any input starting with that text,
+     * provided that the input has no line terminator unless the expression starts with the <code>(?s)</code> flag, see
+     * {@link #isDotAll(String)}.
+     *
+     * @return the literal prefix, possibly empty, or <code>null</code> if the expression is not a catch-all
+     */
+    static String catchAllPrefix(String regex) {
+        Matcher tail = CATCH_ALL_TAIL.matcher(regex);
+        if (!tail.find()) {
+            return null;
+        }
+
+        String head = regex.substring(0, tail.start());
+        if (head.startsWith("^")) {
+            head = head.substring(1);
+        }
+        if (head.startsWith(DOT_ALL_FLAG)) {
+            head = head.substring(DOT_ALL_FLAG.length());
+        }
+        if (head.startsWith("^") || (head.endsWith("$") && !head.endsWith("\\$"))) {
+            return null;
+        }
+        return literal(head);
+    }
+
+    /**
+     * @return <code>true</code> if <code>.</code> matches any character in the whole expression, line terminators included
+     */
+    static boolean isDotAll(String regex) {
+        return regex.startsWith(DOT_ALL_FLAG) || regex.startsWith("^" + DOT_ALL_FLAG);
+    }
+
+    /**
+     * Tells whether the given expression can only match inputs without line terminators (line feed, carriage return, next line,
+     * line and paragraph separators): it then matches no more inputs than a catch-all with the same literal prefix does.
+     *
+     * The analysis is conservative: negated classes, escapes such as <code>\s</code> or <code>\x0A</code>, Unicode properties,
+     * quotations and the flags changing the meaning of <code>.</code> are considered as matching line terminators.
+     */
+    static boolean excludesLineTerminators(String regex) {
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= length || !isEscapeWithoutLineTerminator(regex.charAt(i + 1))) {
+                    return false;
+                }
+                i++;
+            } else if (c == '[') {
+                int end = classExcludingLineTerminators(regex, i);
+                if (end < 0) {
+                    return false;
+                }
+                i = end;
+            } else if (c == '(' && i + 2 < length && regex.charAt(i + 1) == '?' && !isGroupModifier(regex.charAt(i + 2))) {
+                // Inline flags, such as (?i) or (?i:...)
+                for (int j = i + 2; j < length && regex.charAt(j) != ')' && regex.charAt(j) != ':'; j++) {
+                    if ("imuU-".indexOf(regex.charAt(j)) < 0) {
+                        return false;
+                    }
+                }
+            } else if (isLineTerminator(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of the end of the class starting at the given position, or <code>-1</code> if the class may match a
+     * line terminator
+     */
+    private static int classExcludingLineTerminators(String regex, int start) {
+        int length = regex.length();
+        int i = start + 1;
+        if (i < length && regex.charAt(i) == '^') {
+            return -1;
+        }
+        int previous = -1;
+        boolean range = false;
+        while (i < length) {
+            char c = regex.charAt(i);
+            int literal;
+            if (c == ']' && i > start + 1) {
+                return range ? -1 : i;
+            } else if (c == '[') {
+                // Union and intersection with another class
+                int end = classExcludingLineTerminators(regex, i);
+                if (end < 0 || range) {
+                    return -1;
+                }
+                i = end + 1;
+                previous = -1;
+                continue;
+            } else if (c == '\\') {
+                if (i + 1 >= length || !isEscapeWithoutLineTerminator(regex.charAt(i + 1))) {
+                    return -1;
+                }
+                char escaped = regex.charAt(i + 1);
+                literal = Character.isLetterOrDigit(escaped) ? -1 : escaped;
+                i += 2;
+                if (literal < 0 && i + 1 < length && regex.charAt(i) == '-' && regex.charAt(i + 1) != ']') {
+                    // Range from an escape sequence
+                    return -1;
+                }
+            } else if (c == '-' && previous >= 0 && !range && i + 1 < length && regex.charAt(i + 1) != ']') {
+                range = true;
+                i++;
+                continue;
+            } else {
+                literal = c;
+                i++;
+            }
+
+            if (range) {
+                if (literal < 0 || containsLineTerminator(previous, literal)) {
+                    return -1;
+                }
+                range = false;
+                previous = -1;
+            } else if (literal >= 0 && isLineTerminator((char) literal)) {
+                return -1;
+            } else {
+                previous = literal;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return <code>true</code> if the escape sequence introduced by the given character can not match a line terminator
+     */
+    private static boolean isEscapeWithoutLineTerminator(char c) {
+        if (!Character.isLetterOrDigit(c)) {
+            return !isLineTerminator(c);
+        }
+        return "dwbBAGZzkteaf123456789".indexOf(c) >= 0;
+    }
+
+    private static boolean isGroupModifier(char c) {
+        return c == ':' || c == '<' || c == '=' || c == '!' || c == '>';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean containsLineTerminator(int from, int to) {
+        for (char c : new char[] { '\n', '\r', '\u0085', '\u2028', '\u2029' }) {
+            if (from <= c && c <= to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMetaCharacter(char c) {
+        return "\\[](){}.*+?^$|".indexOf(c) >= 0;
+    }
+
+    /**
+     * Rewrites the named capturing groups of the given regular expression as plain capturing groups, so that it can be combined
+     * with other expressions into a single alternation without name clashes. Groups keep their numbering.
+     *
+     * @return the rewritten expression, or <code>null</code> if the expression can not safely be embedded in another one
+     * (back references, quotations, comments mode, ...)
+     */
+    static String anonymizeGroups(String regex) {
+        StringBuilder rewritten = new StringBuilder(regex.length());
+        int classDepth = 0;
+        int length = regex.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 >= length) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q' || escaped == 'k' || (escaped >= '1' && escaped <= '9')) {
+                    // Quotations and back references depend on the surrounding expression
+                    return null;
+                }
+                rewritten.append(c).append(escaped);
+                i++;
+            } else if (c == '[') {
+                classDepth++;
+                rewritten.append(c);
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+                rewritten.append(c);
+            } else if (c == '(' && classDepth == 0 && regex.startsWith("(?", i)) {
+                int nameEnd = namedGroupEnd(regex, i);
+                if (nameEnd > 0) {
+                    rewritten.append('(');
+                    i = nameEnd;
+                } else if (hasCommentsFlag(regex, i + 2)) {
+                    return null;
+                } else {
+                    rewritten.append(c);
+                }
+            } else {
+                rewritten.append(c);
+            }
+        }
+
+        if (classDepth != 0) {
+            return null;
+        }
+
+        try {
+            if (Pattern.compile(rewritten.toString()).matcher("").groupCount() != Pattern.compile(regex).matcher("").groupCount()) {
+                return null;
+            }
+        } catch (PatternSyntaxException pse) {
+            return null;
+        }
+
+        return rewritten.toString();
+    }
+
+    /**
+     * Lists the capturing groups of the given regular expression, by group number.
+     *
+     * @return the name of each capturing group, <code>null</code> for unnamed ones (the group number being the position in the
+     * array plus one), or <code>null</code> if the groups could not be reliably numbered
+     */
+    static String[] capturingGroups(String regex) {
+        List<String> groups = new ArrayList<>();
+        int classDepth = 0;
+        int length = regex.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? length : end + 1;
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (c == '(' && classDepth == 0) {
+                if (!regex.startsWith("(?", i)) {
+                    groups.add(null);
+                } else {
+                    int nameEnd = namedGroupEnd(regex, i);
+                    if (nameEnd > 0) {
+                        groups.add(regex.substring(i + 3, nameEnd));
+                    } else if (hasCommentsFlag(regex, i + 2)) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        return groups.toArray(new String[0]);
+    }
+
+    /**
+     * @return the index of the closing <code>&gt;</code> if a named group starts at the given index, -1 otherwise
+     */
+    private static int namedGroupEnd(String regex, int start) {
+        int i = start + 3;
+        if (!regex.startsWith("(?<", start) || i >= regex.length() || !Character.isLetter(regex.charAt(i))) {
+            return -1;
+        }
+        while (i < regex.length() && Character.isLetterOrDigit(regex.charAt(i))) {
+            i++;
+        }
+        return i < regex.length() && regex.charAt(i) == '>' ? i : -1;
+    }
+
+    /**
+     * Whether the inline flags starting at the given index enable the comments mode, in which the rest of a line is ignored.
+     */
+    private static boolean hasCommentsFlag(String regex, int start) {
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == 'x') {
+                return true;
+            }
+            if (!Character.isLetter(c) && c != '-') {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.ExternalRules;
+import io.gravitee.policy.dynamicrouting.configuration.ExternalRulesSource;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rule set of a configuration with {@link ExternalRules}: the rules of the configuration followed by the rules loaded from a
+ * file or a dictionary, compiled again each time their source changes.
+ *
+ * Rule sets are copied on write: a reload compiles a new {@link CompiledRuleSet}, which then replaces the current one at once, so
+ * that the requests being routed keep the rule set they started with. Only the new and changed rules have their pattern
+ * compiled, the other ones being reused from the current rule set along with their counters, but the matching structures are
+ * built again for all the rules. Reloads, including the first load of a file or a dictionary, run one at a time on a dedicated
+ * thread, never on the thread instantiating the policy or routing a request: until the external rules are first loaded,
+ * requests are routed with the rules of the configuration only.
+ *
+ * A file is checked for changes, by its modification time and size, every {@link ExternalRules#getRefreshInterval() refresh
+ * interval}, for as long as the rule set is in use. A dictionary is looked up as requests come, through the template engine,
+ * and its entries are compared with the ones the rules were loaded from whenever the gateway replaces them, and every refresh
+ * interval in case they were updated in place.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ReloadableRuleSet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReloadableRuleSet.class);
+
+    static final String DICTIONARIES_VARIABLE = "dictionaries";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final TypeReference<List<Rule>> RULES = new TypeReference<>() {};
+
+    private static final ScheduledExecutorService RELOADER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dynamic-routing-rules-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Copy of the configuration, so that the rule set does not keep the configuration it is registered for from being released
+     */
+    private final DynamicRoutingPolicyConfiguration configuration;
+
+    private final ExternalRules externalRules;
+
+    private final Executor executor;
+
+    private volatile CompiledRuleSet current;
+
+    /**
+     * Entries of the dictionary last looked up by a request, to be compared with the ones the rules were loaded from
+     */
+    private final AtomicReference<Map<?, ?>> dictionary = new AtomicReference<>();
+
+    /**
+     * Copy of the entries of the dictionary the rules were last loaded from, <code>null</code> if not loaded
+     */
+    private Map<String, String> dictionaryVersion;
+
+    /**
+     * Modification time and size of the file the rules were last loaded from, <code>null</code> if not loaded
+     */
+    private List<Object> fileVersion;
+
+    ReloadableRuleSet(DynamicRoutingPolicyConfiguration configuration, Executor executor) {
+        this.configuration = MAPPER.convertValue(configuration, DynamicRoutingPolicyConfiguration.class);
+        this.externalRules = this.configuration.getExternalRules();
+        this.executor = executor;
+        this.current = CompiledRuleSet.compile(this.configuration);
+        if (externalRules.getSource() == ExternalRulesSource.FILE) {
+            // Loaded right away, but not on the thread instantiating the policy, which may hold locks shared by all the APIs
+            executor.execute(this::reloadFile);
+        }
+    }
+
+    /**
+     * @return the rule set of the configuration, reloaded on the dedicated thread when the source of its external rules changes
+     */
+    public static ReloadableRuleSet of(DynamicRoutingPolicyConfiguration configuration) {
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(configuration, RELOADER);
+        if (ruleSet.externalRules.getRefreshInterval() > 0) {
+            watch(ruleSet, ruleSet.externalRules.getRefreshInterval());
+        }
+        return ruleSet;
+    }
+
+    /**
+     * Checks the file, or the dictionary, periodically, until the rule set is released.
+     */
+    private static void watch(ReloadableRuleSet ruleSet, long interval) {
+        WeakReference<ReloadableRuleSet> reference = new WeakReference<>(ruleSet);
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        task.set(
+            RELOADER.scheduleWithFixedDelay(
+                () -> {
+                    ReloadableRuleSet watched = reference.get();
+                    if (watched == null) {
+                        task.get().cancel(false);
+                    } else if (watched.externalRules.getSource() == ExternalRulesSource.FILE) {
+                        watched.reloadFile();
+                    } else {
+                        watched.reloadDictionary();
+                    }
+                },
+                interval,
+                interval,
+                TimeUnit.MILLISECONDS
+            )
+        );
+    }
+
+    /**
+     * @return the current rule set
+     */
+    public CompiledRuleSet get() {
+        return current;
+    }
+
+    /**
+     * Reloads the rules, on the dedicated thread, if they come from a dictionary which the gateway has replaced since they were
+     * loaded. The current rules are kept until the reload completes.
+     *
+     * @param templateEngine supplies the template engine of the current request, exposing the dictionaries, only called if the
+     * rules come from a dictionary
+     */
+    public void refresh(Supplier<TemplateEngine> templateEngine) {
+        if (externalRules.getSource() != ExternalRulesSource.DICTIONARY) {
+            return;
+        }
+        TemplateEngine engine = templateEngine.get();
+        Object dictionaries = engine == null ? null : engine.getTemplateContext().lookupVariable(DICTIONARIES_VARIABLE);
+        Object entries = dictionaries instanceof Map ? ((Map<?, ?>) dictionaries).get(externalRules.getDictionary()) : null;
+        if (!(entries instanceof Map)) {
+            return;
+        }
+
+        Map<?, ?> observed = dictionary.get();
+        if (observed != entries && dictionary.compareAndSet(observed, (Map<?, ?>) entries)) {
+            executor.execute(this::reloadDictionary);
+        }
+    }
+
+    /**
+     * Reloads the rules from the entries of the dictionary last looked up, if they differ from the ones the rules were loaded from,
+     * keeping the current rules if they can not be read.
+     */
+    synchronized void reloadDictionary() {
+        Map<?, ?> entries = dictionary.get();
+        if (entries == null) {
+            return;
+        }
+        try {
+            Map<String, String> version = new HashMap<>();
+            entries.forEach((pattern, url) -> {
+                if (pattern instanceof String && url instanceof String) {
+                    version.put((String) pattern, (String) url);
+                }
+            });
+            if (!version.equals(dictionaryVersion)) {
+                reload(rules(version));
+                dictionaryVersion = version;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to load the routing rules of dictionary {}, keeping the current rules", externalRules.getDictionary(), e);
+        }
+    }
+
+    /**
+     * Each entry of the dictionary is a rule whose pattern is the key and whose URL is the value. As entries have no order, rules
+     * are evaluated by descending pattern, so that a pattern extending another one is evaluated before it.
+     */
+    static List<Rule> rules(Map<?, ?> entries) {
+        List<Rule> rules = new ArrayList<>(entries.size());
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+                rules.add(new Rule((String) entry.getKey(), (String) entry.getValue()));
+            }
+        }
+        rules.sort(Comparator.comparing(Rule::getPattern).reversed());
+        return rules;
+    }
+
+    /**
+     * Reloads the rules from the file if it has changed since they were loaded, keeping the current rules if it can not be read.
+     */
+    synchronized void reloadFile() {
+        Path path = Paths.get(externalRules.getPath());
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            List<Object> version = List.of(attributes.lastModifiedTime(), attributes.size());
+            if (!version.equals(fileVersion)) {
+                reload(MAPPER.readValue(path.toFile(), RULES));
+                fileVersion = version;
+            }
+        } catch (NoSuchFileException nsfe) {
+            if (fileVersion == null) {
+                LOGGER.warn("No routing rules loaded, as file {} does not exist", path);
+                fileVersion = Collections.emptyList();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to load the routing rules of file {}, keeping the current rules", path, e);
+        }
+    }
+
+    /**
+     * Replaces the current rule set by the rules of the configuration followed by the given rules.
+     */
+    synchronized void reload(List<Rule> loaded) {
+        List<Rule> rules = new ArrayList<>();
+        if (configuration.getRules() != null) {
+            rules.addAll(configuration.getRules());
+        }
+        for (Rule rule : loaded) {
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        long start = System.nanoTime();
+        current = CompiledRuleSet.compile(configuration, rules, current);
+        LOGGER.debug("{} routing rules loaded in {} ms", rules.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
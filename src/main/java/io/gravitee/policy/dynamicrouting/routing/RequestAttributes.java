@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.common.http.HttpMethod;
+
+/**
+ * The parts of a request, besides its path, the conditions and the sticky keys of the rules apply to.
+ *
+ * @author GraviteeSource Team
+ */
+public interface RequestAttributes {
+    /**
+     * Attributes of a request known by none of its parts: only the rules without conditions apply to it.
+     */
+    RequestAttributes NONE = new RequestAttributes() {
+        @Override
+        public String host() {
+            return null;
+        }
+
+        @Override
+        public HttpMethod method() {
+            return null;
+        }
+
+        @Override
+        public String header(String name) {
+            return null;
+        }
+
+        @Override
+        public String parameter(String name) {
+            return null;
+        }
+    };
+
+    /**
+     * @return the host the request is sent to, possibly with a port, <code>null</code> if unknown
+     */
+    String host();
+
+    /**
+     * @return the method of the request, <code>null</code> if unknown
+     */
+    HttpMethod method();
+
+    /**
+     * @param name the lower case name of the header
+     * @return the first value of the header, <code>null</code> if the request has no such header
+     */
+    String header(String name);
+
+    /**
+     * @param name the name of the query parameter
+     * @return the first value of the query parameter, <code>null</code> if the request has no such parameter
+     */
+    String parameter(String name);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers for the request paths rules are matched against.
+ *
+ * @author GraviteeSource Team
+ */
+public final class RequestPaths {
+
+    private RequestPaths() {}
+
+    /**
+     * Whether {@link URLDecoder} could change the given path: it only transforms percent-encoded sequences and <code>+</code>.
+     */
+    public static boolean needsDecoding(String path) {
+        return path.indexOf('%') >= 0 || path.indexOf('+') >= 0;
+    }
+
+    /**
+     * URL decodes the given path with the default charset.
+     *
+     * @return the decoded path, the same instance if there is nothing to decode
+     * @throws IllegalArgumentException if the path contains an illegal percent-encoded sequence
+     */
+    public static String decode(String path) {
+        return needsDecoding(path) ? URLDecoder.decode(path, Charset.defaultCharset()) : path;
+    }
+}
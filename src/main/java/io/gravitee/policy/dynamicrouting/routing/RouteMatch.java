@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.el.TemplateEngine;
+import io.reactivex.rxjava3.core.Maybe;
+import java.util.Map;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+
+/**
+ * The rule selected for a request path.
+ *
+ * @author GraviteeSource Team
+ */
+public final class RouteMatch {
+
+    private final CompiledRule rule;
+
+    private final CompiledPattern pattern;
+
+    private final MatchResult result;
+
+    /**
+     * The path, or message key, the rule matched
+     */
+    private final String input;
+
+    /**
+     * Whether the rendered endpoint can be kept, the URL of the rule depending on nothing but the path
+     */
+    private final boolean endpointReusable;
+
+    private volatile String endpoint;
+
+    RouteMatch(CompiledRule rule, CompiledPattern pattern, MatchResult result, String input) {
+        this(rule, pattern, result, input, false);
+    }
+
+    private RouteMatch(CompiledRule rule, CompiledPattern pattern, MatchResult result, String input, boolean endpointReusable) {
+        this.rule = rule;
+        this.pattern = pattern;
+        this.result = result;
+        this.input = input;
+        this.endpointReusable = endpointReusable;
+    }
+
+    /**
+     * @return an immutable copy of this match, which may be shared between requests for the same path, or <code>null</code> if the
+     * capture groups of the pattern can only be read from a live matcher
+     */
+    public RouteMatch snapshot() {
+        if (!pattern.hasNumberedGroups()) {
+            return null;
+        }
+        MatchResult copy = result instanceof Matcher ? ((Matcher) result).toMatchResult() : result;
+        return new RouteMatch(rule, pattern, copy, input, rule.getUrlTemplate().dependsOnPathOnly());
+    }
+
+    public CompiledRule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return the successful match, holding the capture groups of the path which matched the rule
+     */
+    public MatchResult getMatchResult() {
+        return result;
+    }
+
+    /**
+     * @return the path, or message key, the rule matched, the offsets of the match result being relative to it
+     */
+    String getInput() {
+        return input;
+    }
+
+    /**
+     * Renders the URL of the rule for this match. When the match is shared between requests and the URL only depends on the path,
+     * the endpoint is rendered once and reused.
+     *
+     * @param templateEngine the template engine of the current request
+     * @return the target URL
+     */
+    public String endpoint(TemplateEngine templateEngine) {
+        String rendered = endpoint;
+        if (rendered == null) {
+            rendered = rule.getUrlTemplate().render(this, templateEngine);
+            if (endpointReusable) {
+                endpoint = rendered;
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Same as {@link #endpoint(TemplateEngine)}, without blocking when the template engine is needed.
+     *
+     * @return the target URL, empty if the URL evaluates to nothing
+     */
+    public Maybe<String> evalEndpoint(TemplateEngine templateEngine) {
+        String rendered = endpoint;
+        if (rendered != null) {
+            return Maybe.just(rendered);
+        }
+        Maybe<String> evaluated = rule.getUrlTemplate().eval(this, templateEngine);
+        return endpointReusable ? evaluated.doOnSuccess(value -> endpoint = value) : evaluated;
+    }
+
+    public int groupCount() {
+        return pattern.getGroupCount();
+    }
+
+    /**
+     * @param index the index of the group, the first group being at index 0
+     * @return the value captured by the group
+     */
+    public String group(int index) {
+        return result.group(index + 1);
+    }
+
+    /**
+     * @return the value captured by the named group, <code>null</code> if there is no such group
+     */
+    public String groupName(String name) {
+        return pattern.namedGroup(result, name);
+    }
+
+    /**
+     * @return the number of the named group in the match result, 0 if there is no such group, -1 if it is only known to the matcher
+     */
+    int groupNumber(String name) {
+        return pattern.groupNumber(name);
+    }
+
+    /**
+     * @return the values captured by the groups of the pattern, the first group being at index 0. An array is built on each call,
+     * as the <code>group</code> variable has always been exposed to the template engine as an array, e.g. for
+     * <code>{#group.length}</code>: it is only built when the URL of the rule refers to it.
+     */
+    public String[] groups() {
+        return pattern.groups(result);
+    }
+
+    /**
+     * @return a view of the values captured by the named groups of the pattern
+     */
+    public Map<String, String> groupNames() {
+        return new GroupNames(pattern, result);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the routing decisions taken with a rule set, and latency of the routing.
+ *
+ * Counters are striped ({@link LongAdder}) so that recording adds no contention between the threads routing requests.
+ *
+ * @author GraviteeSource Team
+ */
+public final class RoutingMetrics {
+
+    /**
+     * Request attribute exposing the metrics of the rule set, when enabled
+     */
+    public static final String ATTR_METRICS = "dynamic-routing.metrics";
+
+    /**
+     * Request attribute exposing the index of the rule the request has been routed with, when enabled
+     */
+    public static final String ATTR_RULE = "dynamic-routing.rule";
+
+    /**
+     * Request attribute exposing the time spent routing the request, in nanoseconds, when enabled
+     */
+    public static final String ATTR_LATENCY = "dynamic-routing.latency";
+
+    private final LongAdder[] ruleHits;
+
+    private final LongAdder noMatch;
+
+    private final LongAdder rejected;
+
+    private final LongAdder invalidPattern;
+
+    private final LongAdder invalidPath;
+
+    private final LongAdder budgetExceeded;
+
+    private final LatencyHistogram latency;
+
+    RoutingMetrics(int ruleCount) {
+        this.ruleHits = new LongAdder[ruleCount];
+        for (int idx = 0; idx < ruleCount; idx++) {
+            ruleHits[idx] = new LongAdder();
+        }
+        this.noMatch = new LongAdder();
+        this.rejected = new LongAdder();
+        this.invalidPattern = new LongAdder();
+        this.invalidPath = new LongAdder();
+        this.budgetExceeded = new LongAdder();
+        this.latency = new LatencyHistogram();
+    }
+
+    private RoutingMetrics(LongAdder[] ruleHits, RoutingMetrics previous) {
+        this.ruleHits = ruleHits;
+        this.noMatch = previous.noMatch;
+        this.rejected = previous.rejected;
+        this.invalidPattern = previous.invalidPattern;
+        this.invalidPath = previous.invalidPath;
+        this.budgetExceeded = previous.budgetExceeded;
+        this.latency = previous.latency;
+    }
+
+    /**
+     * @param previousIndexes the index each rule had in the rule set these metrics were recorded with, by rule index, negative for
+     * new rules
+     * @return the metrics of a rule set reloaded from the one these metrics were recorded with: the counters of the rules kept and
+     * the other counters go on from their current values, the requests still routed with the previous rule set being counted too
+     */
+    RoutingMetrics carryOver(int[] previousIndexes) {
+        LongAdder[] hits = new LongAdder[previousIndexes.length];
+        for (int idx = 0; idx < hits.length; idx++) {
+            hits[idx] = previousIndexes[idx] < 0 ? new LongAdder() : ruleHits[previousIndexes[idx]];
+        }
+        return new RoutingMetrics(hits, this);
+    }
+
+    /**
+     * Records a request routed with the given rule, <code>nanos</code> being the time spent matching and rendering the URL.
+     */
+    public void recordMatch(int ruleIndex, long nanos) {
+        ruleHits[ruleIndex].increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Records a request no rule is matching, <code>nanos</code> being the time spent matching.
+     */
+    public void recordNoMatch(long nanos) {
+        noMatch.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Records a request rejected without evaluating any rule, as no rule can match its path.
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    public void recordInvalidPattern() {
+        invalidPattern.increment();
+    }
+
+    public void recordInvalidPath() {
+        invalidPath.increment();
+    }
+
+    /**
+     * Records a request whose path could not be matched within the step budget of a pattern.
+     */
+    public void recordBudgetExceeded() {
+        budgetExceeded.increment();
+    }
+
+    /**
+     * @return the number of requests routed with the rule at the given index
+     */
+    public long getRuleHitCount(int ruleIndex) {
+        return ruleHits[ruleIndex].sum();
+    }
+
+    /**
+     * @return the number of requests routed with each rule, by rule index
+     */
+    public long[] getRuleHitCounts() {
+        long[] counts = new long[ruleHits.length];
+        for (int idx = 0; idx < counts.length; idx++) {
+            counts[idx] = ruleHits[idx].sum();
+        }
+        return counts;
+    }
+
+    public long getNoMatchCount() {
+        return noMatch.sum();
+    }
+
+    /**
+     * @return the number of requests rejected without evaluating any rule, not included in {@link #getNoMatchCount()}
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getInvalidPatternCount() {
+        return invalidPattern.sum();
+    }
+
+    public long getInvalidPathCount() {
+        return invalidPath.sum();
+    }
+
+    public long getBudgetExceededCount() {
+        return budgetExceeded.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return (
+            "ruleHits=" +
+            Arrays.toString(getRuleHitCounts()) +
+            ", noMatch=" +
+            getNoMatchCount() +
+            ", rejected=" +
+            getRejectedCount() +
+            ", invalidPattern=" +
+            getInvalidPatternCount() +
+            ", invalidPath=" +
+            getInvalidPathCount() +
+            ", budgetExceeded=" +
+            getBudgetExceededCount() +
+            ", latency=[" +
+            latency +
+            "]"
+        );
+    }
+}
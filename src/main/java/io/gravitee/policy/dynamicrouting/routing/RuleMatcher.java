@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+/**
+ * Looks up the first rule, in declaration order, matching a request path.
+ *
+ * @author GraviteeSource Team
+ */
+interface RuleMatcher {
+    /**
+     * @param path the request path, as received
+     * @param decodedPath the URL decoded request path, the same instance as <code>path</code> if there is nothing to decode
+     * @param resolver the resolver of the patterns relying on EL for the current request
+     * @return the first matching rule, or <code>null</code> if none is matching
+     */
+    default RouteMatch match(String path, String decodedPath, PatternResolver resolver) {
+        return match(path, decodedPath, resolver, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #match(String, String, PatternResolver)}, only considering the rules declared before the given one.
+     *
+     * @param limit the index of the first rule not to consider
+     */
+    default RouteMatch match(String path, String decodedPath, PatternResolver resolver, int limit) {
+        return match(path, decodedPath, resolver, 0, limit);
+    }
+
+    /**
+     * Same as {@link #match(String, String, PatternResolver, int)}, the rules declared before <code>from</code> being known not to
+     * match, e.g. as they have been evaluated already: they are skipped, as far as the matching structures allow.
+     *
+     * @param from the index of the first rule to consider
+     * @param limit the index of the first rule not to consider
+     */
+    RouteMatch match(String path, String decodedPath, PatternResolver resolver, int from, int limit);
+
+    /**
+     * Orders the rules evaluated in order of hits, see {@link DisjointRuns}, as if they had been selected the given number of
+     * times, e.g. by the rule set this one is reloaded from. Does nothing for matchers keeping the declaration order.
+     *
+     * @param ruleHits the number of hits of each rule, by index
+     */
+    default void recordHits(long[] ruleHits) {}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the rules which can never be selected, as any path they match is matched by a rule declared before them.
+ *
+ * A rule without expression language is shadowed by an earlier one when:
+ * <ul>
+ *     <li>both have the same pattern,</li>
+ *     <li>its pattern is a plain literal matched by the earlier pattern,</li>
+ *     <li>the earlier pattern is a catch-all, such as <code>/v1/.*</code> or <code>/v1/**</code>, whose literal prefix starts
+ *     the literal prefix of the rule, provided that the rule can not match line terminators when the catch-all does not.</li>
+ * </ul>
+ *
+ * Rules using expression language, and invalid rules, are neither shadowed nor shadowing. Rules with conditions on the request
+ * may be shadowed, but never shadow other rules, as they do not apply to every request. A shadowed rule is never considered as
+ * shadowing another one, as the rule shadowing it shadows the same rules.
+ *
+ * @author GraviteeSource Team
+ */
+final class RuleShadowing {
+
+    static final int NONE = -1;
+
+    private RuleShadowing() {}
+
+    /**
+     * @return the index of the rule shadowing each rule, by index, {@link #NONE} for a reachable rule
+     */
+    static int[] analyze(List<CompiledRule> rules) {
+        int[] shadowedBy = new int[rules.size()];
+        Arrays.fill(shadowedBy, NONE);
+
+        Map<String, Integer> byPattern = new HashMap<>();
+        Map<String, Integer> byLiteral = new HashMap<>();
+        List<CompiledRule> evaluated = new ArrayList<>();
+        Map<String, CatchAll> catchAlls = new HashMap<>();
+        for (CompiledRule rule : rules) {
+            if (rule.isDynamic() || !rule.isValid()) {
+                continue;
+            }
+
+            int shadowing = byPattern.getOrDefault(rule.getRule().getPattern(), NONE);
+            if (shadowing == NONE) {
+                // A literal only matches itself: the earlier rules matching it are found exactly
+                shadowing = rule.getLiteral() != null
+                    ? matchingRule(byLiteral, evaluated, rule.getLiteral())
+                    : coveringCatchAll(catchAlls, rule);
+            }
+
+            if (shadowing != NONE) {
+                shadowedBy[rule.getIndex()] = shadowing;
+                continue;
+            }
+            if (rule.hasConditions()) {
+                continue;
+            }
+            byPattern.put(rule.getRule().getPattern(), rule.getIndex());
+            if (rule.getLiteral() != null) {
+                byLiteral.putIfAbsent(rule.getLiteral(), rule.getIndex());
+            } else {
+                evaluated.add(rule);
+            }
+            CatchAll.register(catchAlls, rule);
+        }
+        return shadowedBy;
+    }
+
+    /**
+     * @return the index of the first rule matching the given path, either a literal or an evaluated one, {@link #NONE} if none
+     */
+    private static int matchingRule(Map<String, Integer> byLiteral, List<CompiledRule> evaluated, String path) {
+        int literal = byLiteral.getOrDefault(path, NONE);
+        for (CompiledRule rule : evaluated) {
+            if (literal != NONE && rule.getIndex() > literal) {
+                break;
+            }
+            if (!path.startsWith(rule.getLiteralPrefix())) {
+                continue;
+            }
+            try {
+                if (rule.getPattern().match(path) != null) {
+                    return rule.getIndex();
+                }
+            } catch (MatchBudgetExceededException mbee) {
+                // Can not tell, the rule being kept
+            }
+        }
+        return literal;
+    }
+
+    /**
+     * Looks up the catch-alls by each prefix of the literal prefix of the rule, so that the cost does not grow with the number of
+     * catch-alls.
+     */
+    private static int coveringCatchAll(Map<String, CatchAll> catchAlls, CompiledRule rule) {
+        if (catchAlls.isEmpty()) {
+            return NONE;
+        }
+        // Variables of path templates match line terminators
+        boolean excludesLineTerminators =
+            rule.getPattern().getTemplate() == null && RegexSyntax.excludesLineTerminators(rule.getRule().getPattern());
+        String literalPrefix = rule.getLiteralPrefix();
+        int covering = NONE;
+        for (int length = 0; length <= literalPrefix.length(); length++) {
+            CatchAll catchAll = catchAlls.get(literalPrefix.substring(0, length));
+            if (catchAll != null) {
+                int shadowing = excludesLineTerminators ? catchAll.first : catchAll.firstMatchingLineTerminators;
+                if (shadowing != NONE && (covering == NONE || shadowing < covering)) {
+                    covering = shadowing;
+                }
+            }
+        }
+        return covering;
+    }
+
+    /**
+     * The earliest catch-all rules having the same literal prefix.
+     */
+    private static final class CatchAll {
+
+        /**
+         * Index of the first catch-all rule
+         */
+        private int first = NONE;
+
+        /**
+         * Index of the first catch-all rule also matching line terminators
+         */
+        private int firstMatchingLineTerminators = NONE;
+
+        /**
+         * Registers the given rule by its literal prefix if its pattern is a catch-all.
+         */
+        private static void register(Map<String, CatchAll> catchAlls, CompiledRule rule) {
+            String prefix;
+            boolean matchesLineTerminators;
+            PathTemplate template = rule.getPattern().getTemplate();
+            if (template != null) {
+                if (!template.isCatchAll()) {
+                    return;
+                }
+                prefix = template.literalPrefix();
+                matchesLineTerminators = true;
+            } else {
+                String regex = rule.getRule().getPattern();
+                prefix = RegexSyntax.catchAllPrefix(regex);
+                if (prefix == null) {
+                    return;
+                }
+                matchesLineTerminators = RegexSyntax.isDotAll(regex);
+            }
+
+            CatchAll catchAll = catchAlls.computeIfAbsent(prefix, key -> new CatchAll());
+            if (catchAll.first == NONE) {
+                catchAll.first = rule.getIndex();
+            }
+            if (matchesLineTerminators && catchAll.firstMatchingLineTerminators == NONE) {
+                catchAll.firstMatchingLineTerminators = rule.getIndex();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches the rules whose pattern is a {@link PathTemplate} with a tree of segments.
+ *
+ * Each node of the tree stands for the segments of a path matched so far, and has a child for each literal segment that may
+ * follow, keyed by its text, and a single child for the variables and wildcards that may follow, whatever their names. The path
+ * is split once, then the tree is walked down along its segments. As a path may match several templates, both the literal and
+ * the variable children are explored, keeping the rule declared first; subtrees which only hold rules declared after the best
+ * one found so far are skipped.
+ *
+ * @author GraviteeSource Team
+ */
+final class SegmentTreeMatcher implements RuleMatcher {
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final CompiledRule[] rules;
+
+    private final Node root = new Node();
+
+    /**
+     * Index of the first rule whose template is invalid, whose error is raised when no rule declared before is matching
+     */
+    private final int firstInvalid;
+
+    /**
+     * @param rules all the rules of the rule set, by index
+     * @param templateRules the rules whose pattern is a path template, in declaration order
+     */
+    SegmentTreeMatcher(List<CompiledRule> rules, List<CompiledRule> templateRules) {
+        this.rules = rules.toArray(new CompiledRule[0]);
+        int invalid = NONE;
+        for (CompiledRule rule : templateRules) {
+            if (rule.isValid()) {
+                add(rule.getIndex(), rule.getPattern().getTemplate().getSegments());
+            } else {
+                invalid = Math.min(invalid, rule.getIndex());
+            }
+        }
+        this.firstInvalid = invalid;
+    }
+
+    private void add(int ruleIndex, String[] segments) {
+        Node node = root;
+        node.min = Math.min(node.min, ruleIndex);
+        for (int idx = 0; idx < segments.length; idx++) {
+            String segment = segments[idx];
+            if (idx == segments.length - 1 && PathTemplate.REST.equals(segment)) {
+                node.rest = Math.min(node.rest, ruleIndex);
+                return;
+            }
+            node = node.child(segment);
+            node.min = Math.min(node.min, ruleIndex);
+        }
+        node.terminal = Math.min(node.terminal, ruleIndex);
+    }
+
+    @Override
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver, int from, int limit) {
+        // Templates never rely on EL, the whole tree is walked at once
+        String matchingPath = path;
+        int best = find(root, path.split("/", -1), 0, limit);
+        if (decodedPath != path) {
+            int decoded = find(root, decodedPath.split("/", -1), 0, Math.min(best, limit));
+            if (decoded < best) {
+                best = decoded;
+                matchingPath = decodedPath;
+            }
+        }
+
+        if (firstInvalid < Math.min(best, limit)) {
+            // Raises the syntax error, as evaluating the rules in order would
+            rules[firstInvalid].pattern(resolver);
+        }
+        if (best >= limit) {
+            return null;
+        }
+        CompiledRule rule = rules[best];
+        return new RouteMatch(rule, rule.getPattern(), rule.getPattern().match(matchingPath), matchingPath);
+    }
+
+    /**
+     * @param node the node reached with the segments before the given one
+     * @param bound the index of the first rule not to consider
+     * @return the index of the first rule matching the segments from the given one, <code>bound</code> if none
+     */
+    private static int find(Node node, String[] segments, int idx, int bound) {
+        int best = Math.min(node.rest, bound);
+        String segment = segments[idx];
+        boolean last = idx == segments.length - 1;
+
+        Node literal = node.literals == null ? null : node.literals.get(segment);
+        best = findFrom(literal, segments, idx, last, best);
+        if (!segment.isEmpty()) {
+            best = findFrom(node.variable, segments, idx, last, best);
+        }
+        return best;
+    }
+
+    private static int findFrom(Node child, String[] segments, int idx, boolean last, int best) {
+        if (child == null || child.min >= best) {
+            return best;
+        }
+        return last ? Math.min(child.terminal, best) : find(child, segments, idx + 1, best);
+    }
+
+    private static final class Node {
+
+        /**
+         * Children by literal segment, <code>null</code> until one is added
+         */
+        private Map<String, Node> literals;
+
+        /**
+         * Child for a variable or wildcard segment, <code>null</code> if none
+         */
+        private Node variable;
+
+        /**
+         * Index of the first rule whose template ends at this node
+         */
+        private int terminal = NONE;
+
+        /**
+         * Index of the first rule whose template ends with <code>**</code> after this node
+         */
+        private int rest = NONE;
+
+        /**
+         * Index of the first rule in this subtree
+         */
+        private int min = NONE;
+
+        private Node child(String segment) {
+            if (segment == null) {
+                if (variable == null) {
+                    variable = new Node();
+                }
+                return variable;
+            }
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            return literals.computeIfAbsent(segment, key -> new Node());
+        }
+    }
+}
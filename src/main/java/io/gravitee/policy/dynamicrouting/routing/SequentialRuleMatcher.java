@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import java.util.List;
+import java.util.regex.MatchResult;
+
+/**
+ * Evaluates the rules one after the other until one is matching.
+ *
+ * Only the rules whose literal prefix is compatible with the path, as given by the {@link PrefixIndex}, are evaluated.
+ * Evaluation starts and stops at the bounds given by the caller, so that candidates are never evaluated past a rule known to
+ * match, nor evaluated again once known not to match. When the path has nothing to decode, consecutive candidates which can not
+ * match the same path are evaluated in order of hits, see {@link DisjointRuns}.
+ *
+ * @author GraviteeSource Team
+ */
+final class SequentialRuleMatcher implements RuleMatcher {
+
+    private final CompiledRule[] rules;
+
+    private final PrefixIndex prefixIndex;
+
+    /**
+     * @param rules all the rules of the rule set, by index
+     * @param evaluated the rules to evaluate, in declaration order
+     */
+    SequentialRuleMatcher(List<CompiledRule> rules, List<CompiledRule> evaluated) {
+        this.rules = rules.toArray(new CompiledRule[0]);
+        this.prefixIndex = new PrefixIndex(evaluated);
+    }
+
+    @Override
+    public RouteMatch match(String path, String decodedPath, PatternResolver resolver, int from, int limit) {
+        if (decodedPath == path) {
+            return matchRuns(prefixIndex.runs(path), path, resolver, from, limit);
+        }
+
+        int[] candidates = prefixIndex.candidates(path);
+        int[] decodedCandidates = prefixIndex.candidates(decodedPath);
+
+        if (candidates == decodedCandidates) {
+            for (int candidate : candidates) {
+                if (candidate >= limit) {
+                    break;
+                }
+                if (candidate < from) {
+                    continue;
+                }
+                RouteMatch match = evaluate(rules[candidate], path, decodedPath, resolver);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return null;
+        }
+
+        // Merge both lists of candidates to keep the declaration order
+        int i = 0;
+        int j = 0;
+        while (i < candidates.length || j < decodedCandidates.length) {
+            int candidate;
+            if (j >= decodedCandidates.length || (i < candidates.length && candidates[i] < decodedCandidates[j])) {
+                candidate = candidates[i++];
+            } else if (i >= candidates.length || decodedCandidates[j] < candidates[i]) {
+                candidate = decodedCandidates[j++];
+            } else {
+                candidate = candidates[i++];
+                j++;
+            }
+
+            if (candidate >= limit) {
+                break;
+            }
+            if (candidate < from) {
+                continue;
+            }
+            RouteMatch match = evaluate(rules[candidate], path, decodedPath, resolver);
+            if (match != null) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void recordHits(long[] ruleHits) {
+        prefixIndex.recordHits(ruleHits);
+    }
+
+    /**
+     * Evaluates the candidates run by run, the rules of a run, which can not match the same path, in order of hits.
+     */
+    private RouteMatch matchRuns(DisjointRuns runs, String path, PatternResolver resolver, int from, int limit) {
+        int[] candidates = runs.candidates();
+        int[] order = runs.order();
+        int start = 0;
+        for (int end : runs.runEnds()) {
+            if (candidates[start] >= limit) {
+                break;
+            }
+            if (candidates[end - 1] < from) {
+                // The whole run has been evaluated already
+                start = end;
+                continue;
+            }
+            for (int idx = start; idx < end; idx++) {
+                int position = order[idx];
+                if (candidates[position] < from || candidates[position] >= limit) {
+                    continue;
+                }
+                RouteMatch match = evaluate(rules[candidates[position]], path, path, resolver);
+                if (match != null) {
+                    runs.recordHit(position);
+                    return match;
+                }
+            }
+            start = end;
+        }
+        return null;
+    }
+
+    private static RouteMatch evaluate(CompiledRule rule, String path, String decodedPath, PatternResolver resolver) {
+        CompiledPattern pattern = rule.pattern(resolver);
+        if (pattern == null) {
+            return null;
+        }
+        String prefix = rule.getLiteralPrefix();
+
+        // The path as received is tried first so that capture groups keep being extracted from it when both forms match
+        if (path.startsWith(prefix)) {
+            MatchResult result = pattern.match(path);
+            if (result != null) {
+                return new RouteMatch(rule, pattern, result, path);
+            }
+        }
+
+        if (decodedPath != path && decodedPath.startsWith(prefix)) {
+            MatchResult result = pattern.match(decodedPath);
+            if (result != null) {
+                return new RouteMatch(rule, pattern, result, decodedPath);
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.policy.dynamicrouting.configuration.StickyKey;
+import io.gravitee.policy.dynamicrouting.configuration.StickyKeySource;
+import io.gravitee.policy.dynamicrouting.configuration.WeightedTarget;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+
+/**
+ * The weighted target URLs of a rule, one of which is picked for each request.
+ *
+ * A target is picked by the power of two choices: two targets are drawn at random, in proportion to their weight, and the one
+ * with the lowest latency wins. The latency of a target is an average of the response times observed for it, which jumps to any
+ * higher response time right away and otherwise decays over about a second (peak EWMA): a target slowing down quickly gets fewer
+ * requests, while still being drawn often enough to notice when it recovers. A target without observed response time wins
+ * against any other one, so that new targets are tried first.
+ *
+ * When the rule has a sticky key, the target is rather located on a consistent {@link HashRing} by the key of the request, so that
+ * the requests sharing a key keep going to the same target. A request without key falls back to the power of two choices.
+ *
+ * Targets are picked and updated without locking, concurrent updates of the latency of a target being retried.
+ *
+ * @author GraviteeSource Team
+ */
+public final class TargetGroup {
+
+    /**
+     * Time constant of the latency average, in nanoseconds
+     */
+    static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Target[] targets;
+
+    /**
+     * Sum of the weights of the targets up to each target, included
+     */
+    private final long[] cumulativeWeights;
+
+    /**
+     * Ring the targets are located on by the sticky key, <code>null</code> if the rule has no sticky key
+     */
+    private final HashRing ring;
+
+    private final StickyKeySource keySource;
+
+    /**
+     * Name of the group, lower case name of the header or name of the query parameter holding the key
+     */
+    private final String keyName;
+
+    /**
+     * Number of the group holding the key when given by its index, 0 otherwise
+     */
+    private final int keyGroup;
+
+    private TargetGroup(Target[] targets, StickyKey stickyKey) {
+        this.targets = targets;
+        this.cumulativeWeights = new long[targets.length];
+        long total = 0;
+        for (int idx = 0; idx < targets.length; idx++) {
+            total += targets[idx].weight;
+            cumulativeWeights[idx] = total;
+        }
+
+        if (stickyKey == null || stickyKey.getSource() == null || stickyKey.getName() == null || stickyKey.getName().isEmpty()) {
+            this.ring = null;
+            this.keySource = null;
+            this.keyName = null;
+            this.keyGroup = 0;
+        } else {
+            this.ring = new HashRing(targets);
+            this.keySource = stickyKey.getSource();
+            this.keyName = keySource == StickyKeySource.HEADER ? stickyKey.getName().toLowerCase(Locale.ROOT) : stickyKey.getName();
+            this.keyGroup = keySource == StickyKeySource.GROUP && keyName.matches("\\d{1,4}") ? Integer.parseInt(keyName) + 1 : 0;
+        }
+    }
+
+    /**
+     * @return the group of the targets having a URL and a positive weight, <code>null</code> if there is none
+     */
+    static TargetGroup of(List<WeightedTarget> configured, StickyKey stickyKey) {
+        if (configured == null) {
+            return null;
+        }
+        List<Target> targets = new ArrayList<>(configured.size());
+        for (WeightedTarget target : configured) {
+            if (target != null && target.getUrl() != null && target.getWeight() > 0) {
+                targets.add(new Target(UrlTemplate.compile(target.getUrl()), target.getWeight()));
+            }
+        }
+        return targets.isEmpty() ? null : new TargetGroup(targets.toArray(new Target[0]), stickyKey);
+    }
+
+    /**
+     * @param match the match of the rule, providing the capture groups
+     * @param request the request being routed
+     * @return the target to route the request to, located by its sticky key if the rule has one
+     */
+    public Target select(RouteMatch match, RequestAttributes request) {
+        if (ring != null) {
+            Target target = locate(match, request);
+            if (target != null) {
+                return target;
+            }
+        }
+        return select();
+    }
+
+    /**
+     * @return the target of the sticky key of the request, <code>null</code> if the request has no key
+     */
+    private Target locate(RouteMatch match, RequestAttributes request) {
+        switch (keySource) {
+            case HEADER:
+                return locate(request.header(keyName));
+            case QUERY_PARAMETER:
+                return locate(request.parameter(keyName));
+            default:
+                return locateGroup(match);
+        }
+    }
+
+    private Target locate(String key) {
+        return key != null ? ring.locate(key, 0, key.length()) : null;
+    }
+
+    /**
+     * Hashes the value captured by the group right from the matched path, without extracting it.
+     */
+    private Target locateGroup(RouteMatch match) {
+        MatchResult result = match.getMatchResult();
+        int group = keyGroup > 0 ? keyGroup : match.groupNumber(keyName);
+        int start;
+        int end;
+        if (group > 0 && group <= result.groupCount()) {
+            start = result.start(group);
+            end = result.end(group);
+        } else if (group < 0 && result instanceof Matcher) {
+            start = ((Matcher) result).start(keyName);
+            end = ((Matcher) result).end(keyName);
+        } else {
+            return null;
+        }
+        return start >= 0 ? ring.locate(match.getInput(), start, end) : null;
+    }
+
+    /**
+     * @return the target to route the current request to, by the power of two choices
+     */
+    public Target select() {
+        if (targets.length == 1) {
+            return targets[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long total = cumulativeWeights[cumulativeWeights.length - 1];
+        return select(random.nextLong(total), random.nextLong(total));
+    }
+
+    /**
+     * @param first the point of the first target drawn, between 0 and the total weight of the targets, excluded
+     * @param second the point of the second target drawn
+     */
+    Target select(long first, long second) {
+        Target firstTarget = targetAt(first);
+        Target secondTarget = targetAt(second);
+        return secondTarget.latency.get() < firstTarget.latency.get() ? secondTarget : firstTarget;
+    }
+
+    private Target targetAt(long point) {
+        int idx = Arrays.binarySearch(cumulativeWeights, point);
+        // A target covers the points from the cumulative weight of the previous one, included, to its own, excluded
+        return targets[idx >= 0 ? idx + 1 : -idx - 1];
+    }
+
+    /**
+     * @return <code>true</code> if the targets are located by a sticky key
+     */
+    public boolean isSticky() {
+        return ring != null;
+    }
+
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(Arrays.asList(targets));
+    }
+
+    /**
+     * A target URL of a rule, along with the latency observed for it.
+     */
+    public static final class Target {
+
+        private final UrlTemplate urlTemplate;
+
+        private final int weight;
+
+        /**
+         * Average response time, in nanoseconds, 0 until a response time is recorded
+         */
+        private final AtomicLong latency = new AtomicLong();
+
+        private volatile long lastUpdate;
+
+        private Target(UrlTemplate urlTemplate, int weight) {
+            this.urlTemplate = urlTemplate;
+            this.weight = weight;
+        }
+
+        /**
+         * Records the time a request routed to this target took to get its response.
+         *
+         * @param responseTime the response time, in nanoseconds
+         */
+        public void recordLatency(long responseTime) {
+            recordLatency(responseTime, System.nanoTime());
+        }
+
+        void recordLatency(long responseTime, long now) {
+            long sample = Math.max(1, responseTime);
+            // The older the average, the less it weighs
+            double decay = Math.exp(-(double) Math.max(0, now - lastUpdate) / DECAY_NANOS);
+            long current;
+            long updated;
+            do {
+                current = latency.get();
+                updated = current == 0 || sample >= current ? sample : Math.max(1, Math.round(sample + decay * (current - sample)));
+            } while (!latency.compareAndSet(current, updated));
+            lastUpdate = now;
+        }
+
+        public UrlTemplate getUrlTemplate() {
+            return urlTemplate;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return the average response time, in nanoseconds, 0 if none has been recorded yet
+         */
+        public long getLatency() {
+            return latency.get();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.el.TemplateContext;
+import io.gravitee.el.TemplateEngine;
+import io.reactivex.rxjava3.core.Maybe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The target URL of a rule, compiled to be rendered without the template engine whenever possible.
+ *
+ * A URL made only of literal text and of <code>{#group[n]}</code>, <code>{#groupName['name']}</code> or
+ * <code>{#endpoints['name']}</code> expressions is rendered by concatenation. Any other URL, or a URL whose expressions can not
+ * be resolved directly for the current request, is evaluated by the template engine.
+ *
+ * The capture groups are only exposed to the template engine, as the <code>group</code> and <code>groupName</code> variables,
+ * when the URL is evaluated by the engine and refers to them.
+ *
+ * @author GraviteeSource Team
+ */
+public abstract class UrlTemplate {
+
+    static final String ENDPOINTS_VARIABLE = "endpoints";
+
+    static final String GROUP_VARIABLE = "group";
+
+    static final String GROUP_NAME_VARIABLE = "groupName";
+
+    private static final Pattern GROUP_EXPRESSION = Pattern.compile("#group\\[(\\d{1,4})]");
+
+    private static final Pattern GROUP_NAME_EXPRESSION = Pattern.compile("#groupName\\[(?:'([^'\"]*)'|\"([^'\"]*)\")]");
+
+    private static final Pattern ENDPOINT_EXPRESSION = Pattern.compile("#endpoints\\[(?:'([^'\"]*)'|\"([^'\"]*)\")]");
+
+    protected final String url;
+
+    private UrlTemplate(String url) {
+        this.url = url;
+    }
+
+    public static UrlTemplate compile(String url) {
+        if (url == null) {
+            return new Evaluated(null);
+        }
+        if (!Expressions.isExpression(url)) {
+            return new Literal(url);
+        }
+
+        List<Part> parts = new ArrayList<>();
+        int start = 0;
+        while (start < url.length()) {
+            int open = url.indexOf('{', start);
+            if (open < 0) {
+                parts.add(new Text(url.substring(start)));
+                break;
+            }
+            int close = url.indexOf('}', open);
+            if (close < 0 || url.indexOf('{', open + 1) >= 0 && url.indexOf('{', open + 1) < close) {
+                return new Evaluated(url);
+            }
+
+            if (open > start) {
+                parts.add(new Text(url.substring(start, open)));
+            }
+            Part part = expression(url.substring(open + 1, close));
+            if (part == null) {
+                return new Evaluated(url);
+            }
+            parts.add(part);
+            start = close + 1;
+        }
+
+        return new Concatenated(url, parts.toArray(new Part[0]));
+    }
+
+    private static Part expression(String expression) {
+        Matcher matcher = GROUP_EXPRESSION.matcher(expression);
+        if (matcher.matches()) {
+            return new Group(Integer.parseInt(matcher.group(1)));
+        }
+
+        matcher = GROUP_NAME_EXPRESSION.matcher(expression);
+        if (matcher.matches()) {
+            return new GroupName(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+
+        matcher = ENDPOINT_EXPRESSION.matcher(expression);
+        if (matcher.matches()) {
+            return new Endpoint(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+
+        return null;
+    }
+
+    /**
+     * Renders the URL for the given match.
+     *
+     * @param match the match of the rule, providing the capture groups
+     * @param templateEngine the template engine of the current request
+     * @return the target URL
+     */
+    public abstract String render(RouteMatch match, TemplateEngine templateEngine);
+
+    /**
+     * Renders the URL for the given match, without blocking when the template engine is needed.
+     *
+     * @param match the match of the rule, providing the capture groups
+     * @param templateEngine the template engine of the current request
+     * @return the target URL, empty if the URL evaluates to nothing
+     */
+    public abstract Maybe<String> eval(RouteMatch match, TemplateEngine templateEngine);
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return <code>true</code> if the rendered URL only depends on the capture groups, and not on the request or the API
+     */
+    abstract boolean dependsOnPathOnly();
+
+    private static final class Literal extends UrlTemplate {
+
+        private Literal(String url) {
+            super(url);
+        }
+
+        @Override
+        public String render(RouteMatch match, TemplateEngine templateEngine) {
+            return url;
+        }
+
+        @Override
+        public Maybe<String> eval(RouteMatch match, TemplateEngine templateEngine) {
+            return Maybe.just(url);
+        }
+
+        @Override
+        boolean dependsOnPathOnly() {
+            return true;
+        }
+    }
+
+    /**
+     * Evaluates the URL with the template engine, exposing the capture groups first if needed.
+     */
+    protected String evaluate(RouteMatch match, TemplateEngine templateEngine) {
+        exposeGroups(match, templateEngine);
+        return templateEngine.getValue(url, String.class);
+    }
+
+    /**
+     * Same as {@link #evaluate(RouteMatch, TemplateEngine)}, without blocking.
+     */
+    protected Maybe<String> evaluateAsync(RouteMatch match, TemplateEngine templateEngine) {
+        if (url == null) {
+            return Maybe.empty();
+        }
+        exposeGroups(match, templateEngine);
+        return templateEngine.eval(url, String.class);
+    }
+
+    private void exposeGroups(RouteMatch match, TemplateEngine templateEngine) {
+        if (url == null || url.contains("#" + GROUP_VARIABLE)) {
+            TemplateContext templateContext = templateEngine.getTemplateContext();
+            templateContext.setVariable(GROUP_VARIABLE, match.groups());
+            templateContext.setVariable(GROUP_NAME_VARIABLE, match.groupNames());
+        }
+    }
+
+    private static final class Evaluated extends UrlTemplate {
+
+        private Evaluated(String url) {
+            super(url);
+        }
+
+        @Override
+        public String render(RouteMatch match, TemplateEngine templateEngine) {
+            return evaluate(match, templateEngine);
+        }
+
+        @Override
+        public Maybe<String> eval(RouteMatch match, TemplateEngine templateEngine) {
+            return evaluateAsync(match, templateEngine);
+        }
+
+        @Override
+        boolean dependsOnPathOnly() {
+            return false;
+        }
+    }
+
+    private static final class Concatenated extends UrlTemplate {
+
+        private final Part[] parts;
+
+        private Concatenated(String url, Part[] parts) {
+            super(url);
+            this.parts = parts;
+        }
+
+        @Override
+        public String render(RouteMatch match, TemplateEngine templateEngine) {
+            String rendered = concatenate(match, templateEngine);
+            // Let the template engine handle (and report) what can not be resolved directly
+            return rendered != null ? rendered : evaluate(match, templateEngine);
+        }
+
+        @Override
+        public Maybe<String> eval(RouteMatch match, TemplateEngine templateEngine) {
+            String rendered = concatenate(match, templateEngine);
+            return rendered != null ? Maybe.just(rendered) : evaluateAsync(match, templateEngine);
+        }
+
+        /**
+         * @return the rendered URL, <code>null</code> if a part can not be resolved directly
+         */
+        private String concatenate(RouteMatch match, TemplateEngine templateEngine) {
+            StringBuilder rendered = new StringBuilder(url.length() + 32);
+            for (Part part : parts) {
+                if (!part.appendTo(rendered, match, templateEngine)) {
+                    return null;
+                }
+            }
+            return rendered.toString();
+        }
+
+        @Override
+        boolean dependsOnPathOnly() {
+            for (Part part : parts) {
+                if (part instanceof Endpoint) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private interface Part {
+        /**
+         * @return <code>false</code> if the part can not be resolved directly
+         */
+        boolean appendTo(StringBuilder rendered, RouteMatch match, TemplateEngine templateEngine);
+    }
+
+    private static final class Text implements Part {
+
+        private final String text;
+
+        private Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public boolean appendTo(StringBuilder rendered, RouteMatch match, TemplateEngine templateEngine) {
+            rendered.append(text);
+            return true;
+        }
+    }
+
+    private static final class Group implements Part {
+
+        private final int index;
+
+        private Group(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean appendTo(StringBuilder rendered, RouteMatch match, TemplateEngine templateEngine) {
+            if (index >= match.groupCount()) {
+                return false;
+            }
+            appendValue(rendered, match.group(index));
+            return true;
+        }
+    }
+
+    private static final class GroupName implements Part {
+
+        private final String name;
+
+        private GroupName(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean appendTo(StringBuilder rendered, RouteMatch match, TemplateEngine templateEngine) {
+            appendValue(rendered, match.groupName(name));
+            return true;
+        }
+    }
+
+    private static final class Endpoint implements Part {
+
+        private final String name;
+
+        private Endpoint(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean appendTo(StringBuilder rendered, RouteMatch match, TemplateEngine templateEngine) {
+            Object endpoints = templateEngine.getTemplateContext().lookupVariable(ENDPOINTS_VARIABLE);
+            if (!(endpoints instanceof Map)) {
+                return false;
+            }
+            appendValue(rendered, ((Map<?, ?>) endpoints).get(name));
+            return true;
+        }
+    }
+
+    /**
+     * Null values are rendered as empty text, as the template engine does.
+     */
+    private static void appendValue(StringBuilder rendered, Object value) {
+        if (value != null) {
+            rendered.append(value);
+        }
+    }
+}
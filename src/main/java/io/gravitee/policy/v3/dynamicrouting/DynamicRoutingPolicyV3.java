@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.v3.dynamicrouting;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.Response;
+import io.gravitee.policy.api.PolicyChain;
+import io.gravitee.policy.api.PolicyResult;
+import io.gravitee.policy.api.annotations.OnRequest;
+import io.gravitee.policy.api.annotations.OnResponse;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import io.gravitee.policy.dynamicrouting.routing.CompiledRuleSet;
+import io.gravitee.policy.dynamicrouting.routing.CompiledRuleSetRegistry;
+import io.gravitee.policy.dynamicrouting.routing.MatchBudgetExceededException;
+import io.gravitee.policy.dynamicrouting.routing.PatternResolver;
+import io.gravitee.policy.dynamicrouting.routing.ReloadableRuleSet;
+import io.gravitee.policy.dynamicrouting.routing.RequestAttributes;
+import io.gravitee.policy.dynamicrouting.routing.RequestPaths;
+import io.gravitee.policy.dynamicrouting.routing.RouteMatch;
+import io.gravitee.policy.dynamicrouting.routing.RoutingMetrics;
+import io.gravitee.policy.dynamicrouting.routing.TargetGroup;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dynamic routing for the V2 APIs, executed through the legacy request callback.
+ *
+ * @author David BRASSELY (david.brassely at graviteesource.com)
+ * @author Nicolas GERAUD (nicolas.geraud at graviteesource.com)
+ * @author GraviteeSource Team
+ */
+public class DynamicRoutingPolicyV3 {
+
+    /**
+     * LOGGER
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamicRoutingPolicyV3.class);
+
+    /**
+     * Rule sets of the configurations in use, shared by all the policy instances created from the same configuration. The compiled
+     * rules are also shared by the configurations having the same content, through the {@link CompiledRuleSetRegistry}.
+     */
+    private static final Map<DynamicRoutingPolicyConfiguration, CompiledRuleSet> COMPILED_RULE_SETS = Collections.synchronizedMap(
+        new WeakHashMap<>()
+    );
+
+    /**
+     * Rule sets of the configurations with external rules, reloaded when their source changes
+     */
+    private static final Map<DynamicRoutingPolicyConfiguration, ReloadableRuleSet> RELOADABLE_RULE_SETS = Collections.synchronizedMap(
+        new WeakHashMap<>()
+    );
+
+    /**
+     * Attribute holding the target picked among the weighted targets of the selected rule
+     */
+    public static final String ATTR_TARGET = "dynamic-routing.target";
+
+    /**
+     * Attribute holding the time the request has been routed to the target, from {@link System#nanoTime()}
+     */
+    public static final String ATTR_TARGET_REQUEST_TIME = "dynamic-routing.target.request-time";
+
+    /**
+     * The associated configuration to this Policy
+     */
+    protected final DynamicRoutingPolicyConfiguration configuration;
+
+    private volatile CompiledRuleSet compiledRuleSet;
+
+    /**
+     * Rule set of the configuration if it has external rules, <code>null</code> otherwise
+     */
+    private final ReloadableRuleSet reloadableRuleSet;
+
+    /**
+     * Create a new policy instance based on its associated configuration
+     *
+     * @param configuration the associated configuration to the new policy instance
+     */
+    public DynamicRoutingPolicyV3(DynamicRoutingPolicyConfiguration configuration) {
+        this.configuration = configuration;
+        // Rules are compiled, and the invalid ones reported, as soon as the configuration is loaded
+        this.reloadableRuleSet = configuration.getExternalRules() == null || configuration.getExternalRules().getSource() == null
+            ? null
+            : RELOADABLE_RULE_SETS.computeIfAbsent(configuration, ReloadableRuleSet::of);
+        this.compiledRuleSet = compiledRuleSet();
+    }
+
+    @OnRequest
+    public void onRequest(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
+        CompiledRuleSet ruleSet = compiledRuleSet(executionContext::getTemplateEngine);
+        String originalSubPath = request.pathInfo();
+        LOGGER.debug("Dynamic routing for path {}", originalSubPath);
+        if (ruleSet.isEmpty()) {
+            // No rule defined
+            policyChain.doNext(request, response);
+            return;
+        }
+
+        String decodedSubPath;
+        try {
+            decodedSubPath = RequestPaths.decode(originalSubPath);
+        } catch (IllegalArgumentException iae) {
+            // Invalid path, e.g. with a malformed escape sequence
+            ruleSet.getMetrics().recordInvalidPath();
+            policyChain.failWith(PolicyResult.failure(HttpStatusCode.INTERNAL_SERVER_ERROR_500, "Invalid path"));
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            if (!ruleSet.mayMatch(originalSubPath, decodedSubPath)) {
+                ruleSet.getMetrics().recordRejected();
+                exposeMetrics(executionContext, ruleSet, null, System.nanoTime() - start);
+
+                // No rule can match request path
+                policyChain.failWith(PolicyResult.failure(HttpStatusCode.BAD_REQUEST_400, "No routing rule is matching path"));
+                return;
+            }
+
+            // Look for a matching pattern from rules
+            RequestAttributes attributes = new HttpRequestAttributes(request);
+            RouteMatch routeMatch = ruleSet.match(
+                originalSubPath,
+                decodedSubPath,
+                PatternResolver.of(executionContext.getTemplateEngine()),
+                attributes
+            );
+
+            if (routeMatch != null) {
+                Rule rule = routeMatch.getRule().getRule();
+                LOGGER.debug("Applying rule for path {}: [{} - {}]", originalSubPath, rule.getPattern(), rule.getUrl());
+
+                // Given endpoint can be defined as the template using EL, capture groups being exposed only if referenced
+                LOGGER.debug("Transform endpoint {} using template engine", rule.getUrl());
+                TargetGroup.Target target = routeMatch.getRule().getTargets() == null
+                    ? null
+                    : routeMatch.getRule().getTargets().select(routeMatch, attributes);
+                String endpoint = target == null
+                    ? routeMatch.endpoint(executionContext.getTemplateEngine())
+                    : target.getUrlTemplate().render(routeMatch, executionContext.getTemplateEngine());
+                long latency = System.nanoTime() - start;
+                ruleSet.getMetrics().recordMatch(routeMatch.getRule().getIndex(), latency);
+                exposeMetrics(executionContext, ruleSet, routeMatch.getRule().getIndex(), latency);
+
+                // Set final endpoint
+                executionContext.setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, endpoint);
+                LOGGER.debug("Route request to {}", endpoint);
+                if (target != null) {
+                    // The response time of the target is observed in the response phase
+                    executionContext.setAttribute(ATTR_TARGET, target);
+                    executionContext.setAttribute(ATTR_TARGET_REQUEST_TIME, System.nanoTime());
+                }
+
+                // And continue request processing....
+                policyChain.doNext(request, response);
+            } else if (ruleSet.hasInvalidRules()) {
+                // The request reached a rule whose pattern is not valid
+                ruleSet.getMetrics().recordInvalidPattern();
+                policyChain.failWith(PolicyResult.failure(HttpStatusCode.INTERNAL_SERVER_ERROR_500, "Invalid pattern syntax"));
+            } else {
+                long latency = System.nanoTime() - start;
+                ruleSet.getMetrics().recordNoMatch(latency);
+                exposeMetrics(executionContext, ruleSet, null, latency);
+
+                // No rule is matching request path
+                policyChain.failWith(PolicyResult.failure(HttpStatusCode.BAD_REQUEST_400, "No routing rule is matching path"));
+            }
+        } catch (PatternSyntaxException pse) {
+            // Invalid pattern syntax, resolved from EL
+            ruleSet.getMetrics().recordInvalidPattern();
+            policyChain.failWith(PolicyResult.failure(HttpStatusCode.INTERNAL_SERVER_ERROR_500, "Invalid pattern syntax"));
+        } catch (MatchBudgetExceededException mbee) {
+            // Path too costly to match
+            ruleSet.getMetrics().recordBudgetExceeded();
+            policyChain.failWith(PolicyResult.failure(HttpStatusCode.INTERNAL_SERVER_ERROR_500, "Pattern matching budget exceeded"));
+        }
+    }
+
+    @OnResponse
+    public void onResponse(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
+        recordTargetLatency(executionContext.getAttribute(ATTR_TARGET), executionContext.getAttribute(ATTR_TARGET_REQUEST_TIME));
+        policyChain.doNext(request, response);
+    }
+
+    /**
+     * Records the response time of the target a request has been routed to, if any.
+     */
+    protected static void recordTargetLatency(Object target, Object requestTime) {
+        if (target instanceof TargetGroup.Target && requestTime instanceof Long) {
+            ((TargetGroup.Target) target).recordLatency(System.nanoTime() - (Long) requestTime);
+        }
+    }
+
+    private void exposeMetrics(ExecutionContext executionContext, CompiledRuleSet ruleSet, Integer ruleIndex, long latency) {
+        if (configuration.isExposeMetrics()) {
+            executionContext.setAttribute(RoutingMetrics.ATTR_METRICS, ruleSet.getMetrics());
+            executionContext.setAttribute(RoutingMetrics.ATTR_RULE, ruleIndex);
+            executionContext.setAttribute(RoutingMetrics.ATTR_LATENCY, latency);
+        }
+    }
+
+    /**
+     * @return the rules of the configuration compiled for matching, along with their metrics
+     */
+    public CompiledRuleSet compiledRuleSet() {
+        if (reloadableRuleSet != null) {
+            return reloadableRuleSet.get();
+        }
+        CompiledRuleSet ruleSet = compiledRuleSet;
+        if (ruleSet == null) {
+            ruleSet = COMPILED_RULE_SETS.computeIfAbsent(configuration, CompiledRuleSetRegistry.getInstance()::get);
+            compiledRuleSet = ruleSet;
+        }
+        return ruleSet;
+    }
+
+    /**
+     * Same as {@link #compiledRuleSet()}, the external rules being reloaded first if they come from a dictionary which has changed.
+     *
+     * @param templateEngine supplies the template engine of the current request
+     */
+    protected CompiledRuleSet compiledRuleSet(Supplier<TemplateEngine> templateEngine) {
+        if (reloadableRuleSet != null) {
+            reloadableRuleSet.refresh(templateEngine);
+        }
+        return compiledRuleSet();
+    }
+
+    private static final class HttpRequestAttributes implements RequestAttributes {
+
+        private final Request request;
+
+        private HttpRequestAttributes(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public String host() {
+            return request.host();
+        }
+
+        @Override
+        public HttpMethod method() {
+            return request.method();
+        }
+
+        @Override
+        public String header(String name) {
+            return request.headers() == null ? null : request.headers().get(name);
+        }
+
+        @Override
+        public String parameter(String name) {
+            return request.parameters() == null ? null : request.parameters().getFirst(name);
+        }
+    }
+}
@@ -15,402 +15,518 @@
  */
 package io.gravitee.policy.dynamicrouting;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import io.gravitee.el.TemplateContext;
 import io.gravitee.el.TemplateEngine;
-import io.gravitee.gateway.api.ExecutionContext;
-import io.gravitee.gateway.api.Request;
-import io.gravitee.gateway.api.Response;
-import io.gravitee.policy.api.PolicyChain;
-import io.gravitee.policy.api.PolicyResult;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.gateway.reactive.api.context.ContextAttributes;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpMessageRequest;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainExecutionContext;
+import io.gravitee.gateway.reactive.api.context.http.HttpPlainRequest;
+import io.gravitee.gateway.reactive.api.message.Message;
 import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.ExternalRules;
+import io.gravitee.policy.dynamicrouting.configuration.ExternalRulesSource;
 import io.gravitee.policy.dynamicrouting.configuration.Rule;
-import java.util.ArrayList;
+import io.gravitee.policy.dynamicrouting.configuration.StickyKey;
+import io.gravitee.policy.dynamicrouting.configuration.StickyKeySource;
+import io.gravitee.policy.dynamicrouting.configuration.WeightedTarget;
+import io.gravitee.policy.dynamicrouting.routing.RoutingMetrics;
+import io.gravitee.policy.dynamicrouting.routing.TargetGroup;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.functions.Function;
 import java.util.List;
-import org.junit.jupiter.api.BeforeEach;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 /**
- * @author David BRASSELY (david.brassely at graviteesource.com)
- * @author Nicolas GERAUD (nicolas.geraud at graviteesource.com)
  * @author GraviteeSource Team
  */
 @ExtendWith(MockitoExtension.class)
 public class DynamicRoutingPolicyTest {
 
-    private DynamicRoutingPolicy dynamicRoutingPolicy;
-
     @Mock
-    private DynamicRoutingPolicyConfiguration dynamicRoutingPolicyConfiguration;
+    private HttpPlainExecutionContext ctx;
 
     @Mock
-    protected Request request;
+    private HttpPlainRequest request;
 
     @Mock
-    protected Response response;
+    private HttpMessageExecutionContext messageCtx;
 
     @Mock
-    protected PolicyChain policyChain;
+    private HttpMessageRequest messageRequest;
 
-    @Mock
-    protected ExecutionContext executionContext;
+    @Captor
+    private ArgumentCaptor<Function<Message, Maybe<Message>>> onMessage;
 
-    @BeforeEach
-    public void init() {
-        dynamicRoutingPolicy = new DynamicRoutingPolicy(dynamicRoutingPolicyConfiguration);
+    @Test
+    public void should_have_policy_id() {
+        assertThat(new DynamicRoutingPolicy(new DynamicRoutingPolicyConfiguration()).id()).isEqualTo("dynamic-routing");
     }
 
     @Test
-    public void test_shouldThrowFailure_noRule() {
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/products/ecom/");
+    public void should_continue_without_rule() {
+        DynamicRoutingPolicy policy = new DynamicRoutingPolicy(new DynamicRoutingPolicyConfiguration());
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+        policy.onRequest(ctx).test().assertComplete();
 
-        // Check results
-        verify(policyChain).doNext(request, response);
+        verifyNoInteractions(ctx);
     }
 
     @Test
-    public void test_shouldDynamicRouting_noMatchingRule() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/mag/", "http://host1/product"));
+    public void should_route_to_first_matching_rule() {
+        DynamicRoutingPolicy policy = policy(
+            new Rule("/v1/ecome.*", "http://host1/product"),
+            new Rule("/v1/ecom/(.*)", "http://host2/product/{#group[0]}")
+        );
+        prepareRequest("/v1/ecom/search", TemplateEngine.templateEngine());
 
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/products/v1/ecom/");
+        policy.onRequest(ctx).test().assertComplete();
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).failWith(any(PolicyResult.class));
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host2/product/search");
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/v1/ecom/", "http://host1/product"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/v1/ecom/");
+    public void should_route_with_group_from_decoded_path() {
+        DynamicRoutingPolicy policy = policy(new Rule("/foo bar/(.*)", "http://host1/{#group[0]}"));
+        prepareRequest("/foo%20bar/baz", TemplateEngine.templateEngine());
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+        policy.onRequest(ctx).test().assertComplete();
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, rules.iterator().next().getUrl());
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host1/baz");
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_notEncodedUrl() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/[0-9,;]+", "http://host1/product"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/2124;2125");
-
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, rules.iterator().next().getUrl());
+    public void should_evaluate_el_pattern_and_url_without_blocking() {
+        DynamicRoutingPolicy policy = policy(
+            new Rule("/{#request.paths[1]}/(.*)", "{#request.headers['backend'][0]}/api/products"),
+            new Rule("/products/(.*)", "http://host2")
+        );
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval("/{#request.paths[1]}/(.*)", String.class)).thenReturn(Maybe.just("/products/(.*)"));
+        when(templateEngine.eval("{#request.headers['backend'][0]}/api/products", String.class)).thenReturn(Maybe.just("http://host1"));
+        prepareRequest("/products/2124", templateEngine);
+
+        policy.onRequest(ctx).test().assertComplete();
+
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host1");
+        verify(templateEngine, never()).getValue(anyString(), any());
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_encodedUrl() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/[0-9,;]+", "http://host1/product"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/2124%3B2125");
-
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, rules.iterator().next().getUrl());
+    public void should_not_evaluate_el_pattern_of_rules_declared_after_matching_rule() {
+        DynamicRoutingPolicy policy = policy(
+            new Rule("/products/(.*)", "http://host1"),
+            new Rule("/{#request.headers['x'][0]}/(.*)", "http://host2")
+        );
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        lenient()
+            .when(templateEngine.eval("/{#request.headers['x'][0]}/(.*)", String.class))
+            .thenReturn(Maybe.error(new IllegalStateException("No header x")));
+        prepareRequest("/products/2124", templateEngine);
+
+        policy.onRequest(ctx).test().assertComplete();
+
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host1");
+        verify(templateEngine, never()).eval(anyString(), any());
     }
 
     @Test
-    public void test_shouldDynamicRouting_multipleMatchingRule() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/v1/ecom/", "http://host1/product"));
-        rules.add(new Rule("/v1/ecom/subpath", "http://host2/product"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/v1/ecom/");
-
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, rules.get(0).getUrl());
+    public void should_evaluate_el_pattern_once_rules_declared_before_are_not_matching() {
+        DynamicRoutingPolicy policy = policy(
+            new Rule("/stores/(.*)", "http://host1"),
+            new Rule("/{#request.headers['x'][0]}/(.*)", "http://host2"),
+            new Rule("/products/(.*)", "http://host3")
+        );
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval("/{#request.headers['x'][0]}/(.*)", String.class)).thenReturn(Maybe.just("/orders/(.*)"));
+        prepareRequest("/products/2124", templateEngine);
+
+        policy.onRequest(ctx).test().assertComplete();
+
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host3");
     }
 
     @Test
-    public void test_shouldDynamicRouting_multipleMatchingRule_regex() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/v1/ecome.*", "http://host1/product"));
-        rules.add(new Rule("/v1/ecom/(.*)", "http://host2/product"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/v1/ecom/");
-
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, rules.get(1).getUrl());
+    public void should_skip_el_pattern_evaluated_to_nothing() {
+        DynamicRoutingPolicy policy = policy(
+            new Rule("/{#request.headers['tenant'][0]}/(.*)", "http://host1"),
+            new Rule("/products/(.*)", "http://host2")
+        );
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval("/{#request.headers['tenant'][0]}/(.*)", String.class)).thenReturn(Maybe.empty());
+        prepareRequest("/products/2124", templateEngine);
+
+        policy.onRequest(ctx).test().assertComplete();
+
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host2");
     }
 
     @Test
-    public void test_shouldDynamicRouting_multipleMatchingRule_transformEndpoint() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/v1/ecome.*", "http://host1/product"));
-        rules.add(new Rule("/v1/ecom/(.*)", "http://host2/product/{#group[0]}"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/v1/ecom/search");
+    public void should_route_on_request_host() {
+        Rule acme = new Rule("/orders/.*", "http://acme/orders");
+        acme.setHost("acme.gravitee.io");
+        DynamicRoutingPolicy policy = policy(acme, new Rule("/orders/.*", "http://default/orders"));
+        prepareRequest("/orders/2124", TemplateEngine.templateEngine());
+        when(request.host()).thenReturn("acme.gravitee.io:8082");
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+        policy.onRequest(ctx).test().assertComplete();
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, "http://host2/product/search");
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://acme/orders");
     }
 
     @Test
-    public void test_shouldDynamicRouting_multipleMatchingRule_transformEndpointWithGroupName() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/api/(?<version>v[0-9]+)/ecome.*", "http://host1/products/api/{#groupName['version']}/{#group[0]}"));
+    public void should_route_to_weighted_target_and_record_its_latency() {
+        Rule rule = new Rule("/orders/(.*)", null);
+        rule.setTargets(List.of(new WeightedTarget("http://host1/orders/{#group[0]}", 1)));
+        DynamicRoutingPolicy policy = policy(rule);
+        TargetGroup.Target target = policy.compiledRuleSet().getRules().get(0).getTargets().getTargets().get(0);
+        prepareRequest("/orders/2124", TemplateEngine.templateEngine());
 
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
+        policy.onRequest(ctx).test().assertComplete();
 
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/api/v12/ecome");
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host1/orders/2124");
+        verify(ctx).putInternalAttribute(DynamicRoutingPolicy.ATTR_TARGET, target);
+        verify(ctx).putInternalAttribute(eq(DynamicRoutingPolicy.ATTR_TARGET_REQUEST_TIME), anyLong());
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+        when(ctx.getInternalAttribute(DynamicRoutingPolicy.ATTR_TARGET)).thenReturn(target);
+        when(ctx.getInternalAttribute(DynamicRoutingPolicy.ATTR_TARGET_REQUEST_TIME)).thenReturn(System.nanoTime() - 5_000_000);
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+        policy.onResponse(ctx).test().assertComplete();
 
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, "http://host1/products/api/v12/v12");
+        assertThat(target.getLatency()).isGreaterThanOrEqualTo(5_000_000);
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_EL() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/{#request.paths[1]}/(.*)", "http://host1/api/products"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/api/products/2124%3B2125");
+    public void should_route_requests_sharing_sticky_key_to_the_same_target() {
+        Rule rule = new Rule("/orders/(.*)", null);
+        rule.setTargets(List.of(new WeightedTarget("http://host1/orders", 1), new WeightedTarget("http://host2/orders", 1)));
+        rule.setStickyKey(new StickyKey(StickyKeySource.HEADER, "X-Customer"));
+        DynamicRoutingPolicy policy = policy(rule);
+        prepareRequest("/orders/2124", TemplateEngine.templateEngine());
+        HttpHeaders headers = mock(HttpHeaders.class);
+        when(request.headers()).thenReturn(headers);
+        when(headers.get("x-customer")).thenReturn("acme");
+
+        policy.onRequest(ctx).test().assertComplete();
+        ArgumentCaptor<TargetGroup.Target> target = ArgumentCaptor.forClass(TargetGroup.Target.class);
+        verify(ctx).putInternalAttribute(eq(DynamicRoutingPolicy.ATTR_TARGET), target.capture());
+        // A slower target is still picked for its key
+        target.getValue().recordLatency(50_000_000);
+        policy.onRequest(ctx).test().assertComplete();
+
+        verify(ctx, times(2)).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, target.getValue().getUrlTemplate().getUrl());
+    }
 
-        // Prepare context
-        final TemplateEngine templateEngine = mock(TemplateEngine.class);
-        when(executionContext.getTemplateEngine()).thenReturn(templateEngine);
-        when(templateEngine.getValue("/{#request.paths[1]}/(.*)", String.class)).thenReturn("/(.*)");
-        final TemplateContext templateContext = mock(TemplateContext.class);
+    @Test
+    public void should_route_with_rules_of_dictionary_once_loaded() throws InterruptedException {
+        ExternalRules externalRules = new ExternalRules();
+        externalRules.setSource(ExternalRulesSource.DICTIONARY);
+        externalRules.setDictionary("routes");
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(new Rule("/admin/.*", "http://admin")));
+        configuration.setExternalRules(externalRules);
+        DynamicRoutingPolicy policy = new DynamicRoutingPolicy(configuration);
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        TemplateContext templateContext = mock(TemplateContext.class);
         when(templateEngine.getTemplateContext()).thenReturn(templateContext);
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).doNext(request, response);
+        when(templateContext.lookupVariable("dictionaries")).thenReturn(Map.of("routes", Map.of("/orders/.*", "http://orders")));
+        prepareRequest("/admin/users", templateEngine);
+
+        // The dictionary is loaded in background, the first requests being routed with the rules of the configuration
+        policy.onRequest(ctx).test().assertComplete();
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://admin");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (policy.compiledRuleSet().getRules().size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(policy.compiledRuleSet().getRules()).hasSize(2);
+
+        when(request.pathInfo()).thenReturn("/orders/2124");
+        policy.onRequest(ctx).test().assertComplete();
+        verify(ctx).setAttribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://orders");
     }
 
     @Test
-    public void test_invalidPattern() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/ecom/($12[a-/search.*)", "http://host1/api/ecom"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/ecom/2124%3B2125");
-
-        // Prepare context
-        final TemplateEngine templateEngine = mock(TemplateEngine.class);
-        when(executionContext.getTemplateEngine()).thenReturn(templateEngine);
-        when(templateEngine.getValue("/ecom/($12[a-/search.*)", String.class)).thenReturn("/ecom/($12[a-/search.*)");
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
-
-        // Check results
-        verify(policyChain).failWith(any(PolicyResult.class));
+    public void should_expose_metrics_when_enabled() {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(new Rule("/v1/ecome.*", "http://host1"), new Rule("/v1/ecom/(.*)", "http://host2")));
+        configuration.setExposeMetrics(true);
+        DynamicRoutingPolicy policy = new DynamicRoutingPolicy(configuration);
+        prepareRequest("/v1/ecom/search", TemplateEngine.templateEngine());
+
+        policy.onRequest(ctx).test().assertComplete();
+
+        RoutingMetrics metrics = policy.compiledRuleSet().getMetrics();
+        assertThat(metrics.getRuleHitCounts()).containsExactly(0, 1);
+        assertThat(metrics.getLatency().getCount()).isEqualTo(1);
+        verify(ctx).setAttribute(RoutingMetrics.ATTR_METRICS, metrics);
+        verify(ctx).setAttribute(RoutingMetrics.ATTR_RULE, 1);
+        verify(ctx).setAttribute(eq(RoutingMetrics.ATTR_LATENCY), anyLong());
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_encodeddUrlAndNotEncodedPath() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/foo bar", "http://host1/product"));
-
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
-
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/foo%20bar");
-
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
-
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+    public void should_interrupt_with_400_when_no_rule_is_matching() {
+        DynamicRoutingPolicy policy = policy(new Rule("/products/([0-9]+)", "http://host1/product"));
+        prepareRequest("/products/v1/ecom/", TemplateEngine.templateEngine());
+        when(ctx.interruptWith(any())).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        policy.onRequest(ctx).test().assertError(RuntimeException.class);
+
+        ExecutionFailure failure = interruption();
+        assertThat(failure.statusCode()).isEqualTo(400);
+        assertThat(failure.key()).isEqualTo(DynamicRoutingPolicy.NO_MATCHING_RULE_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getNoMatchCount()).isEqualTo(1);
+        verify(ctx, never()).setAttribute(any(), any());
+    }
 
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, rules.iterator().next().getUrl());
+    @Test
+    public void should_interrupt_with_500_when_endpoint_evaluates_to_nothing() {
+        DynamicRoutingPolicy policy = policy(new Rule("/orders/.*", "{#request.headers['backend'][0]}/orders"));
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval("{#request.headers['backend'][0]}/orders", String.class)).thenReturn(Maybe.empty());
+        prepareRequest("/orders/2124", templateEngine);
+        when(ctx.interruptWith(any())).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        policy.onRequest(ctx).test().assertError(RuntimeException.class);
+
+        ExecutionFailure failure = interruption();
+        assertThat(failure.statusCode()).isEqualTo(500);
+        assertThat(failure.key()).isEqualTo(DynamicRoutingPolicy.NO_ENDPOINT_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getRuleHitCounts()).containsExactly(0);
+        verify(ctx, never()).setAttribute(any(), any());
     }
 
     @Test
-    public void test_shouldNotDynamicRouting_singleMatchingRule_encodedUrlAndEncodedPath() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/foo%20bar", "http://host1/product"));
+    public void should_reject_with_400_when_no_rule_can_match() {
+        DynamicRoutingPolicy policy = policy(new Rule("/mag/", "http://host1/product"));
+        when(ctx.request()).thenReturn(request);
+        when(request.pathInfo()).thenReturn("/products/v1/ecom/");
+        when(ctx.interruptWith(any())).thenReturn(Completable.error(new RuntimeException("interrupted")));
 
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
+        policy.onRequest(ctx).test().assertError(RuntimeException.class);
 
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/products/foo%20bar");
+        ExecutionFailure failure = interruption();
+        assertThat(failure.statusCode()).isEqualTo(400);
+        assertThat(failure.key()).isEqualTo(DynamicRoutingPolicy.NO_MATCHING_RULE_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getRejectedCount()).isEqualTo(1);
+        assertThat(policy.compiledRuleSet().getMetrics().getNoMatchCount()).isZero();
+        verify(ctx, never()).getTemplateEngine();
+    }
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+    @Test
+    public void should_interrupt_with_500_when_pattern_is_invalid() {
+        DynamicRoutingPolicy policy = policy(new Rule("/ecom/($12[a-/search.*)", "http://host1/api/ecom"));
+        prepareRequest("/ecom/2124%3B2125", TemplateEngine.templateEngine());
+        when(ctx.interruptWith(any())).thenReturn(Completable.error(new RuntimeException("interrupted")));
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+        policy.onRequest(ctx).test().assertError(RuntimeException.class);
 
-        // Check results
-        verify(policyChain).failWith(any(PolicyResult.class));
+        ExecutionFailure failure = interruption();
+        assertThat(failure.statusCode()).isEqualTo(500);
+        assertThat(failure.key()).isEqualTo(DynamicRoutingPolicy.INVALID_PATTERN_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getInvalidPatternCount()).isEqualTo(1);
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_WithGroup() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/foo/(.*)", "http://host1/{#group[0]}"));
+    public void should_interrupt_with_500_when_path_is_invalid() {
+        DynamicRoutingPolicy policy = policy(new Rule("/ecom/(.*)", "http://host1/api/ecom"));
+        when(ctx.request()).thenReturn(request);
+        when(request.pathInfo()).thenReturn("/ecom/%zz");
+        when(ctx.interruptWith(any())).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        policy.onRequest(ctx).test().assertError(RuntimeException.class);
+
+        ExecutionFailure failure = interruption();
+        assertThat(failure.statusCode()).isEqualTo(500);
+        assertThat(failure.key()).isEqualTo(DynamicRoutingPolicy.INVALID_PATH_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getInvalidPathCount()).isEqualTo(1);
+    }
 
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
+    @Test
+    public void should_interrupt_with_500_when_match_budget_is_exceeded() {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(new Rule("/((a+)+)+b", "http://host1/api")));
+        configuration.setMatchStepBudget(10_000);
+        DynamicRoutingPolicy policy = new DynamicRoutingPolicy(configuration);
+        prepareRequest("/" + "a".repeat(24), TemplateEngine.templateEngine());
+        when(ctx.interruptWith(any())).thenReturn(Completable.error(new RuntimeException("interrupted")));
+
+        policy.onRequest(ctx).test().assertError(RuntimeException.class);
+
+        ExecutionFailure failure = interruption();
+        assertThat(failure.statusCode()).isEqualTo(500);
+        assertThat(failure.key()).isEqualTo(DynamicRoutingPolicy.MATCH_BUDGET_EXCEEDED_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getBudgetExceededCount()).isEqualTo(1);
+    }
 
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/foo/bar");
+    @Test
+    public void should_not_route_messages_without_message_key() {
+        DynamicRoutingPolicy policy = policy(new Rule("orders\\..*", "kafka://orders"));
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+        policy.onMessageRequest(messageCtx).test().assertComplete();
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+        verifyNoInteractions(messageCtx);
+    }
 
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, "http://host1/bar");
+    @Test
+    public void should_route_each_message_on_its_key() throws Throwable {
+        Function<Message, Maybe<Message>> onMessage = prepareMessageFlow(
+            messagePolicy(new Rule("orders\\.(.*)", "kafka://orders-{#group[0]}"), new Rule("payments\\..*", "kafka://payments")),
+            TemplateEngine.templateEngine()
+        );
+        Message order = message("orders.eu");
+        Message payment = message("payments.us");
+
+        onMessage.apply(order).test().assertValue(order);
+        onMessage.apply(payment).test().assertValue(payment);
+
+        verify(order).attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "kafka://orders-eu");
+        verify(payment).attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "kafka://payments");
     }
 
     @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_WithEncodedGroup() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("/foo/(.*)", "http://host1/{#group[0]}"));
+    public void should_route_message_on_header_when_there_is_no_attribute() throws Throwable {
+        Function<Message, Maybe<Message>> onMessage = prepareMessageFlow(
+            messagePolicy(new Rule("orders\\..*", "kafka://orders")),
+            TemplateEngine.templateEngine()
+        );
+        Message message = mock(Message.class);
+        HttpHeaders headers = mock(HttpHeaders.class);
+        when(message.headers()).thenReturn(headers);
+        when(headers.get("topic")).thenReturn("orders.eu");
+
+        onMessage.apply(message).test().assertValue(message);
+
+        verify(message).attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "kafka://orders");
+    }
 
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
+    @Test
+    public void should_reuse_rule_selected_for_message_key_and_render_endpoint_of_each_message() throws Throwable {
+        DynamicRoutingPolicy policy = messagePolicy(
+            new Rule("{#request.headers['prefix'][0]}\\..*", "{#request.headers['backend'][0]}/orders"),
+            new Rule("payments\\..*", "kafka://payments")
+        );
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval("{#request.headers['prefix'][0]}\\..*", String.class)).thenReturn(Maybe.just("orders\\..*"));
+        when(templateEngine.eval("{#request.headers['backend'][0]}/orders", String.class))
+            .thenReturn(Maybe.just("http://host1/orders"), Maybe.just("http://host2/orders"));
+        Function<Message, Maybe<Message>> onMessage = prepareMessageFlow(policy, templateEngine);
+        Message first = message("orders.eu");
+        Message payment = message("payments.us");
+        Message second = message("orders.eu");
+
+        onMessage.apply(first).test().assertValue(first);
+        onMessage.apply(payment).test().assertValue(payment);
+        onMessage.apply(second).test().assertValue(second);
+
+        verify(first).attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host1/orders");
+        verify(payment).attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "kafka://payments");
+        verify(second).attribute(ContextAttributes.ATTR_REQUEST_ENDPOINT, "http://host2/orders");
+        verify(templateEngine, times(1)).eval("{#request.headers['prefix'][0]}\\..*", String.class);
+        verify(templateEngine, times(2)).eval("{#request.headers['backend'][0]}/orders", String.class);
+        assertThat(policy.compiledRuleSet().getMetrics().getRuleHitCounts()).containsExactly(2, 1);
+    }
 
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/foo/%3Dbar");
+    @Test
+    public void should_interrupt_message_with_500_when_endpoint_evaluates_to_nothing() throws Throwable {
+        DynamicRoutingPolicy policy = messagePolicy(new Rule("orders\\..*", "{#request.headers['backend'][0]}/orders"));
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.eval("{#request.headers['backend'][0]}/orders", String.class)).thenReturn(Maybe.empty());
+        Function<Message, Maybe<Message>> onMessage = prepareMessageFlow(policy, templateEngine);
+        when(messageCtx.interruptMessageWith(any())).thenReturn(Maybe.empty());
+        Message message = message("orders.eu");
+
+        onMessage.apply(message).test().assertComplete().assertNoValues();
+
+        ArgumentCaptor<ExecutionFailure> captor = ArgumentCaptor.forClass(ExecutionFailure.class);
+        verify(messageCtx).interruptMessageWith(captor.capture());
+        assertThat(captor.getValue().statusCode()).isEqualTo(500);
+        assertThat(captor.getValue().key()).isEqualTo(DynamicRoutingPolicy.NO_ENDPOINT_KEY);
+        verify(message, never()).attribute(eq(ContextAttributes.ATTR_REQUEST_ENDPOINT), any());
+        assertThat(policy.compiledRuleSet().getMetrics().getRuleHitCounts()).containsExactly(0);
+    }
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+    @Test
+    public void should_interrupt_message_with_400_when_no_rule_is_matching() throws Throwable {
+        DynamicRoutingPolicy policy = messagePolicy(new Rule("orders\\.[a-z]+", "kafka://orders"));
+        Function<Message, Maybe<Message>> onMessage = prepareMessageFlow(policy, TemplateEngine.templateEngine());
+        when(messageCtx.interruptMessageWith(any())).thenReturn(Maybe.empty());
+
+        onMessage.apply(message("orders.42")).test().assertComplete().assertNoValues();
+
+        ArgumentCaptor<ExecutionFailure> captor = ArgumentCaptor.forClass(ExecutionFailure.class);
+        verify(messageCtx).interruptMessageWith(captor.capture());
+        assertThat(captor.getValue().statusCode()).isEqualTo(400);
+        assertThat(captor.getValue().key()).isEqualTo(DynamicRoutingPolicy.NO_MATCHING_RULE_KEY);
+        assertThat(policy.compiledRuleSet().getMetrics().getNoMatchCount()).isEqualTo(1);
+    }
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+    private DynamicRoutingPolicy policy(Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        return new DynamicRoutingPolicy(configuration);
+    }
 
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, "http://host1/%3Dbar");
+    private DynamicRoutingPolicy messagePolicy(Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        configuration.setMessageKey("topic");
+        return new DynamicRoutingPolicy(configuration);
     }
 
-    @Test
-    public void test_shouldDynamicRouting_singleMatchingRule_WithEncodedGroupAndEncodedPattern() {
-        // Prepare policy configuration
-        List<Rule> rules = new ArrayList<>();
-        rules.add(new Rule("(/%2377777)", "http://host1{#group[0]}"));
+    /**
+     * @return the function routing each message of the flow
+     */
+    private Function<Message, Maybe<Message>> prepareMessageFlow(DynamicRoutingPolicy policy, TemplateEngine templateEngine) {
+        when(messageCtx.request()).thenReturn(messageRequest);
+        when(messageCtx.getTemplateEngine()).thenReturn(templateEngine);
+        when(messageRequest.onMessage(any())).thenReturn(Completable.complete());
 
-        when(dynamicRoutingPolicyConfiguration.getRules()).thenReturn(rules);
+        policy.onMessageRequest(messageCtx).test().assertComplete();
 
-        // Prepare inbound request
-        when(request.pathInfo()).thenReturn("/%2377777");
+        verify(messageRequest).onMessage(onMessage.capture());
+        return onMessage.getValue();
+    }
 
-        // Prepare context
-        when(executionContext.getTemplateEngine()).thenReturn(TemplateEngine.templateEngine());
+    private Message message(String topic) {
+        Message message = mock(Message.class);
+        when(message.attribute("topic")).thenReturn(topic);
+        return message;
+    }
 
-        // Execute policy
-        dynamicRoutingPolicy.onRequest(request, response, executionContext, policyChain);
+    private void prepareRequest(String pathInfo, TemplateEngine templateEngine) {
+        when(ctx.request()).thenReturn(request);
+        when(request.pathInfo()).thenReturn(pathInfo);
+        when(ctx.getTemplateEngine()).thenReturn(templateEngine);
+    }
 
-        // Check results
-        verify(policyChain).doNext(request, response);
-        verify(executionContext).setAttribute(ExecutionContext.ATTR_REQUEST_ENDPOINT, "http://host1/%2377777");
+    private ExecutionFailure interruption() {
+        ArgumentCaptor<ExecutionFailure> captor = ArgumentCaptor.forClass(ExecutionFailure.class);
+        verify(ctx).interruptWith(captor.capture());
+        return captor.getValue();
     }
 }
@@ -16,6 +16,7 @@
 package io.gravitee.policy.dynamicrouting.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.gravitee.common.http.HttpMethod;
 import java.io.IOException;
 import java.net.URL;
 import org.assertj.core.api.Assertions;
@@ -34,6 +35,39 @@ public class DynamicRoutingPolicyConfigurationTest {
         Assertions.assertThat(configuration.getRules()).hasSize(1);
     }
 
+    @Test
+    public void testConfiguration_ruleConditions() throws IOException {
+        DynamicRoutingPolicyConfiguration configuration = load("/io/gravitee/policy/dynamicrouting/configuration/configuration2.json");
+
+        Rule rule = configuration.getRules().get(0);
+        Assertions.assertThat(rule.getHost()).isEqualTo("acme.gravitee.io");
+        Assertions.assertThat(rule.getMethods()).containsExactlyInAnyOrder(HttpMethod.GET, HttpMethod.POST);
+        Assertions.assertThat(rule.getHeaders()).hasSize(1);
+        Assertions.assertThat(rule.getHeaders().get(0).getName()).isEqualTo("X-Tenant");
+        Assertions.assertThat(rule.getHeaders().get(0).getValue()).isEqualTo("acme");
+    }
+
+    @Test
+    public void testConfiguration_stickyTargets() throws IOException {
+        DynamicRoutingPolicyConfiguration configuration = load("/io/gravitee/policy/dynamicrouting/configuration/configuration3.json");
+
+        Rule rule = configuration.getRules().get(0);
+        Assertions.assertThat(rule.getTargets()).extracting(WeightedTarget::getUrl).containsExactly("http://node1/", "http://node2/");
+        Assertions.assertThat(rule.getTargets()).extracting(WeightedTarget::getWeight).containsExactly(1, 2);
+        Assertions.assertThat(rule.getStickyKey().getSource()).isEqualTo(StickyKeySource.GROUP);
+        Assertions.assertThat(rule.getStickyKey().getName()).isEqualTo("customer");
+    }
+
+    @Test
+    public void testConfiguration_externalRules() throws IOException {
+        DynamicRoutingPolicyConfiguration configuration = load("/io/gravitee/policy/dynamicrouting/configuration/configuration4.json");
+
+        Assertions.assertThat(configuration.getRules()).hasSize(1);
+        Assertions.assertThat(configuration.getExternalRules().getSource()).isEqualTo(ExternalRulesSource.FILE);
+        Assertions.assertThat(configuration.getExternalRules().getPath()).isEqualTo("/etc/gravitee/routes.json");
+        Assertions.assertThat(configuration.getExternalRules().getRefreshInterval()).isEqualTo(1000);
+    }
+
     private DynamicRoutingPolicyConfiguration load(String resource) throws IOException {
         URL jsonFile = this.getClass().getResource(resource);
         return objectMapper().readValue(jsonFile, DynamicRoutingPolicyConfiguration.class);
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CompiledPatternTest {
+
+    @Test
+    public void should_extract_groups() {
+        CompiledPattern pattern = CompiledPattern.compile("/api/(?<version>v[0-9]+)/(.*)");
+        MatchResult result = matches(pattern, "/api/v12/stores");
+
+        assertThat(pattern.getGroupCount()).isEqualTo(2);
+        assertThat(pattern.getGroupNames()).containsExactly("version");
+        assertThat(pattern.groups(result)).containsExactly("v12", "stores");
+        assertThat(new GroupNames(pattern, result)).containsOnly(
+            entry("version", "v12")
+        );
+    }
+
+    @Test
+    public void should_number_named_groups_after_escaped_and_class_parentheses() {
+        CompiledPattern pattern = CompiledPattern.compile("/\\((?<a>x)\\)[(](?<b>y)?(z)");
+        MatchResult result = matches(pattern, "/(x)(z");
+
+        assertThat(pattern.getGroupNames()).containsExactly("a", "b");
+        assertThat(pattern.namedGroup(result, "a")).isEqualTo("x");
+        assertThat(pattern.namedGroup(result, "b")).isNull();
+        assertThat(pattern.groups(result)).containsExactly("x", null, "z");
+    }
+
+    @Test
+    public void should_not_have_named_groups() {
+        CompiledPattern pattern = CompiledPattern.compile("/v1/ecom/(.*)");
+
+        assertThat(pattern.getGroupNames()).isEmpty();
+    }
+
+    @Test
+    public void should_extract_groups_with_linear_engine() {
+        CompiledPattern pattern = CompiledPattern.compile("/\\((?<a>x)\\)[(](?<b>y)?(z)", RegexEngine.LINEAR, 0);
+        MatchResult result = matches(pattern, "/(x)(z");
+
+        assertThat(pattern.getEngine()).isEqualTo(RegexEngine.LINEAR);
+        assertThat(pattern.getGroupNames()).containsExactly("a", "b");
+        assertThat(pattern.hasNumberedGroups()).isTrue();
+        assertThat(pattern.groups(result)).containsExactly("x", null, "z");
+        assertThat(new GroupNames(pattern, result)).containsOnly(entry("a", "x"), entry("b", null));
+    }
+
+    @Test
+    public void should_reject_back_reference_with_linear_engine() {
+        assertThatThrownBy(() -> CompiledPattern.compile("/(a)/\\1", RegexEngine.LINEAR, 0)).isInstanceOf(PatternSyntaxException.class);
+    }
+
+    @Test
+    public void should_not_match_whole_path_only_partially() {
+        CompiledPattern pattern = CompiledPattern.compile("/v1/ecom/(.*)");
+
+        assertThat(pattern.match("/products/v1/ecom/")).isNull();
+    }
+
+    @Test
+    public void should_stop_matching_when_budget_is_exceeded() {
+        CompiledPattern pattern = CompiledPattern.compile("/((a+)+)+b", RegexEngine.JAVA, 10_000);
+
+        assertThat(pattern.match("/aaab")).isNotNull();
+        assertThatThrownBy(() -> pattern.match("/" + "a".repeat(24))).isInstanceOf(MatchBudgetExceededException.class);
+    }
+
+    @Test
+    public void should_match_catastrophic_pattern_in_linear_time() {
+        CompiledPattern pattern = CompiledPattern.compile("/(a+)+b", RegexEngine.LINEAR, 0);
+
+        assertThat(pattern.match("/" + "a".repeat(10_000))).isNull();
+        assertThat(pattern.match("/aaab").group(1)).isEqualTo("aaa");
+    }
+
+    private MatchResult matches(CompiledPattern pattern, String path) {
+        MatchResult result = pattern.match(path);
+        assertThat(result).isNotNull();
+        return result;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.configuration;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CompiledRuleSetRegistryTest {
+
+    private final CompiledRuleSetRegistry registry = new CompiledRuleSetRegistry();
+
+    @Test
+    public void should_share_compiled_rules_of_configurations_with_same_content() {
+        CompiledRuleSet first = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host1/{#group[0]}")));
+        CompiledRuleSet second = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host1/{#group[0]}")));
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getRules()).isSameAs(first.getRules());
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_keep_metrics_of_each_configuration() {
+        CompiledRuleSet first = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host1")));
+        CompiledRuleSet second = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host1")));
+
+        first.getMetrics().recordNoMatch(100);
+
+        assertThat(first.getMetrics().getNoMatchCount()).isEqualTo(1);
+        assertThat(second.getMetrics().getNoMatchCount()).isZero();
+    }
+
+    @Test
+    public void should_not_share_compiled_rules_of_different_rules() {
+        CompiledRuleSet first = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host1")));
+        CompiledRuleSet second = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host2")));
+
+        assertThat(second.getRules()).isNotSameAs(first.getRules());
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_not_share_compiled_rules_of_rules_with_different_conditions() {
+        Rule acme = new Rule("/v1/stores/(.*)", "http://host1");
+        acme.setHost("acme.gravitee.io");
+        Rule globex = new Rule("/v1/stores/(.*)", "http://host1");
+        globex.setHost("globex.gravitee.io");
+
+        CompiledRuleSet first = registry.get(configuration(acme));
+        CompiledRuleSet second = registry.get(configuration(globex));
+
+        assertThat(second.getRules()).isNotSameAs(first.getRules());
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_not_share_compiled_rules_of_different_settings() {
+        DynamicRoutingPolicyConfiguration linear = configuration(new Rule("/v1/stores/(.*)", "http://host1"));
+        linear.setRegexEngine(RegexEngine.LINEAR);
+
+        CompiledRuleSet first = registry.get(configuration(new Rule("/v1/stores/(.*)", "http://host1")));
+        CompiledRuleSet second = registry.get(linear);
+
+        assertThat(second.getRules()).isNotSameAs(first.getRules());
+        assertThat(second.getRules().get(0).getPattern().getEngine()).isEqualTo(RegexEngine.LINEAR);
+    }
+
+    @Test
+    public void should_not_share_compiled_rules_updated_since_registration() {
+        Rule rule = new Rule("/v1/stores/(.*)", "http://host1");
+        CompiledRuleSet first = registry.get(configuration(rule));
+        rule.setUrl("http://host2");
+
+        CompiledRuleSet second = registry.get(configuration(rule));
+
+        assertThat(second.getRules()).isNotSameAs(first.getRules());
+        assertThat(second.getRules().get(0).getRule().getUrl()).isEqualTo("http://host2");
+    }
+}
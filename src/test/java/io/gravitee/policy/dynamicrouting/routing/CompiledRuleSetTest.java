@@ -0,0 +1,466 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.el.TemplateContext;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.HeaderCondition;
+import io.gravitee.policy.dynamicrouting.configuration.MatchingStrategy;
+import io.gravitee.policy.dynamicrouting.configuration.RegexEngine;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * @author GraviteeSource Team
+ */
+@ExtendWith(MockitoExtension.class)
+public class CompiledRuleSetTest {
+
+    @Mock
+    private TemplateEngine templateEngine;
+
+    @Test
+    public void should_be_empty_without_rules() {
+        assertThat(compile().isEmpty()).isTrue();
+        assertThat(CompiledRuleSet.compile(new DynamicRoutingPolicyConfiguration()).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void should_compile_static_pattern_once() {
+        CompiledRuleSet ruleSet = compile(new Rule("/v1/stores/(.*)", "http://host1/{#group[0]}"));
+
+        CompiledRule rule = ruleSet.getRules().get(0);
+        CompiledPattern pattern = rule.pattern(templateEngine);
+
+        assertThat(rule.isDynamic()).isFalse();
+        assertThat(pattern.getRegex()).isEqualTo("/v1/stores/(.*)");
+        assertThat(rule.pattern(templateEngine)).isSameAs(pattern);
+        verifyNoInteractions(templateEngine);
+    }
+
+    @Test
+    public void should_resolve_el_pattern_on_each_evaluation() {
+        CompiledRuleSet ruleSet = compile(new Rule("/{#request.paths[1]}/(.*)", "http://host1/api"));
+        when(templateEngine.getValue("/{#request.paths[1]}/(.*)", String.class)).thenReturn("/products/(.*)");
+
+        CompiledRule rule = ruleSet.getRules().get(0);
+
+        assertThat(rule.isDynamic()).isTrue();
+        assertThat(rule.pattern(templateEngine).getRegex()).isEqualTo("/products/(.*)");
+        assertThat(rule.pattern(templateEngine).getRegex()).isEqualTo("/products/(.*)");
+        verify(templateEngine, times(2)).getValue("/{#request.paths[1]}/(.*)", String.class);
+        assertThat(ruleSet.getPatternCacheStats().getMissCount()).isEqualTo(1);
+        assertThat(ruleSet.getPatternCacheStats().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_raise_invalid_static_pattern_on_evaluation() {
+        CompiledRuleSet ruleSet = compile(new Rule("/v1/(.*)", "http://host1"), new Rule("/ecom/($12[a-/search.*)", "http://host2"));
+
+        assertThat(ruleSet.getRules().get(0).pattern(templateEngine).match("/v1/ecom")).isNotNull();
+        assertThatThrownBy(() -> ruleSet.getRules().get(1).pattern(templateEngine)).isInstanceOf(PatternSyntaxException.class);
+    }
+
+    @Test
+    public void should_match_first_rule_with_combined_strategy() {
+        CompiledRuleSet ruleSet = compile(
+            MatchingStrategy.COMBINED,
+            new Rule("/v1/ecome.*", "http://host1"),
+            new Rule("/api/(?<version>v[0-9]+)/(.*)", "http://host2"),
+            new Rule("/v1/ecom/(.*)", "http://host3"),
+            new Rule("/v1/(.*)", "http://host4")
+        );
+
+        assertThat(ruleSet.match("/v1/ecom/search", "/v1/ecom/search", templateEngine).getRule().getIndex()).isEqualTo(2);
+        assertThat(ruleSet.match("/api/v2/stores", "/api/v2/stores", templateEngine).getRule().getIndex()).isEqualTo(1);
+        assertThat(ruleSet.match("/v2/stores", "/v2/stores", templateEngine)).isNull();
+    }
+
+    @Test
+    public void should_match_decoded_path_with_combined_strategy() {
+        CompiledRuleSet ruleSet = compile(
+            MatchingStrategy.COMBINED,
+            new Rule("/foo%20bar", "http://host1"),
+            new Rule("/foo bar", "http://host2"),
+            new Rule("/foo(.*)", "http://host3")
+        );
+
+        assertThat(ruleSet.match("/foo%20bar", "/foo bar", templateEngine).getRule().getIndex()).isEqualTo(0);
+        assertThat(ruleSet.match("/foo+bar", "/foo bar", templateEngine).getRule().getIndex()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_keep_order_of_rules_not_combined() {
+        CompiledRuleSet ruleSet = compile(
+            MatchingStrategy.COMBINED,
+            new Rule("/v1/(a+)\\1", "http://host1"),
+            new Rule("/v1/(.*)", "http://host2"),
+            new Rule("/{#request.paths[1]}/(.*)", "http://host3")
+        );
+
+        assertThat(ruleSet.match("/v1/aa", "/v1/aa", templateEngine).getRule().getIndex()).isEqualTo(0);
+        assertThat(ruleSet.match("/v1/ab", "/v1/ab", templateEngine).getRule().getIndex()).isEqualTo(1);
+        verifyNoInteractions(templateEngine);
+    }
+
+    @Test
+    public void should_keep_order_between_exact_and_regex_rules() {
+        for (MatchingStrategy matchingStrategy : MatchingStrategy.values()) {
+            CompiledRuleSet ruleSet = compile(
+                matchingStrategy,
+                new Rule("^/tenants/acme$", "http://acme"),
+                new Rule("/tenants/(glob.*)", "http://regex/{#group[0]}"),
+                new Rule("/tenants/globex", "http://globex"),
+                new Rule("/tenants/initech", "http://initech")
+            );
+
+            assertThat(ruleSet.match("/tenants/acme", "/tenants/acme", templateEngine).endpoint(templateEngine)).isEqualTo("http://acme");
+            assertThat(ruleSet.match("/tenants/globex", "/tenants/globex", templateEngine).endpoint(templateEngine)).isEqualTo(
+                "http://regex/globex"
+            );
+            assertThat(ruleSet.match("/tenants/initech", "/tenants/initech", templateEngine).getRule().getIndex()).isEqualTo(3);
+            assertThat(ruleSet.match("/tenants/umbrella", "/tenants/umbrella", templateEngine)).isNull();
+        }
+    }
+
+    @Test
+    public void should_match_exact_rule_with_decoded_path() {
+        CompiledRuleSet ruleSet = compile(new Rule("/tenants/a b", "http://ab"), new Rule("/tenants/(.*)", "http://default"));
+
+        RouteMatch match = ruleSet.match("/tenants/a%20b", "/tenants/a b", templateEngine);
+
+        assertThat(match.getRule().getIndex()).isZero();
+        assertThat(match.groupCount()).isZero();
+        assertThat(match.getMatchResult().group()).isEqualTo("/tenants/a b");
+    }
+
+    @Test
+    public void should_not_compile_exact_rule() {
+        CompiledRuleSet ruleSet = compile(new Rule("^/tenants/acme$", "http://acme"));
+
+        CompiledPattern pattern = ruleSet.getRules().get(0).getPattern();
+        assertThat(pattern.getLiteral()).isEqualTo("/tenants/acme");
+        assertThat(pattern.getRegex()).isEqualTo("^/tenants/acme$");
+        assertThat(pattern.match("/tenants/acme/")).isNull();
+    }
+
+    @Test
+    public void should_not_cache_routes_by_default() {
+        CompiledRuleSet ruleSet = compile(new Rule("/v1/(.*)", "http://host1/{#group[0]}"));
+
+        assertThat(ruleSet.getRouteCacheStats()).isNull();
+    }
+
+    @Test
+    public void should_reuse_cached_route_and_endpoint() {
+        CompiledRuleSet ruleSet = compileWithRouteCache(
+            10,
+            new Rule("/v1/(?<store>[^/]+)/(.*)", "http://host1/{#groupName['store']}/{#group[1]}"),
+            new Rule("/{#request.headers['tenant'][0]}/(.*)", "http://host2")
+        );
+
+        RouteMatch first = ruleSet.match("/v1/acme/items", "/v1/acme/items", templateEngine);
+        String endpoint = first.endpoint(templateEngine);
+        RouteMatch second = ruleSet.match("/v1/acme/items", "/v1/acme/items", templateEngine);
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.endpoint(templateEngine)).isEqualTo("http://host1/acme/items").isSameAs(endpoint);
+        assertThat(second.groups()).containsExactly("acme", "items");
+        assertThat(ruleSet.getRouteCacheStats().getSize()).isEqualTo(1);
+        assertThat(ruleSet.getRouteCacheStats().getHitRatio()).isEqualTo(0.5);
+        assertThat(ruleSet.getRouteCacheStats().getEstimatedMemory()).isPositive();
+        verifyNoInteractions(templateEngine);
+    }
+
+    @Test
+    public void should_not_cache_route_declared_after_el_pattern() {
+        CompiledRuleSet ruleSet = compileWithRouteCache(
+            10,
+            new Rule("/v1/(.*)", "http://host1"),
+            new Rule("/{#request.headers['tenant'][0]}/(.*)", "http://host2"),
+            new Rule("/v2/(.*)", "http://host3")
+        );
+        when(templateEngine.getValue("/{#request.headers['tenant'][0]}/(.*)", String.class)).thenReturn("/acme/(.*)");
+
+        ruleSet.match("/v2/stores", "/v2/stores", templateEngine);
+        ruleSet.match("/v2/stores", "/v2/stores", templateEngine);
+
+        assertThat(ruleSet.getRouteCacheStats().getSize()).isZero();
+        verify(templateEngine, times(2)).getValue("/{#request.headers['tenant'][0]}/(.*)", String.class);
+    }
+
+    @Test
+    public void should_render_again_endpoint_depending_on_request() {
+        CompiledRuleSet ruleSet = compileWithRouteCache(10, new Rule("/v1/(.*)", "{#request.headers['backend'][0]}/{#group[0]}"));
+        when(templateEngine.getTemplateContext()).thenReturn(mock(TemplateContext.class));
+        when(templateEngine.getValue("{#request.headers['backend'][0]}/{#group[0]}", String.class)).thenReturn("http://host1/stores");
+
+        ruleSet.match("/v1/stores", "/v1/stores", templateEngine).endpoint(templateEngine);
+        ruleSet.match("/v1/stores", "/v1/stores", templateEngine).endpoint(templateEngine);
+
+        assertThat(ruleSet.getRouteCacheStats().getHitCount()).isEqualTo(1);
+        verify(templateEngine, times(2)).getValue("{#request.headers['backend'][0]}/{#group[0]}", String.class);
+    }
+
+    @Test
+    public void should_reject_pattern_not_supported_by_linear_engine_at_compile_time() {
+        CompiledRuleSet ruleSet = compile(
+            RegexEngine.LINEAR,
+            new Rule("/v1/(?=stores)(.*)", "http://host1"),
+            new Rule("/v1/(.*)", "http://host2/{#group[0]}")
+        );
+
+        assertThat(ruleSet.getRules().get(0).isValid()).isFalse();
+        assertThat(ruleSet.getRules().get(0).getSyntaxError().getDescription()).contains("linear");
+        assertThat(ruleSet.getRules().get(1).getPattern().getEngine()).isEqualTo(RegexEngine.LINEAR);
+        assertThat(ruleSet.match("/v1/stores", "/v1/stores", templateEngine)).isNull();
+        assertThat(ruleSet.hasInvalidRules()).isTrue();
+    }
+
+    @Test
+    public void should_report_every_invalid_rule_at_compile_time() {
+        CompiledRuleSet ruleSet = compile(
+            new Rule("/v1/(.*)", "http://host1"),
+            new Rule("/ecom/($12[a-/search.*)", "http://host2"),
+            new Rule("/v2/(.*)", "http://host3"),
+            new Rule("/v3/[z-a]", "http://host4")
+        );
+
+        assertThat(ruleSet.hasInvalidRules()).isTrue();
+        assertThat(ruleSet.getInvalidRules()).extracting(CompiledRule::getIndex).containsExactly(1, 3);
+        assertThat(CompiledRuleSet.describe(ruleSet.getInvalidRules()))
+            .startsWith("#1 [/ecom/($12[a-/search.*)]: ")
+            .contains("; #3 [/v3/[z-a]]: Illegal character range");
+    }
+
+    @Test
+    public void should_only_evaluate_rules_declared_before_first_invalid_rule() {
+        CompiledRuleSet ruleSet = compile(
+            new Rule("/v1/(.*)", "http://host1"),
+            new Rule("/ecom/($12[a-/search.*)", "http://host2"),
+            new Rule("/v2/(.*)", "http://host3")
+        );
+
+        assertThat(ruleSet.match("/v1/stores", "/v1/stores", templateEngine).getRule().getIndex()).isZero();
+        assertThat(ruleSet.match("/v2/stores", "/v2/stores", templateEngine)).isNull();
+        verifyNoInteractions(templateEngine);
+    }
+
+    @Test
+    public void should_not_report_valid_rules() {
+        CompiledRuleSet ruleSet = compile(new Rule("/v1/(.*)", "http://host1"), new Rule("/{#request.paths[1]}/(.*)", "http://host2"));
+
+        assertThat(ruleSet.hasInvalidRules()).isFalse();
+        assertThat(ruleSet.getInvalidRules()).isEmpty();
+    }
+
+    @Test
+    public void should_resolve_el_pattern_with_linear_engine() {
+        CompiledRuleSet ruleSet = compile(RegexEngine.LINEAR, new Rule("/{#request.paths[1]}/(.*)", "http://host1/api"));
+        when(templateEngine.getValue("/{#request.paths[1]}/(.*)", String.class)).thenReturn("/products/(.*)");
+
+        assertThat(ruleSet.getRules().get(0).pattern(templateEngine).getEngine()).isEqualTo(RegexEngine.LINEAR);
+    }
+
+    @Test
+    public void should_match_first_rule_with_combined_strategy_and_linear_engine() {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(
+            List.of(
+                new Rule("/v1/(?<store>[^/]+)/items", "http://host1/{#groupName['store']}"),
+                new Rule("/v1/(.*)", "http://host2/{#group[0]}")
+            )
+        );
+        configuration.setMatchingStrategy(MatchingStrategy.COMBINED);
+        configuration.setRegexEngine(RegexEngine.LINEAR);
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(configuration);
+
+        assertThat(ruleSet.match("/v1/acme/items", "/v1/acme/items", templateEngine).endpoint(templateEngine)).isEqualTo(
+            "http://host1/acme"
+        );
+        assertThat(ruleSet.match("/v1/acme/orders", "/v1/acme/orders", templateEngine).endpoint(templateEngine)).isEqualTo(
+            "http://host2/acme/orders"
+        );
+    }
+
+    @Test
+    public void should_raise_budget_exceeded_when_matching() {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(new Rule("/((a+)+)+b", "http://host1")));
+        configuration.setMatchStepBudget(10_000);
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(configuration);
+        String path = "/" + "a".repeat(24);
+
+        assertThatThrownBy(() -> ruleSet.match(path, path, templateEngine)).isInstanceOf(MatchBudgetExceededException.class);
+    }
+
+    @Test
+    public void should_select_rules_by_host_before_matching_paths() {
+        Rule acme = new Rule("/orders/.*", "http://acme");
+        acme.setHost("acme.gravitee.io");
+        Rule globex = new Rule("/orders/.*", "http://globex");
+        globex.setHost("globex.gravitee.io");
+        CompiledRuleSet ruleSet = compile(acme, globex, new Rule("/orders/.*", "http://default"));
+
+        assertThat(matchingRule(ruleSet, "/orders/1", ConditionIndexTest.request("acme.gravitee.io", HttpMethod.GET, Map.of()))).isZero();
+        assertThat(matchingRule(ruleSet, "/orders/1", ConditionIndexTest.request("globex.gravitee.io", HttpMethod.GET, Map.of())))
+            .isEqualTo(1);
+        assertThat(matchingRule(ruleSet, "/orders/1", ConditionIndexTest.request("initech.gravitee.io", HttpMethod.GET, Map.of())))
+            .isEqualTo(2);
+        assertThat(ruleSet.match("/orders/1", "/orders/1", templateEngine).getRule().getIndex()).isEqualTo(2);
+        assertThat(ruleSet.getUnreachableRules()).isEmpty();
+    }
+
+    @Test
+    public void should_keep_declaration_order_with_conditions() {
+        Rule reads = new Rule("/items/.*", "http://read-replica");
+        reads.setMethods(Set.of(HttpMethod.GET, HttpMethod.HEAD));
+        Rule tenant = new Rule("/items/[0-9]+", "http://acme");
+        tenant.setHeaders(List.of(new HeaderCondition("X-Tenant", "acme")));
+        CompiledRuleSet ruleSet = compile(MatchingStrategy.COMBINED, reads, tenant, new Rule("/items/(.*)", "http://primary"));
+
+        assertThat(matchingRule(ruleSet, "/items/12", ConditionIndexTest.request(null, HttpMethod.GET, Map.of("x-tenant", "acme"))))
+            .isZero();
+        assertThat(matchingRule(ruleSet, "/items/12", ConditionIndexTest.request(null, HttpMethod.POST, Map.of("x-tenant", "acme"))))
+            .isEqualTo(1);
+        assertThat(matchingRule(ruleSet, "/items/ab", ConditionIndexTest.request(null, HttpMethod.POST, Map.of("x-tenant", "acme"))))
+            .isEqualTo(2);
+        assertThat(matchingRule(ruleSet, "/items/12", ConditionIndexTest.request(null, HttpMethod.POST, Map.of()))).isEqualTo(2);
+    }
+
+    @Test
+    public void should_only_cache_routes_selected_before_first_rule_with_conditions() {
+        Rule acme = new Rule("/v1/orders/.*", "http://acme");
+        acme.setHost("acme.gravitee.io");
+        CompiledRuleSet ruleSet = compileWithRouteCache(
+            10,
+            new Rule("/v1/stores/.*", "http://stores"),
+            acme,
+            new Rule("/v1/(.*)", "http://default")
+        );
+        RequestAttributes acmeRequest = ConditionIndexTest.request("acme.gravitee.io", HttpMethod.GET, Map.of());
+
+        assertThat(matchingRule(ruleSet, "/v1/orders/1", acmeRequest)).isEqualTo(1);
+        assertThat(matchingRule(ruleSet, "/v1/orders/1", RequestAttributes.NONE)).isEqualTo(2);
+        assertThat(matchingRule(ruleSet, "/v1/stores/1", acmeRequest)).isZero();
+        assertThat(ruleSet.getRouteCacheStats().getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_match_rules_between_bounds() {
+        for (MatchingStrategy matchingStrategy : MatchingStrategy.values()) {
+            CompiledRuleSet ruleSet = compile(
+                matchingStrategy,
+                new Rule("/v1/stores/.*", "http://stores"),
+                new Rule("/{#request.headers['tenant'][0]}/.*", "http://tenant"),
+                new Rule("/v1/items", "http://items"),
+                new Rule("/v1/(.*)", "http://default")
+            );
+            String[] resolved = new String[4];
+            PatternResolver resolver = rule -> resolved[rule.getIndex()];
+
+            assertThat(ruleSet.getDynamicRules(RequestAttributes.NONE)).extracting(CompiledRule::getIndex).containsExactly(1);
+            assertThat(ruleSet.match("/v1/items", "/v1/items", resolver, RequestAttributes.NONE, 0, 1)).isNull();
+            resolved[1] = "/v2/.*";
+            assertThat(ruleSet.match("/v1/items", "/v1/items", resolver, RequestAttributes.NONE, 1, Integer.MAX_VALUE).getRule().getIndex())
+                .isEqualTo(2);
+            assertThat(ruleSet.match("/v1/orders", "/v1/orders", resolver, RequestAttributes.NONE, 1, 3)).isNull();
+        }
+    }
+
+    @Test
+    public void should_leave_out_el_rules_whose_conditions_do_not_hold() {
+        Rule tenant = new Rule("/{#request.headers['tenant'][0]}/.*", "http://tenant");
+        tenant.setHost("acme.gravitee.io");
+        CompiledRuleSet ruleSet = compile(new Rule("/{#request.paths[1]}/.*", "http://host1"), tenant);
+
+        assertThat(ruleSet.getDynamicRules(ConditionIndexTest.request("acme.gravitee.io", HttpMethod.GET, Map.of())))
+            .extracting(CompiledRule::getIndex)
+            .containsExactly(0, 1);
+        assertThat(ruleSet.getDynamicRules(ConditionIndexTest.request("globex.gravitee.io", HttpMethod.GET, Map.of())))
+            .extracting(CompiledRule::getIndex)
+            .containsExactly(0);
+    }
+
+    @Test
+    public void should_reuse_unchanged_rules_when_compiled_again() {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        CompiledRuleSet previous = CompiledRuleSet.compile(
+            configuration,
+            List.of(new Rule("/v1/stores/(.*)", "http://host1"), new Rule("/v1/items/(.*)", "http://host2")),
+            null
+        );
+        Rule changed = new Rule("/v1/items/(.*)", "http://host2");
+        changed.setHost("acme.gravitee.io");
+
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(
+            configuration,
+            List.of(new Rule("/v1/orders/(.*)", "http://host3"), new Rule("/v1/stores/(.*)", "http://host1"), changed),
+            previous
+        );
+
+        assertThat(ruleSet.getRules().get(1).getPattern()).isSameAs(previous.getRules().get(0).getPattern());
+        assertThat(ruleSet.getRules().get(1).getIndex()).isEqualTo(1);
+        assertThat(ruleSet.getRules().get(2).getPattern()).isNotSameAs(previous.getRules().get(1).getPattern());
+        assertThat(ruleSet.match("/v1/stores/1", "/v1/stores/1", templateEngine).getRule().getIndex()).isEqualTo(1);
+    }
+
+    private static int matchingRule(CompiledRuleSet ruleSet, String path, RequestAttributes request) {
+        return ruleSet.match(path, path, rule -> null, request).getRule().getIndex();
+    }
+
+    private CompiledRuleSet compileWithRouteCache(int routeCacheSize, Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        configuration.setRouteCacheSize(routeCacheSize);
+        return CompiledRuleSet.compile(configuration);
+    }
+
+    private CompiledRuleSet compile(Rule... rules) {
+        return compile(MatchingStrategy.SEQUENTIAL, rules);
+    }
+
+    private CompiledRuleSet compile(MatchingStrategy matchingStrategy, Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        configuration.setMatchingStrategy(matchingStrategy);
+        return CompiledRuleSet.compile(configuration);
+    }
+
+    private CompiledRuleSet compile(RegexEngine regexEngine, Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        configuration.setRegexEngine(regexEngine);
+        return CompiledRuleSet.compile(configuration);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.HeaderCondition;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ConditionIndexTest {
+
+    @Test
+    public void should_not_index_rules_without_conditions() {
+        assertThat(index(new Rule("/v1/.*", "http://host1"), new Rule("/v2/.*", "http://host2"))).isNull();
+    }
+
+    @Test
+    public void should_admit_rules_of_request_host() {
+        ConditionIndex index = index(
+            onHost(new Rule("/v1/.*", "http://acme"), "Acme.gravitee.io"),
+            onHost(new Rule("/v1/.*", "http://globex"), "globex.gravitee.io"),
+            new Rule("/v1/.*", "http://default")
+        );
+
+        assertThat(index.admitted(request("acme.gravitee.io", null, Map.of()))).isEqualTo(bits(0, 2));
+        assertThat(index.admitted(request("ACME.gravitee.io:8082", null, Map.of()))).isEqualTo(bits(0, 2));
+        assertThat(index.admitted(request("initech.gravitee.io", null, Map.of()))).isEqualTo(bits(2));
+        assertThat(index.admitted(RequestAttributes.NONE)).isEqualTo(bits(2));
+    }
+
+    @Test
+    public void should_keep_port_of_request_host_when_expected() {
+        ConditionIndex index = index(onHost(new Rule("/v1/.*", "http://acme"), "acme.gravitee.io:8443"));
+
+        assertThat(index.admitted(request("acme.gravitee.io:8443", null, Map.of()))).isEqualTo(bits(0));
+        assertThat(index.admitted(request("acme.gravitee.io", null, Map.of()))).isEqualTo(bits());
+    }
+
+    @Test
+    public void should_admit_rules_of_request_host_with_and_without_port() {
+        ConditionIndex index = index(
+            onHost(new Rule("/v1/.*", "http://acme-tls"), "acme.gravitee.io:8443"),
+            onHost(new Rule("/v1/.*", "http://acme"), "acme.gravitee.io"),
+            new Rule("/v1/.*", "http://default")
+        );
+
+        assertThat(index.admitted(request("acme.gravitee.io:8443", null, Map.of()))).isEqualTo(bits(0, 1, 2));
+        assertThat(index.admitted(request("acme.gravitee.io:8082", null, Map.of()))).isEqualTo(bits(1, 2));
+        assertThat(index.admitted(request("acme.gravitee.io", null, Map.of()))).isEqualTo(bits(1, 2));
+    }
+
+    @Test
+    public void should_admit_rules_of_request_method() {
+        Rule read = new Rule("/v1/.*", "http://read");
+        read.setMethods(Set.of(HttpMethod.GET));
+        Rule write = new Rule("/v1/.*", "http://write");
+        write.setMethods(Set.of(HttpMethod.POST, HttpMethod.PUT));
+        ConditionIndex index = index(read, write, new Rule("/v1/.*", "http://default"));
+
+        assertThat(index.admitted(request(null, HttpMethod.GET, Map.of()))).isEqualTo(bits(0, 2));
+        assertThat(index.admitted(request(null, HttpMethod.PUT, Map.of()))).isEqualTo(bits(1, 2));
+        assertThat(index.admitted(request(null, HttpMethod.DELETE, Map.of()))).isEqualTo(bits(2));
+    }
+
+    @Test
+    public void should_require_every_header_and_accept_any_value_of_a_header() {
+        Rule acmeEu = new Rule("/v1/.*", "http://acme-eu");
+        acmeEu.setHeaders(List.of(new HeaderCondition("X-Tenant", "acme"), new HeaderCondition("X-Region", "eu")));
+        Rule tenants = new Rule("/v1/.*", "http://tenants");
+        tenants.setHeaders(List.of(new HeaderCondition("X-Tenant", "acme"), new HeaderCondition("X-Tenant", "globex")));
+        ConditionIndex index = index(acmeEu, tenants, new Rule("/v1/.*", "http://default"));
+
+        assertThat(index.admitted(request(null, null, Map.of("x-tenant", "acme", "x-region", "eu")))).isEqualTo(bits(0, 1, 2));
+        assertThat(index.admitted(request(null, null, Map.of("x-tenant", "acme")))).isEqualTo(bits(1, 2));
+        assertThat(index.admitted(request(null, null, Map.of("x-tenant", "globex", "x-region", "eu")))).isEqualTo(bits(1, 2));
+        assertThat(index.admitted(request(null, null, Map.of("x-tenant", "initech")))).isEqualTo(bits(2));
+    }
+
+    @Test
+    public void should_return_a_new_set_for_each_request() {
+        ConditionIndex index = index(onHost(new Rule("/v1/.*", "http://acme"), "acme.gravitee.io"));
+
+        index.admitted(request("acme.gravitee.io", null, Map.of())).clear();
+
+        assertThat(index.admitted(request("acme.gravitee.io", null, Map.of()))).isEqualTo(bits(0));
+    }
+
+    private static ConditionIndex index(Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        return ConditionIndex.of(CompiledRuleSet.compile(configuration).getRules());
+    }
+
+    private static Rule onHost(Rule rule, String host) {
+        rule.setHost(host);
+        return rule;
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    static RequestAttributes request(String host, HttpMethod method, Map<String, String> headers) {
+        return new RequestAttributes() {
+            @Override
+            public String host() {
+                return host;
+            }
+
+            @Override
+            public HttpMethod method() {
+                return method;
+            }
+
+            @Override
+            public String header(String name) {
+                return headers.get(name);
+            }
+
+            @Override
+            public String parameter(String name) {
+                return null;
+            }
+        };
+    }
+}
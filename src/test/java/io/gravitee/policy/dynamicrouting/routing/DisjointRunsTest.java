@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.NO_RESOLVER;
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.compile;
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.configuration;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class DisjointRunsTest {
+
+    @Test
+    public void should_split_candidates_into_runs_of_disjoint_rules() {
+        DisjointRuns runs = runs(
+            new Rule("/api/stores/(.*)", "http://host1"),
+            new Rule("/api/items/(.*)", "http://host2"),
+            new Rule("/api/(.*)", "http://host3"),
+            new Rule("/api/orders/(.*)", "http://host4"),
+            new Rule("/api/users/(.*)", "http://host5"),
+            new Rule("/{#request.paths[1]}/(.*)", "http://host6")
+        );
+
+        assertThat(runs.isAdaptive()).isTrue();
+        assertThat(runs.runEnds()).containsExactly(2, 3, 5, 6);
+    }
+
+    @Test
+    public void should_not_be_adaptive_without_disjoint_rules() {
+        DisjointRuns runs = runs(new Rule("/api/(.*)", "http://host1"), new Rule("/api/stores/(.*)", "http://host2"));
+
+        assertThat(runs.isAdaptive()).isFalse();
+        assertThat(runs.runEnds()).containsExactly(1, 2);
+    }
+
+    @Test
+    public void should_sort_runs_by_hits() {
+        DisjointRuns runs = runs(
+            new Rule("/api/stores/(.*)", "http://host1"),
+            new Rule("/api/items/(.*)", "http://host2"),
+            new Rule("/api/orders/(.*)", "http://host3"),
+            new Rule("/api/(.*)", "http://host4"),
+            new Rule("/api/users/(.*)", "http://host5"),
+            new Rule("/api/carts/(.*)", "http://host6")
+        );
+
+        runs.recordHit(2);
+        runs.recordHit(2);
+        runs.recordHit(1);
+        runs.recordHit(5);
+        runs.reorder();
+
+        assertThat(runs.order()).containsExactly(2, 1, 0, 3, 5, 4);
+    }
+
+    @Test
+    public void should_sort_runs_by_hits_carried_over() {
+        DisjointRuns runs = runs(
+            new Rule("/api/stores/(.*)", "http://host1"),
+            new Rule("/api/items/(.*)", "http://host2"),
+            new Rule("/api/orders/(.*)", "http://host3"),
+            new Rule("/api/(.*)", "http://host4"),
+            new Rule("/api/users/(.*)", "http://host5"),
+            new Rule("/api/carts/(.*)", "http://host6")
+        );
+
+        runs.recordHits(new long[] { 0, 1, 2, 7, 0, 1 });
+
+        assertThat(runs.order()).containsExactly(2, 1, 0, 3, 5, 4);
+    }
+
+    @Test
+    public void should_select_first_matching_rule_whatever_the_hits() {
+        DynamicRoutingPolicyConfiguration configuration = configuration(
+            new Rule("/api/stores/(.*)", "http://host1"),
+            new Rule("/api/items/(.*)", "http://host2"),
+            new Rule("/api/orders/(.*)", "http://host3"),
+            new Rule("/api/(.*)", "http://host4"),
+            new Rule("/api/orders/v2/(.*)", "http://host5")
+        );
+        List<CompiledRule> rules = CompiledRuleSet.compile(configuration).getRules();
+        SequentialRuleMatcher matcher = new SequentialRuleMatcher(rules, rules);
+
+        for (int idx = 0; idx < 10 * DisjointRuns.REORDER_PERIOD; idx++) {
+            assertThat(matcher.match("/api/orders/12", "/api/orders/12", NO_RESOLVER).getRule().getIndex()).isEqualTo(2);
+        }
+
+        assertThat(matcher.match("/api/stores/12", "/api/stores/12", NO_RESOLVER).getRule().getIndex()).isZero();
+        assertThat(matcher.match("/api/orders/v2/12", "/api/orders/v2/12", NO_RESOLVER).getRule().getIndex()).isEqualTo(2);
+        assertThat(matcher.match("/api/carts/12", "/api/carts/12", NO_RESOLVER).getRule().getIndex()).isEqualTo(3);
+        assertThat(matcher.match("/api/orders/12", "/api/orders/12", NO_RESOLVER, 3).getRule().getIndex()).isEqualTo(2);
+        assertThat(matcher.match("/api/orders/12", "/api/orders/12", NO_RESOLVER, 2)).isNull();
+    }
+
+    private static DisjointRuns runs(Rule... rules) {
+        return new PrefixIndex(compile(rules)).runs("/api/stores/12");
+    }
+}
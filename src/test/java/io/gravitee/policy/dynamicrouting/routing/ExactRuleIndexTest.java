@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.compile;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ExactRuleIndexTest {
+
+    @Test
+    public void should_look_up_rule_by_path() {
+        ExactRuleIndex index = index(
+            new Rule("^/tenants/acme$", "http://acme"),
+            new Rule("/tenants/globex", "http://globex"),
+            new Rule("/tenants/(.*)", "http://default")
+        );
+
+        assertThat(index.lookup("/tenants/acme")).isEqualTo(0);
+        assertThat(index.lookup("/tenants/globex")).isEqualTo(1);
+        assertThat(index.lookup("/tenants/initech")).isEqualTo(-1);
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_keep_first_rule_for_same_path() {
+        ExactRuleIndex index = index(new Rule("/tenants/acme", "http://acme1"), new Rule("^/tenants/acme$", "http://acme2"));
+
+        assertThat(index.lookup("/tenants/acme")).isEqualTo(0);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_look_up_thousands_of_paths() {
+        List<Rule> rules = new ArrayList<>();
+        for (int idx = 0; idx < 8000; idx++) {
+            rules.add(new Rule("^/tenants/tenant" + idx + "$", "http://tenant" + idx));
+        }
+        ExactRuleIndex index = index(rules.toArray(new Rule[0]));
+
+        for (int idx = 0; idx < 8000; idx++) {
+            assertThat(index.lookup("/tenants/tenant" + idx)).isEqualTo(idx);
+        }
+        assertThat(index.lookup("/tenants/tenant8000")).isEqualTo(-1);
+    }
+
+    private ExactRuleIndex index(Rule... rules) {
+        return new ExactRuleIndex(compile(rules).stream().filter(rule -> rule.getLiteral() != null).collect(Collectors.toList()));
+    }
+}
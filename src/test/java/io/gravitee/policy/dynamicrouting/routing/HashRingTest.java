@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import io.gravitee.policy.dynamicrouting.configuration.WeightedTarget;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class HashRingTest {
+
+    private static final int KEYS = 50_000;
+
+    @Test
+    public void should_place_points_in_proportion_to_weight() {
+        HashRing ring = ring(List.of(new WeightedTarget("http://host1", 1), new WeightedTarget("http://host2", 3)));
+
+        assertThat(ring.size()).isEqualTo(4 * HashRing.POINTS_PER_WEIGHT);
+        int second = 0;
+        for (int idx = 0; idx < KEYS; idx++) {
+            String key = "customer-" + idx;
+            second += ring.locate(key, 0, key.length()).getUrlTemplate().getUrl().equals("http://host2") ? 1 : 0;
+        }
+        assertThat(second / (double) KEYS).isCloseTo(0.75, within(0.03));
+    }
+
+    @Test
+    public void should_spread_keys_evenly() {
+        HashRing ring = ring(TargetGroupTest.targets(10));
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int idx = 0; idx < KEYS; idx++) {
+            String key = "customer-" + idx;
+            counts.merge(ring.locate(key, 0, key.length()).getUrlTemplate().getUrl(), 1, Integer::sum);
+        }
+        assertThat(counts).hasSize(10);
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(KEYS / 10 * 3 / 4, KEYS / 10 * 5 / 4));
+    }
+
+    @Test
+    public void should_only_move_keys_of_added_target() {
+        HashRing before = ring(TargetGroupTest.targets(10));
+        HashRing after = ring(TargetGroupTest.targets(11));
+
+        int moved = 0;
+        for (int idx = 0; idx < KEYS; idx++) {
+            String key = "customer-" + idx;
+            String url = after.locate(key, 0, key.length()).getUrlTemplate().getUrl();
+            if (!before.locate(key, 0, key.length()).getUrlTemplate().getUrl().equals(url)) {
+                assertThat(url).isEqualTo("http://node10");
+                moved++;
+            }
+        }
+        assertThat(moved / (double) KEYS).isCloseTo(1 / 11.0, within(0.03));
+    }
+
+    @Test
+    public void should_only_move_keys_of_removed_target() {
+        HashRing before = ring(TargetGroupTest.targets(10));
+        HashRing after = ring(TargetGroupTest.targets(9));
+
+        for (int idx = 0; idx < KEYS; idx++) {
+            String key = "customer-" + idx;
+            String url = before.locate(key, 0, key.length()).getUrlTemplate().getUrl();
+            if (!url.equals("http://node9")) {
+                assertThat(after.locate(key, 0, key.length()).getUrlTemplate().getUrl()).isEqualTo(url);
+            }
+        }
+    }
+
+    @Test
+    public void should_hash_key_within_text() {
+        assertThat(HashRing.hash("/customers/acme/orders", 11, 15)).isEqualTo(HashRing.hash("acme", 0, 4));
+        assertThat(HashRing.hash("acme", 0, 4)).isNotEqualTo(HashRing.hash("acmf", 0, 4));
+    }
+
+    private static HashRing ring(List<WeightedTarget> targets) {
+        return new HashRing(TargetGroup.of(targets, null).getTargets().toArray(new TargetGroup.Target[0]));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void should_be_empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.getQuantileNanos(0.99)).isZero();
+    }
+
+    @Test
+    public void should_count_durations_by_power_of_two() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(1);
+        histogram.record(1_000);
+        histogram.record(1_023);
+        histogram.record(1_024);
+
+        assertThat(histogram.getCount()).isEqualTo(4);
+        assertThat(histogram.getTotalNanos()).isEqualTo(3_048);
+        assertThat(histogram.getBuckets()[0]).isEqualTo(1);
+        assertThat(histogram.getBuckets()[9]).isEqualTo(2);
+        assertThat(histogram.getBuckets()[10]).isEqualTo(1);
+    }
+
+    @Test
+    public void should_give_upper_bound_of_quantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int idx = 0; idx < 99; idx++) {
+            histogram.record(600);
+        }
+        histogram.record(5_000_000);
+
+        assertThat(histogram.getQuantileNanos(0.5)).isEqualTo(1_023);
+        assertThat(histogram.getQuantileNanos(0.99)).isEqualTo(1_023);
+        assertThat(histogram.getQuantileNanos(1)).isEqualTo((1L << 23) - 1);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class LinearRegexTest {
+
+    @Test
+    public void should_match_whole_input_only() {
+        LinearRegex regex = LinearRegex.compile("/v1/ecom/.*");
+
+        assertThat(regex.matches("/v1/ecom/products")).isNotNull();
+        assertThat(regex.matches("/products/v1/ecom/")).isNull();
+        assertThat(regex.matches("/v1/eco")).isNull();
+    }
+
+    @Test
+    public void should_capture_numbered_and_named_groups() {
+        LinearRegex regex = LinearRegex.compile("/(?<store>[^/]+)/items/(\\d+)(?:/(.*))?");
+        MatchResult result = regex.matches("/acme/items/42");
+
+        assertThat(regex.getGroupCount()).isEqualTo(3);
+        assertThat(regex.getGroupNames()).containsExactly(null, "store", null, null);
+        assertThat(result.group()).isEqualTo("/acme/items/42");
+        assertThat(result.group(1)).isEqualTo("acme");
+        assertThat(result.group(2)).isEqualTo("42");
+        assertThat(result.group(3)).isNull();
+        assertThat(result.start(2)).isEqualTo(12);
+        assertThat(result.end(2)).isEqualTo(14);
+    }
+
+    @Test
+    public void should_prefer_groups_as_backtracking_engine() {
+        assertThat(LinearRegex.compile("(a|ab)(c|bcd)(d*)").matches("abcd").group(1)).isEqualTo("a");
+        assertThat(LinearRegex.compile("/(.*)/(.*)").matches("/a/b/c").group(1)).isEqualTo("a/b");
+        assertThat(LinearRegex.compile("/(.*?)/(.*)").matches("/a/b/c").group(1)).isEqualTo("a");
+        assertThat(LinearRegex.compile("(a?){3}").matches("aa").group(1)).isEmpty();
+    }
+
+    @Test
+    public void should_repeat_with_bounds() {
+        LinearRegex regex = LinearRegex.compile("/v\\d{1,3}/[a-z]{2,}");
+
+        assertThat(regex.matches("/v1/ab")).isNotNull();
+        assertThat(regex.matches("/v123/abc")).isNotNull();
+        assertThat(regex.matches("/v1234/abc")).isNull();
+        assertThat(regex.matches("/v1/a")).isNull();
+    }
+
+    @Test
+    public void should_support_flags() {
+        assertThat(LinearRegex.compile("(?i)/acme/[a-c]+").matches("/ACME/aBc")).isNotNull();
+        assertThat(LinearRegex.compile("/(?i:acme)/x").matches("/AcMe/X")).isNull();
+        assertThat(LinearRegex.compile("/.*").matches("/a\nb")).isNull();
+        assertThat(LinearRegex.compile("(?s)/.*").matches("/a\nb")).isNotNull();
+    }
+
+    @Test
+    public void should_support_escapes_and_classes() {
+        assertThat(LinearRegex.compile("\\Q/a.b\\E/\\w+\\.json").matches("/a.b/items.json")).isNotNull();
+        assertThat(LinearRegex.compile("\\Q/a.b\\E").matches("/axb")).isNull();
+        assertThat(LinearRegex.compile("/[^/]+\\x2F[\\-_\\d]*").matches("/a/-_1")).isNotNull();
+        assertThat(LinearRegex.compile("^/x$").matches("/x")).isNotNull();
+        assertThat(LinearRegex.compile("^/x$").matches("/x\n")).isNull();
+    }
+
+    @Test
+    public void should_reject_constructs_requiring_backtracking() {
+        for (String regex : new String[] { "(a)\\1", "(?<a>x)\\k<a>", "(?=a)a", "(?<!a)b", "(?>a)", "a*+", "\\bx", "\\p{L}", "(?m)a" }) {
+            assertThatThrownBy(() -> LinearRegex.compile(regex)).as(regex).isInstanceOf(PatternSyntaxException.class);
+        }
+    }
+
+    @Test
+    public void should_reject_invalid_syntax() {
+        for (String regex : new String[] { "(", ")", "*a", "a{", "[a", "a{3,1}", "(?<n>a)(?<n>b)", "[a[b]]", "[a&&b]" }) {
+            assertThatThrownBy(() -> LinearRegex.compile(regex)).as(regex).isInstanceOf(PatternSyntaxException.class);
+        }
+    }
+
+    @Test
+    public void should_reject_too_large_expression() {
+        assertThatThrownBy(() -> LinearRegex.compile("(a{1000}){1000}")).isInstanceOf(PatternSyntaxException.class);
+    }
+
+    @Test
+    public void should_match_in_linear_time() {
+        LinearRegex regex = LinearRegex.compile("(a+)+b");
+
+        assertThat(regex.matches("a".repeat(100_000))).isNull();
+        assertThat(regex.matches("a".repeat(100_000) + "b")).isNotNull();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.compile;
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.configuration;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.PatternType;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class NoMatchFilterTest {
+
+    @Test
+    public void should_only_let_paths_starting_with_a_prefix_through() {
+        NoMatchFilter filter = filter(
+            new Rule("/v1/stores/(.*)", "http://host1"),
+            new Rule("/v1/(.*)", "http://host2"),
+            new Rule("/billing/[0-9]+", "http://host3"),
+            new Rule("^/tenants/acme$", "http://host4")
+        );
+
+        assertThat(filter.size()).isEqualTo(3);
+        assertThat(filter.mayMatch("/v1/stores/12")).isTrue();
+        assertThat(filter.mayMatch("/v1/items")).isTrue();
+        assertThat(filter.mayMatch("/billing/")).isTrue();
+        assertThat(filter.mayMatch("/tenants/acme")).isTrue();
+        assertThat(filter.mayMatch("/tenants/acme/users")).isTrue();
+        assertThat(filter.mayMatch("/v2/stores")).isFalse();
+        assertThat(filter.mayMatch("/bill")).isFalse();
+        assertThat(filter.mayMatch("/wp-admin/setup.php")).isFalse();
+        assertThat(filter.mayMatch("/")).isFalse();
+        assertThat(filter.mayMatch("")).isFalse();
+    }
+
+    @Test
+    public void should_build_filter_from_path_templates() {
+        DynamicRoutingPolicyConfiguration configuration = configuration(
+            new Rule("/stores/{storeId}/items/*", "http://host1"),
+            new Rule("/billing/**", "http://host2")
+        );
+        configuration.setPatternType(PatternType.PATH_TEMPLATE);
+        NoMatchFilter filter = NoMatchFilter.of(CompiledRuleSet.compile(configuration).getRules());
+
+        assertThat(filter.mayMatch("/stores/12/items/1")).isTrue();
+        assertThat(filter.mayMatch("/billing/2024")).isTrue();
+        assertThat(filter.mayMatch("/stock/12")).isFalse();
+    }
+
+    @Test
+    public void should_not_build_filter_when_a_rule_may_match_any_path() {
+        assertThat(filter(new Rule("/v1/(.*)", "http://host1"), new Rule("(.*)/items", "http://host2"))).isNull();
+        assertThat(filter(new Rule("/v1/(.*)", "http://host1"), new Rule("/v1|/v2", "http://host2"))).isNull();
+        assertThat(filter(new Rule("/{#request.paths[1]}/(.*)", "http://host1"))).isNull();
+    }
+
+    @Test
+    public void should_reject_paths_whose_decoded_form_can_not_match_either() {
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(configuration(new Rule("/foo bar/(.*)", "http://host1")));
+
+        assertThat(ruleSet.mayMatch("/foo%20bar/baz", "/foo bar/baz")).isTrue();
+        assertThat(ruleSet.mayMatch("/foo%20baz/baz", "/foo baz/baz")).isFalse();
+    }
+
+    @Test
+    public void should_let_any_path_through_when_a_rule_is_invalid() {
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(
+            configuration(new Rule("/v1/(.*)", "http://host1"), new Rule("/ecom/($12[a-/search.*)", "http://host2"))
+        );
+
+        assertThat(ruleSet.mayMatch("/v2/stores", "/v2/stores")).isTrue();
+    }
+
+    private static NoMatchFilter filter(Rule... rules) {
+        return NoMatchFilter.of(compile(rules));
+    }
+}
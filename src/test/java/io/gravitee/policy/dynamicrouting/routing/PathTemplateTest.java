@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PathTemplateTest {
+
+    @Test
+    public void should_capture_variables_and_wildcards() {
+        PathTemplate template = PathTemplate.compile("/stores/{storeId}/items/*");
+        MatchResult result = template.match("/stores/12/items/34");
+
+        assertThat(template.getGroupCount()).isEqualTo(2);
+        assertThat(template.getGroupNames()).containsExactly(null, "storeId", null);
+        assertThat(result.group()).isEqualTo("/stores/12/items/34");
+        assertThat(result.group(1)).isEqualTo("12");
+        assertThat(result.group(2)).isEqualTo("34");
+        assertThat(result.start(2)).isEqualTo(17);
+    }
+
+    @Test
+    public void should_match_whole_segments_only() {
+        PathTemplate template = PathTemplate.compile("/stores/{storeId}/items/*");
+
+        assertThat(template.match("/stores/12/items")).isNull();
+        assertThat(template.match("/stores/12/items/")).isNull();
+        assertThat(template.match("/stores//items/34")).isNull();
+        assertThat(template.match("/stores/12/items/34/56")).isNull();
+        assertThat(template.match("/stores/12/itemz/34")).isNull();
+    }
+
+    @Test
+    public void should_capture_rest_of_path() {
+        PathTemplate template = PathTemplate.compile("/stores/{storeId}/**");
+
+        assertThat(template.match("/stores/12/items/34").group(2)).isEqualTo("items/34");
+        assertThat(template.match("/stores/12/").group(2)).isEmpty();
+        assertThat(template.match("/stores/12")).isNull();
+    }
+
+    @Test
+    public void should_give_literal_prefix() {
+        assertThat(PathTemplate.compile("/stores/{storeId}/**").literalPrefix()).isEqualTo("/stores/");
+        assertThat(PathTemplate.compile("/v1/stores/**").literalPrefix()).isEqualTo("/v1/stores/");
+        assertThat(PathTemplate.compile("/*/items").literalPrefix()).isEqualTo("/");
+    }
+
+    @Test
+    public void should_reject_invalid_templates() {
+        for (String template : new String[] { "/stores/{id", "/stores/item-{id}", "/stores/{1d}", "/**/items", "/a*", "/{id}/{id}" }) {
+            assertThatThrownBy(() -> PathTemplate.compile(template)).as(template).isInstanceOf(PatternSyntaxException.class);
+        }
+    }
+}
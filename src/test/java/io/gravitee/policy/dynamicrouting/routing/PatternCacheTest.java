@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PatternCacheTest {
+
+    @Test
+    public void should_reuse_compiled_pattern() {
+        PatternCache cache = new PatternCache(10);
+
+        CompiledPattern pattern = cache.get("/acme/.*");
+
+        assertThat(cache.get("/acme/.*")).isSameAs(pattern);
+        assertThat(cache.stats().getMissCount()).isEqualTo(1);
+        assertThat(cache.stats().getHitCount()).isEqualTo(1);
+        assertThat(cache.stats().getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_evict_when_full() {
+        PatternCache cache = new PatternCache(2);
+
+        cache.get("/tenant1/.*");
+        cache.get("/tenant2/.*");
+        cache.get("/tenant3/.*");
+
+        assertThat(cache.stats().getSize()).isEqualTo(2);
+        assertThat(cache.stats().getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_give_a_second_chance_to_hit_entries() {
+        PatternCache cache = new PatternCache(2);
+
+        CompiledPattern hot = cache.get("/tenant1/.*");
+        cache.get("/tenant2/.*");
+        cache.get("/tenant1/.*");
+        cache.get("/tenant3/.*");
+
+        assertThat(cache.get("/tenant1/.*")).isSameAs(hot);
+        assertThat(cache.stats().getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_not_cache_when_disabled() {
+        PatternCache cache = new PatternCache(0);
+
+        assertThat(cache.get("/acme/.*")).isNotSameAs(cache.get("/acme/.*"));
+        assertThat(cache.stats().getSize()).isZero();
+    }
+
+    @Test
+    public void should_not_cache_invalid_pattern() {
+        PatternCache cache = new PatternCache(10);
+
+        assertThatThrownBy(() -> cache.get("/ecom/($12[a-/search.*)")).isInstanceOf(PatternSyntaxException.class);
+        assertThat(cache.stats().getSize()).isZero();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.compile;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PrefixIndexTest {
+
+    @Test
+    public void should_only_return_rules_compatible_with_first_segment() {
+        PrefixIndex index = index(
+            new Rule("/v1/stores/(.*)", "http://host1"),
+            new Rule("/billing/(.*)", "http://host2"),
+            new Rule("/(.*)/items", "http://host3"),
+            new Rule("/v1/items/(.*)", "http://host4"),
+            new Rule("/{#request.paths[1]}/(.*)", "http://host5")
+        );
+
+        assertThat(index.candidates("/v1/stores/12")).containsExactly(0, 2, 3, 4);
+        assertThat(index.candidates("/billing/12")).containsExactly(1, 2, 4);
+        assertThat(index.candidates("/unknown/12")).containsExactly(2, 4);
+        assertThat(index.candidates("/v1")).containsExactly(2, 4);
+    }
+
+    @Test
+    public void should_not_index_partial_segment() {
+        PrefixIndex index = index(new Rule("/bill(.*)", "http://host1"), new Rule("/billing/(.*)", "http://host2"));
+
+        assertThat(index.candidates("/billing/12")).containsExactly(0, 1);
+        assertThat(index.candidates("/bills/12")).containsExactly(0);
+    }
+
+    private PrefixIndex index(Rule... rules) {
+        return new PrefixIndex(compile(rules));
+    }
+}
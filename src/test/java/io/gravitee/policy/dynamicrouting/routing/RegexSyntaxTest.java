@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class RegexSyntaxTest {
+
+    @Test
+    public void should_extract_literal_prefix() {
+        assertThat(RegexSyntax.literalPrefix("/v1/stores/(.*)")).isEqualTo("/v1/stores/");
+        assertThat(RegexSyntax.literalPrefix("^/billing/.*")).isEqualTo("/billing/");
+        assertThat(RegexSyntax.literalPrefix("/x\\.y/.*")).isEqualTo("/x.y/");
+        assertThat(RegexSyntax.literalPrefix("/tenants/acme")).isEqualTo("/tenants/acme");
+    }
+
+    @Test
+    public void should_exclude_optional_character_from_literal_prefix() {
+        assertThat(RegexSyntax.literalPrefix("/v1/stores?/.*")).isEqualTo("/v1/store");
+        assertThat(RegexSyntax.literalPrefix("/v1/stores*")).isEqualTo("/v1/store");
+        assertThat(RegexSyntax.literalPrefix("/v1/stores+")).isEqualTo("/v1/stores");
+    }
+
+    @Test
+    public void should_not_extract_literal_prefix() {
+        assertThat(RegexSyntax.literalPrefix("(?i)/v1/stores")).isEmpty();
+        assertThat(RegexSyntax.literalPrefix("/v1/.*|/v2/.*")).isEmpty();
+        assertThat(RegexSyntax.literalPrefix("\\d+/stores")).isEmpty();
+    }
+
+    @Test
+    public void should_extract_literal() {
+        String regex = "/tenants/acme";
+
+        assertThat(RegexSyntax.literal(regex)).isSameAs(regex);
+        assertThat(RegexSyntax.literal("^/tenants/acme$")).isEqualTo("/tenants/acme");
+        assertThat(RegexSyntax.literal("/v1/stores\\.json")).isEqualTo("/v1/stores.json");
+        assertThat(RegexSyntax.literal("/price\\$")).isEqualTo("/price$");
+        assertThat(RegexSyntax.literal("")).isEmpty();
+    }
+
+    @Test
+    public void should_not_extract_literal() {
+        assertThat(RegexSyntax.literal("/tenants/.*")).isNull();
+        assertThat(RegexSyntax.literal("/tenants/acme?")).isNull();
+        assertThat(RegexSyntax.literal("/a|/b")).isNull();
+        assertThat(RegexSyntax.literal("/v\\d")).isNull();
+        assertThat(RegexSyntax.literal("(?i)/acme")).isNull();
+        assertThat(RegexSyntax.literal("/acme\\")).isNull();
+    }
+
+    @Test
+    public void should_anonymize_named_groups() {
+        assertThat(RegexSyntax.anonymizeGroups("/api/(?<version>v[0-9]+)/(.*)")).isEqualTo("/api/(v[0-9]+)/(.*)");
+        assertThat(RegexSyntax.anonymizeGroups("/api/[(?<a>]")).isEqualTo("/api/[(?<a>]");
+        assertThat(RegexSyntax.anonymizeGroups("/api/(?<=a)b")).isEqualTo("/api/(?<=a)b");
+    }
+
+    @Test
+    public void should_not_anonymize_patterns_depending_on_their_context() {
+        assertThat(RegexSyntax.anonymizeGroups("/(a+)\\1")).isNull();
+        assertThat(RegexSyntax.anonymizeGroups("/(?<id>a+)\\k<id>")).isNull();
+        assertThat(RegexSyntax.anonymizeGroups("/\\Q(a\\E")).isNull();
+        assertThat(RegexSyntax.anonymizeGroups("(?x)/a # comment")).isNull();
+    }
+
+    @Test
+    public void should_extract_catch_all_prefix() {
+        assertThat(RegexSyntax.catchAllPrefix("/v1/.*")).isEqualTo("/v1/");
+        assertThat(RegexSyntax.catchAllPrefix("^/v1/(.*)$")).isEqualTo("/v1/");
+        assertThat(RegexSyntax.catchAllPrefix("(?s)/v1/(?<rest>.*)")).isEqualTo("/v1/");
+        assertThat(RegexSyntax.catchAllPrefix("/x\\.y/(?:.*)")).isEqualTo("/x.y/");
+        assertThat(RegexSyntax.catchAllPrefix(".*")).isEmpty();
+    }
+
+    @Test
+    public void should_not_extract_catch_all_prefix() {
+        assertThat(RegexSyntax.catchAllPrefix("/v1\\.*")).isNull();
+        assertThat(RegexSyntax.catchAllPrefix("^/v1$.*")).isNull();
+        assertThat(RegexSyntax.catchAllPrefix("/v[12]/.*")).isNull();
+        assertThat(RegexSyntax.catchAllPrefix("/v1/.+")).isNull();
+        assertThat(RegexSyntax.catchAllPrefix("/v1/|.*")).isNull();
+    }
+
+    @Test
+    public void should_tell_whether_expression_excludes_line_terminators() {
+        assertThat(RegexSyntax.excludesLineTerminators("/v1/(?<id>[a-z0-9_-]+)/.*")).isTrue();
+        assertThat(RegexSyntax.excludesLineTerminators("(?i)/v1/\\d+\\.json")).isTrue();
+        assertThat(RegexSyntax.excludesLineTerminators("/v1/[^/]+")).isFalse();
+        assertThat(RegexSyntax.excludesLineTerminators("/v1/\\s")).isFalse();
+        assertThat(RegexSyntax.excludesLineTerminators("/v1/\\x0A")).isFalse();
+        assertThat(RegexSyntax.excludesLineTerminators("(?s)/v1/.*")).isFalse();
+        assertThat(RegexSyntax.excludesLineTerminators("/v1/[\\x00-z]")).isFalse();
+        assertThat(RegexSyntax.excludesLineTerminators("/v1/[\\t-z]")).isFalse();
+    }
+}
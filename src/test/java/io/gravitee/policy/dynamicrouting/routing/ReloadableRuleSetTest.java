@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.el.TemplateContext;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.ExternalRules;
+import io.gravitee.policy.dynamicrouting.configuration.ExternalRulesSource;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ReloadableRuleSetTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void should_append_rules_of_file_to_rules_of_configuration() throws IOException {
+        Path file = write("rules.json", rule("/orders/(.*)", "http://orders/{#group[0]}"), rule("/items/.*", "http://items"));
+
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), Runnable::run);
+
+        assertThat(ruleSet.get().getRules())
+            .extracting(rule -> rule.getRule().getPattern())
+            .containsExactly("/admin/.*", "/orders/(.*)", "/items/.*");
+        assertThat(route(ruleSet.get(), "/orders/12")).isEqualTo("http://orders/12");
+    }
+
+    @Test
+    public void should_load_file_in_background() throws IOException {
+        Path file = write("rules.json", rule("/orders/.*", "http://orders"));
+        List<Runnable> reloads = new ArrayList<>();
+
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), reloads::add);
+
+        // Requests are routed with the rules of the configuration until the file is loaded
+        assertThat(ruleSet.get().getRules()).hasSize(1);
+        assertThat(reloads).hasSize(1);
+
+        reloads.get(0).run();
+        assertThat(route(ruleSet.get(), "/orders/1")).isEqualTo("http://orders");
+    }
+
+    @Test
+    public void should_only_compile_changed_rules_on_reload() throws IOException {
+        Path file = write("rules.json", rule("/orders/(.*)", "http://orders/{#group[0]}"), rule("/items/.*", "http://items"));
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), Runnable::run);
+        CompiledRuleSet previous = ruleSet.get();
+
+        write(
+            "rules.json",
+            rule("/stores/.*", "http://stores"),
+            rule("/orders/(.*)", "http://orders/{#group[0]}"),
+            rule("/items/.*", "http://items-v2")
+        );
+        ruleSet.reloadFile();
+
+        CompiledRuleSet reloaded = ruleSet.get();
+        assertThat(reloaded).isNotSameAs(previous);
+        assertThat(reloaded.getRules().get(0)).isSameAs(previous.getRules().get(0));
+        assertThat(reloaded.getRules().get(2).getPattern()).isSameAs(previous.getRules().get(1).getPattern());
+        assertThat(reloaded.getRules().get(2).getIndex()).isEqualTo(2);
+        assertThat(route(reloaded, "/items/1")).isEqualTo("http://items-v2");
+        // Requests holding the previous rule set are not affected
+        assertThat(route(previous, "/items/1")).isEqualTo("http://items");
+    }
+
+    @Test
+    public void should_not_reload_unchanged_file() throws IOException {
+        Path file = write("rules.json", rule("/orders/.*", "http://orders"));
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), Runnable::run);
+        CompiledRuleSet previous = ruleSet.get();
+
+        ruleSet.reloadFile();
+
+        assertThat(ruleSet.get()).isSameAs(previous);
+    }
+
+    @Test
+    public void should_keep_rules_when_file_is_invalid_or_missing() throws IOException {
+        Path file = write("rules.json", rule("/orders/.*", "http://orders"));
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), Runnable::run);
+        CompiledRuleSet previous = ruleSet.get();
+
+        Files.writeString(file, "[{\"pattern\":");
+        ruleSet.reloadFile();
+        assertThat(ruleSet.get()).isSameAs(previous);
+
+        Files.delete(file);
+        ruleSet.reloadFile();
+        assertThat(ruleSet.get()).isSameAs(previous);
+    }
+
+    @Test
+    public void should_load_file_created_after_deployment() throws IOException {
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(directory.resolve("rules.json")), Runnable::run);
+        assertThat(ruleSet.get().getRules()).hasSize(1);
+
+        write("rules.json", rule("/orders/.*", "http://orders"));
+        ruleSet.reloadFile();
+
+        assertThat(route(ruleSet.get(), "/orders/1")).isEqualTo("http://orders");
+    }
+
+    @Test
+    public void should_load_dictionary_in_background() {
+        List<Runnable> reloads = new ArrayList<>();
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(dictionaryConfiguration(), reloads::add);
+        TemplateContext templateContext = mock(TemplateContext.class);
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateContext.lookupVariable(ReloadableRuleSet.DICTIONARIES_VARIABLE))
+            .thenReturn(Map.of("routes", Map.of("/v1/.*", "http://v1", "/v1/orders/.*", "http://orders")));
+
+        ruleSet.refresh(() -> templateEngine);
+
+        // Requests are routed with the rules of the configuration until the dictionary is loaded
+        assertThat(reloads).hasSize(1);
+        assertThat(ruleSet.get().isEmpty()).isTrue();
+
+        reloads.get(0).run();
+        assertThat(route(ruleSet.get(), "/v1/orders/1")).isEqualTo("http://orders");
+        assertThat(route(ruleSet.get(), "/v1/stores/1")).isEqualTo("http://v1");
+
+        when(templateContext.lookupVariable(ReloadableRuleSet.DICTIONARIES_VARIABLE))
+            .thenReturn(Map.of("routes", Map.of("/v1/.*", "http://v1-next")));
+        ruleSet.refresh(() -> templateEngine);
+        assertThat(reloads).hasSize(2);
+        assertThat(route(ruleSet.get(), "/v1/orders/1")).isEqualTo("http://orders");
+
+        reloads.get(1).run();
+        assertThat(route(ruleSet.get(), "/v1/orders/1")).isEqualTo("http://v1-next");
+    }
+
+    @Test
+    public void should_only_reload_dictionary_whose_entries_have_changed() {
+        List<Runnable> reloads = new ArrayList<>();
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(dictionaryConfiguration(), reloads::add);
+        TemplateContext templateContext = mock(TemplateContext.class);
+        TemplateEngine templateEngine = mock(TemplateEngine.class);
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        Map<String, String> entries = new HashMap<>(Map.of("/v1/.*", "http://v1"));
+        when(templateContext.lookupVariable(ReloadableRuleSet.DICTIONARIES_VARIABLE)).thenReturn(Map.of("routes", entries));
+        ruleSet.refresh(() -> templateEngine);
+        reloads.get(0).run();
+        CompiledRuleSet loaded = ruleSet.get();
+
+        // Entries replaced by equal ones
+        when(templateContext.lookupVariable(ReloadableRuleSet.DICTIONARIES_VARIABLE)).thenReturn(Map.of("routes", Map.copyOf(entries)));
+        ruleSet.refresh(() -> templateEngine);
+        reloads.get(1).run();
+        assertThat(ruleSet.get()).isSameAs(loaded);
+
+        // Entries updated in place, found by the periodic check
+        Map<String, String> updated = new HashMap<>(Map.of("/v1/.*", "http://v1"));
+        when(templateContext.lookupVariable(ReloadableRuleSet.DICTIONARIES_VARIABLE)).thenReturn(Map.of("routes", updated));
+        ruleSet.refresh(() -> templateEngine);
+        reloads.get(2).run();
+        updated.put("/v1/.*", "http://v1-next");
+        ruleSet.refresh(() -> templateEngine);
+        assertThat(reloads).hasSize(3);
+        ruleSet.reloadDictionary();
+        assertThat(route(ruleSet.get(), "/v1/orders/1")).isEqualTo("http://v1-next");
+    }
+
+    @Test
+    public void should_keep_counters_of_unchanged_rules_on_reload() throws IOException {
+        Path file = write("rules.json", rule("/orders/.*", "http://orders"), rule("/items/.*", "http://items"));
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), Runnable::run);
+        RoutingMetrics previous = ruleSet.get().getMetrics();
+        previous.recordMatch(1, 1_000);
+        previous.recordMatch(2, 1_000);
+        previous.recordNoMatch(1_000);
+
+        write("rules.json", rule("/stores/.*", "http://stores"), rule("/orders/.*", "http://orders"), rule("/items/.*", "http://items-v2"));
+        ruleSet.reloadFile();
+
+        RoutingMetrics metrics = ruleSet.get().getMetrics();
+        assertThat(metrics.getRuleHitCounts()).containsExactly(0, 0, 1, 0);
+        assertThat(metrics.getNoMatchCount()).isEqualTo(1);
+        assertThat(metrics.getLatency().getCount()).isEqualTo(3);
+
+        // Requests still routed with the previous rule set are counted as well
+        previous.recordMatch(1, 1_000);
+        assertThat(metrics.getRuleHitCount(2)).isEqualTo(2);
+    }
+
+    @Test
+    public void should_not_look_up_template_engine_for_file() throws IOException {
+        Path file = write("rules.json", rule("/orders/.*", "http://orders"));
+        ReloadableRuleSet ruleSet = new ReloadableRuleSet(fileConfiguration(file), Runnable::run);
+
+        ruleSet.refresh(() -> {
+            throw new AssertionError("Template engine looked up");
+        });
+    }
+
+    @Test
+    public void should_order_dictionary_rules_by_descending_pattern() {
+        List<Rule> rules = ReloadableRuleSet.rules(Map.of("/v1/.*", "http://v1", "/v1/orders/.*", "http://orders", "/v2/.*", "http://v2"));
+
+        assertThat(rules).extracting(Rule::getPattern).containsExactly("/v2/.*", "/v1/orders/.*", "/v1/.*");
+    }
+
+    private Path write(String name, String... rules) throws IOException {
+        return Files.writeString(directory.resolve(name), "[" + String.join(",", rules) + "]");
+    }
+
+    private static String rule(String pattern, String url) {
+        return "{\"pattern\":\"" + pattern + "\",\"url\":\"" + url + "\"}";
+    }
+
+    private static String route(CompiledRuleSet ruleSet, String path) {
+        return ruleSet.match(path, path, rule -> null, RequestAttributes.NONE).endpoint(null);
+    }
+
+    private static DynamicRoutingPolicyConfiguration fileConfiguration(Path file) {
+        ExternalRules externalRules = new ExternalRules();
+        externalRules.setSource(ExternalRulesSource.FILE);
+        externalRules.setPath(file.toString());
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(new Rule("/admin/.*", "http://admin")));
+        configuration.setExternalRules(externalRules);
+        return configuration;
+    }
+
+    private static DynamicRoutingPolicyConfiguration dictionaryConfiguration() {
+        ExternalRules externalRules = new ExternalRules();
+        externalRules.setSource(ExternalRulesSource.DICTIONARY);
+        externalRules.setDictionary("routes");
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setExternalRules(externalRules);
+        return configuration;
+    }
+}
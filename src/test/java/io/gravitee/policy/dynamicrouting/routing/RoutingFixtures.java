@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.List;
+
+/**
+ * Fixtures shared by the tests of the routing structures.
+ *
+ * @author GraviteeSource Team
+ */
+final class RoutingFixtures {
+
+    /**
+     * Resolver for rule sets without patterns relying on EL
+     */
+    static final PatternResolver NO_RESOLVER = rule -> null;
+
+    private RoutingFixtures() {}
+
+    /**
+     * @return a configuration with the given rules and the default settings
+     */
+    static DynamicRoutingPolicyConfiguration configuration(Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(rules));
+        return configuration;
+    }
+
+    /**
+     * @return the given rules, compiled with the default settings
+     */
+    static List<CompiledRule> compile(Rule... rules) {
+        return CompiledRuleSet.compile(configuration(rules)).getRules();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class RoutingMetricsTest {
+
+    @Test
+    public void should_count_hits_by_rule() {
+        RoutingMetrics metrics = new RoutingMetrics(3);
+
+        metrics.recordMatch(0, 1_000);
+        metrics.recordMatch(2, 1_000);
+        metrics.recordMatch(2, 1_000);
+
+        assertThat(metrics.getRuleHitCounts()).containsExactly(1, 0, 2);
+        assertThat(metrics.getRuleHitCount(2)).isEqualTo(2);
+        assertThat(metrics.getLatency().getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void should_count_failures() {
+        RoutingMetrics metrics = new RoutingMetrics(1);
+
+        metrics.recordNoMatch(1_000);
+        metrics.recordInvalidPath();
+        metrics.recordInvalidPattern();
+        metrics.recordInvalidPattern();
+
+        assertThat(metrics.getNoMatchCount()).isEqualTo(1);
+        assertThat(metrics.getInvalidPathCount()).isEqualTo(1);
+        assertThat(metrics.getInvalidPatternCount()).isEqualTo(2);
+        assertThat(metrics.getRuleHitCounts()).containsExactly(0);
+        // Only the completed matches are timed
+        assertThat(metrics.getLatency().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_count_concurrent_hits() throws InterruptedException {
+        RoutingMetrics metrics = new RoutingMetrics(1);
+        Thread[] threads = new Thread[4];
+        for (int idx = 0; idx < threads.length; idx++) {
+            threads[idx] = new Thread(() -> {
+                for (int hit = 0; hit < 10_000; hit++) {
+                    metrics.recordMatch(0, 100);
+                }
+            });
+            threads[idx].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(metrics.getRuleHitCount(0)).isEqualTo(40_000);
+        assertThat(metrics.getLatency().getCount()).isEqualTo(40_000);
+    }
+}
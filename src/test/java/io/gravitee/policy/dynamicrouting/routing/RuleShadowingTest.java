@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.compile;
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.configuration;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.PatternType;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class RuleShadowingTest {
+
+    private static final int NONE = RuleShadowing.NONE;
+
+    @Test
+    public void should_detect_duplicate_patterns() {
+        int[] shadowedBy = analyze(
+            new Rule("/v1/stores/(.*)", "http://host1"),
+            new Rule("/v1/items/(.*)", "http://host2"),
+            new Rule("/v1/stores/(.*)", "http://host3")
+        );
+
+        assertThat(shadowedBy).containsExactly(NONE, NONE, 0);
+    }
+
+    @Test
+    public void should_detect_literals_matched_by_earlier_rules() {
+        int[] shadowedBy = analyze(
+            new Rule("/v1/stores/[0-9]+", "http://host1"),
+            new Rule("^/v1/stores/12$", "http://host2"),
+            new Rule("/v1/stores/abc", "http://host3"),
+            new Rule("/v1/stores/abc", "http://host4")
+        );
+
+        assertThat(shadowedBy).containsExactly(NONE, 0, NONE, 2);
+    }
+
+    @Test
+    public void should_detect_rules_after_catch_all() {
+        int[] shadowedBy = analyze(
+            new Rule("/v1/.*", "http://host1"),
+            new Rule("/v1/stores/(.*)", "http://host2"),
+            new Rule("/v2/stores/(.*)", "http://host3"),
+            new Rule("/(.*)", "http://host4"),
+            new Rule("/v2/items/[a-z]+", "http://host5")
+        );
+
+        assertThat(shadowedBy).containsExactly(NONE, 0, NONE, NONE, 3);
+    }
+
+    @Test
+    public void should_report_first_covering_catch_all() {
+        int[] shadowedBy = analyze(
+            new Rule("/v1/stores/.*", "http://host1"),
+            new Rule("/v1/.*", "http://host2"),
+            new Rule("/v1/stores/items/[0-9]+", "http://host3"),
+            new Rule("/v1/items/[0-9]+", "http://host4")
+        );
+
+        assertThat(shadowedBy).containsExactly(NONE, NONE, 0, 1);
+    }
+
+    @Test
+    public void should_keep_rules_which_may_match_line_terminators() {
+        int[] shadowedBy = analyze(
+            new Rule("/v1/.*", "http://host1"),
+            new Rule("/v1/[^/]+", "http://host2"),
+            new Rule("/v1/\\s+", "http://host3"),
+            new Rule("/v1/(?s).*", "http://host4"),
+            new Rule("(?s)/v2/(.*)", "http://host5"),
+            new Rule("/v2/[^/]+", "http://host6")
+        );
+
+        assertThat(shadowedBy).containsExactly(NONE, NONE, NONE, NONE, NONE, 4);
+    }
+
+    @Test
+    public void should_not_analyze_el_and_invalid_rules() {
+        int[] shadowedBy = analyze(
+            new Rule("/{#request.paths[1]}/.*", "http://host1"),
+            new Rule("/{#request.paths[1]}/.*", "http://host2"),
+            new Rule("/ecom/($12[a-/search.*)", "http://host3"),
+            new Rule("/ecom/($12[a-/search.*)", "http://host4")
+        );
+
+        assertThat(shadowedBy).containsExactly(NONE, NONE, NONE, NONE);
+    }
+
+    @Test
+    public void should_detect_rules_after_catch_all_template() {
+        DynamicRoutingPolicyConfiguration configuration = configuration(
+            new Rule("/v1/**", "http://host1"),
+            new Rule("/v1/{storeId}", "http://host2"),
+            new Rule("/v1", "http://host3"),
+            new Rule("/v1/stores", "http://host4")
+        );
+        configuration.setPatternType(PatternType.PATH_TEMPLATE);
+
+        assertThat(RuleShadowing.analyze(CompiledRuleSet.compile(configuration).getRules())).containsExactly(NONE, 0, NONE, 0);
+    }
+
+    @Test
+    public void should_leave_unreachable_rules_out_of_rule_set() {
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(
+            configuration(
+                new Rule("/v1/.*", "http://host1"),
+                new Rule("/v1/stores/(.*)", "http://host2"),
+                new Rule("/v1/stores", "http://host3"),
+                new Rule("/v2/(.*)", "http://host4")
+            )
+        );
+
+        assertThat(ruleSet.getUnreachableRules()).extracting(CompiledRule::getIndex).containsExactly(1, 2);
+        assertThat(ruleSet.getShadowingRule(ruleSet.getRules().get(2))).isZero();
+        assertThat(ruleSet.describeUnreachable()).isEqualTo("#1 [/v1/stores/(.*)] shadowed by #0; #2 [/v1/stores] shadowed by #0");
+        assertThat(ruleSet.match("/v1/stores", "/v1/stores", rule -> null).getRule().getIndex()).isZero();
+        assertThat(ruleSet.match("/v2/stores", "/v2/stores", rule -> null).getRule().getIndex()).isEqualTo(3);
+    }
+
+    @Test
+    public void should_not_shadow_with_rules_having_conditions() {
+        Rule acme = new Rule("/v1/.*", "http://acme");
+        acme.setHost("acme.gravitee.io");
+        Rule acmeOrders = new Rule("/v1/orders", "http://acme-orders");
+        acmeOrders.setHost("acme.gravitee.io");
+
+        assertThat(analyze(acme, new Rule("/v1/orders", "http://host1"), new Rule("/v1/.*", "http://host2")))
+            .containsExactly(NONE, NONE, NONE);
+        assertThat(analyze(new Rule("/v1/.*", "http://host1"), acmeOrders)).containsExactly(NONE, 0);
+    }
+
+    private static int[] analyze(Rule... rules) {
+        return RuleShadowing.analyze(compile(rules));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.NO_RESOLVER;
+import static io.gravitee.policy.dynamicrouting.routing.RoutingFixtures.configuration;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.PatternType;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class SegmentTreeMatcherTest {
+
+    @Test
+    public void should_match_first_declared_template() {
+        RuleMatcher matcher = matcher(
+            new Rule("/stores/{storeId}/items/*", "http://host1"),
+            new Rule("/stores/special/items/{itemId}", "http://host2"),
+            new Rule("/stores/**", "http://host3"),
+            new Rule("/*/items", "http://host4")
+        );
+
+        assertThat(matcher.match("/stores/special/items/1", "/stores/special/items/1", NO_RESOLVER).getRule().getIndex()).isZero();
+        assertThat(matcher.match("/stores/12/orders", "/stores/12/orders", NO_RESOLVER).getRule().getIndex()).isEqualTo(2);
+        assertThat(matcher.match("/stores/items", "/stores/items", NO_RESOLVER).getRule().getIndex()).isEqualTo(2);
+        assertThat(matcher.match("/products/items", "/products/items", NO_RESOLVER).getRule().getIndex()).isEqualTo(3);
+        assertThat(matcher.match("/products", "/products", NO_RESOLVER)).isNull();
+    }
+
+    @Test
+    public void should_prefer_literal_segment_declared_first() {
+        RuleMatcher matcher = matcher(
+            new Rule("/stores/special/items/{itemId}", "http://host1"),
+            new Rule("/stores/{storeId}/items/*", "http://host2")
+        );
+
+        RouteMatch match = matcher.match("/stores/special/items/1", "/stores/special/items/1", NO_RESOLVER);
+
+        assertThat(match.getRule().getIndex()).isZero();
+        assertThat(match.groupName("itemId")).isEqualTo("1");
+        assertThat(match.groups()).containsExactly("1");
+    }
+
+    @Test
+    public void should_fill_groups_and_group_names() {
+        RuleMatcher matcher = matcher(new Rule("/stores/{storeId}/items/*", "http://host1"));
+
+        RouteMatch match = matcher.match("/stores/12/items/34", "/stores/12/items/34", NO_RESOLVER);
+
+        assertThat(match.groups()).containsExactly("12", "34");
+        assertThat(match.groupNames()).containsEntry("storeId", "12").hasSize(1);
+    }
+
+    @Test
+    public void should_match_decoded_path() {
+        RuleMatcher matcher = matcher(new Rule("/stores/a b/{id}", "http://host1"));
+
+        assertThat(matcher.match("/stores/a%20b/12", "/stores/a b/12", NO_RESOLVER).group(0)).isEqualTo("12");
+    }
+
+    @Test
+    public void should_raise_invalid_template_declared_before_matching_one() {
+        RuleMatcher matcher = matcher(new Rule("/stores/item-{id}", "http://host1"), new Rule("/stores/**", "http://host2"));
+
+        assertThatThrownBy(() -> matcher.match("/stores/12", "/stores/12", NO_RESOLVER)).isInstanceOf(PatternSyntaxException.class);
+    }
+
+    @Test
+    public void should_ignore_invalid_template_declared_after_matching_one() {
+        RuleMatcher matcher = matcher(new Rule("/stores/**", "http://host1"), new Rule("/stores/item-{id}", "http://host2"));
+
+        assertThat(matcher.match("/stores/12", "/stores/12", NO_RESOLVER).getRule().getIndex()).isZero();
+    }
+
+    private RuleMatcher matcher(Rule... rules) {
+        DynamicRoutingPolicyConfiguration configuration = configuration(rules);
+        configuration.setPatternType(PatternType.PATH_TEMPLATE);
+        List<CompiledRule> compiled = CompiledRuleSet.compile(configuration).getRules();
+        return new SegmentTreeMatcher(compiled, compiled);
+    }
+}
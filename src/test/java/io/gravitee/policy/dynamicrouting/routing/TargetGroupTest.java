@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import io.gravitee.policy.dynamicrouting.configuration.StickyKey;
+import io.gravitee.policy.dynamicrouting.configuration.StickyKeySource;
+import io.gravitee.policy.dynamicrouting.configuration.WeightedTarget;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class TargetGroupTest {
+
+    @Test
+    public void should_ignore_targets_without_url_or_weight() {
+        TargetGroup group = TargetGroup.of(
+            List.of(new WeightedTarget("http://host1", 1), new WeightedTarget(null, 1), new WeightedTarget("http://host2", 0)),
+            null
+        );
+
+        assertThat(group.getTargets()).extracting(target -> target.getUrlTemplate().getUrl()).containsExactly("http://host1");
+        assertThat(TargetGroup.of(List.of(new WeightedTarget("http://host1", 0)), null)).isNull();
+        assertThat(TargetGroup.of(null, null)).isNull();
+    }
+
+    @Test
+    public void should_draw_targets_in_proportion_to_their_weight() {
+        TargetGroup group = TargetGroup.of(List.of(new WeightedTarget("http://host1", 1), new WeightedTarget("http://host2", 3)), null);
+        TargetGroup.Target first = group.getTargets().get(0);
+        TargetGroup.Target second = group.getTargets().get(1);
+
+        assertThat(group.select(0, 0)).isSameAs(first);
+        assertThat(group.select(1, 1)).isSameAs(second);
+        assertThat(group.select(3, 3)).isSameAs(second);
+
+        int[] counts = new int[2];
+        for (int idx = 0; idx < 40_000; idx++) {
+            counts[group.select() == first ? 0 : 1]++;
+        }
+        assertThat(counts[1] / 40_000.0).isCloseTo(0.75, within(0.02));
+    }
+
+    @Test
+    public void should_pick_drawn_target_with_lowest_latency() {
+        TargetGroup group = TargetGroup.of(List.of(new WeightedTarget("http://host1", 1), new WeightedTarget("http://host2", 1)), null);
+        TargetGroup.Target slow = group.getTargets().get(0);
+        TargetGroup.Target fast = group.getTargets().get(1);
+        slow.recordLatency(50_000_000);
+        fast.recordLatency(5_000_000);
+
+        assertThat(group.select(0, 1)).isSameAs(fast);
+        assertThat(group.select(1, 0)).isSameAs(fast);
+        assertThat(group.select(0, 0)).isSameAs(slow);
+    }
+
+    @Test
+    public void should_prefer_targets_without_latency() {
+        TargetGroup group = TargetGroup.of(List.of(new WeightedTarget("http://host1", 1), new WeightedTarget("http://host2", 1)), null);
+        group.getTargets().get(0).recordLatency(1_000);
+
+        assertThat(group.select(0, 1)).isSameAs(group.getTargets().get(1));
+    }
+
+    @Test
+    public void should_jump_to_higher_latency_and_decay_to_lower_one() {
+        TargetGroup.Target target = TargetGroup.of(List.of(new WeightedTarget("http://host1", 1)), null).getTargets().get(0);
+
+        target.recordLatency(100, 1_000);
+        assertThat(target.getLatency()).isEqualTo(100);
+
+        target.recordLatency(1_000, 2_000);
+        assertThat(target.getLatency()).isEqualTo(1_000);
+
+        target.recordLatency(100, 2_000 + TargetGroup.DECAY_NANOS);
+        assertThat(target.getLatency()).isEqualTo(Math.round(100 + Math.exp(-1) * 900));
+    }
+
+    @Test
+    public void should_always_select_single_target() {
+        TargetGroup group = TargetGroup.of(List.of(new WeightedTarget("http://host1", 5)), null);
+
+        assertThat(Arrays.asList(group.select(), group.select())).containsOnly(group.getTargets().get(0));
+    }
+
+    @Test
+    public void should_route_requests_sharing_a_header_to_the_same_target() {
+        TargetGroup group = TargetGroup.of(targets(5), new StickyKey(StickyKeySource.HEADER, "X-Customer"));
+        RequestAttributes acme = request(Map.of("x-customer", "acme"), Map.of());
+
+        assertThat(group.isSticky()).isTrue();
+        TargetGroup.Target target = group.select(null, acme);
+        for (int idx = 0; idx < 100; idx++) {
+            assertThat(group.select(null, acme)).isSameAs(target);
+        }
+    }
+
+    @Test
+    public void should_locate_target_by_query_parameter() {
+        TargetGroup byParameter = TargetGroup.of(targets(5), new StickyKey(StickyKeySource.QUERY_PARAMETER, "customer"));
+        TargetGroup byHeader = TargetGroup.of(targets(5), new StickyKey(StickyKeySource.HEADER, "customer"));
+
+        for (int idx = 0; idx < 100; idx++) {
+            String url = byParameter.select(null, request(Map.of(), Map.of("customer", "c" + idx))).getUrlTemplate().getUrl();
+            assertThat(byHeader.select(null, request(Map.of("customer", "c" + idx), Map.of())).getUrlTemplate().getUrl()).isEqualTo(url);
+        }
+    }
+
+    @Test
+    public void should_locate_target_by_capture_group() {
+        Rule byName = new Rule("/customers/(?<customer>[^/]+)/orders", null);
+        byName.setTargets(targets(5));
+        byName.setStickyKey(new StickyKey(StickyKeySource.GROUP, "customer"));
+        Rule byIndex = new Rule("/v2/([^/]+)/([^/]+)", null);
+        byIndex.setTargets(targets(5));
+        byIndex.setStickyKey(new StickyKey(StickyKeySource.GROUP, "1"));
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(byName, byIndex));
+        CompiledRuleSet ruleSet = CompiledRuleSet.compile(configuration);
+        TargetGroup byHeader = TargetGroup.of(targets(5), new StickyKey(StickyKeySource.HEADER, "customer"));
+
+        for (int idx = 0; idx < 100; idx++) {
+            String customer = "c" + idx;
+            String url = byHeader.select(null, request(Map.of("customer", customer), Map.of())).getUrlTemplate().getUrl();
+            assertThat(select(ruleSet, "/customers/" + customer + "/orders").getUrlTemplate().getUrl()).isEqualTo(url);
+            assertThat(select(ruleSet, "/v2/orders/" + customer).getUrlTemplate().getUrl()).isEqualTo(url);
+        }
+    }
+
+    @Test
+    public void should_fall_back_to_latency_without_key() {
+        TargetGroup group = TargetGroup.of(targets(2), new StickyKey(StickyKeySource.HEADER, "X-Customer"));
+        TargetGroup.Target slow = group.getTargets().get(0);
+        TargetGroup.Target fast = group.getTargets().get(1);
+        slow.recordLatency(50_000_000);
+        fast.recordLatency(5_000_000);
+
+        int fastCount = 0;
+        for (int idx = 0; idx < 1_000; idx++) {
+            fastCount += group.select(null, RequestAttributes.NONE) == fast ? 1 : 0;
+        }
+        assertThat(fastCount).isGreaterThan(650);
+    }
+
+    @Test
+    public void should_not_be_sticky_without_key_name() {
+        assertThat(TargetGroup.of(targets(2), null).isSticky()).isFalse();
+        assertThat(TargetGroup.of(targets(2), new StickyKey(StickyKeySource.HEADER, "")).isSticky()).isFalse();
+        assertThat(TargetGroup.of(targets(2), new StickyKey(null, "X-Customer")).isSticky()).isFalse();
+    }
+
+    private static TargetGroup.Target select(CompiledRuleSet ruleSet, String path) {
+        RouteMatch match = ruleSet.match(path, path, rule -> null, RequestAttributes.NONE);
+        return match.getRule().getTargets().select(match, RequestAttributes.NONE);
+    }
+
+    static List<WeightedTarget> targets(int count) {
+        List<WeightedTarget> targets = new ArrayList<>(count);
+        for (int idx = 0; idx < count; idx++) {
+            targets.add(new WeightedTarget("http://node" + idx, 1));
+        }
+        return targets;
+    }
+
+    private static RequestAttributes request(Map<String, String> headers, Map<String, String> parameters) {
+        return new RequestAttributes() {
+            @Override
+            public String host() {
+                return null;
+            }
+
+            @Override
+            public HttpMethod method() {
+                return null;
+            }
+
+            @Override
+            public String header(String name) {
+                return headers.get(name);
+            }
+
+            @Override
+            public String parameter(String name) {
+                return parameters.get(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.dynamicrouting.routing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.el.TemplateContext;
+import io.gravitee.el.TemplateEngine;
+import io.gravitee.policy.dynamicrouting.configuration.DynamicRoutingPolicyConfiguration;
+import io.gravitee.policy.dynamicrouting.configuration.Rule;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * @author GraviteeSource Team
+ */
+@ExtendWith(MockitoExtension.class)
+public class UrlTemplateTest {
+
+    @Mock
+    private TemplateEngine templateEngine;
+
+    @Mock
+    private TemplateContext templateContext;
+
+    @Test
+    public void should_render_literal_url() {
+        assertThat(render("/v1/(.*)", "http://host1/product", "/v1/ecom")).isEqualTo("http://host1/product");
+        verifyNoInteractions(templateEngine);
+    }
+
+    @Test
+    public void should_render_groups_without_template_engine() {
+        assertThat(
+            render("/api/(?<version>v[0-9]+)/(.*)", "http://host1/{#groupName['version']}/{#group[1]}", "/api/v12/stores")
+        ).isEqualTo("http://host1/v12/stores");
+        assertThat(render("/api/(v[0-9]+)?/?(.*)", "http://host1/{#group[0]}/{#groupName[\"missing\"]}", "/api/stores")).isEqualTo(
+            "http://host1//"
+        );
+        verifyNoInteractions(templateEngine);
+    }
+
+    @Test
+    public void should_render_endpoint_reference() {
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateContext.lookupVariable("endpoints")).thenReturn(Map.of("group1", "group1:"));
+
+        assertThat(render("/v1/stores/(.*)", "{#endpoints['group1']}/{#group[0]}", "/v1/stores/my-store")).isEqualTo("group1:/my-store");
+    }
+
+    @Test
+    public void should_evaluate_other_expressions_with_template_engine() {
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateEngine.getValue("http://{#request.headers['host'][0]}/{#group[0]}", String.class)).thenReturn("http://host1/ecom");
+
+        assertThat(render("/v1/(.*)", "http://{#request.headers['host'][0]}/{#group[0]}", "/v1/ecom")).isEqualTo("http://host1/ecom");
+    }
+
+    @Test
+    public void should_expose_groups_to_template_engine_when_referenced() {
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateEngine.getValue("{#group[0].toUpperCase()}", String.class)).thenReturn("ECOM");
+
+        assertThat(render("/v1/(?<name>.*)", "{#group[0].toUpperCase()}", "/v1/ecom")).isEqualTo("ECOM");
+        verify(templateContext).setVariable(eq("group"), eq(new String[] { "ecom" }));
+        verify(templateContext).setVariable(eq("groupName"), eq(Map.of("name", "ecom")));
+    }
+
+    @Test
+    public void should_expose_groups_to_template_engine_as_array() {
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateEngine.getValue("{#group.length}/{#group[1]}", String.class)).thenReturn("2/items");
+
+        assertThat(render("/v1/(.*)/(.*)", "{#group.length}/{#group[1]}", "/v1/ecom/items")).isEqualTo("2/items");
+        ArgumentCaptor<Object> group = ArgumentCaptor.forClass(Object.class);
+        verify(templateContext).setVariable(eq("group"), group.capture());
+        assertThat(group.getValue()).isInstanceOf(String[].class);
+        assertThat((String[]) group.getValue()).containsExactly("ecom", "items");
+    }
+
+    @Test
+    public void should_not_expose_groups_to_template_engine_when_not_referenced() {
+        when(templateEngine.getValue("http://{#request.headers['host'][0]}", String.class)).thenReturn("http://host1");
+
+        assertThat(render("/v1/(.*)", "http://{#request.headers['host'][0]}", "/v1/ecom")).isEqualTo("http://host1");
+        verify(templateEngine, never()).getTemplateContext();
+    }
+
+    @Test
+    public void should_evaluate_unknown_group_with_template_engine() {
+        when(templateEngine.getTemplateContext()).thenReturn(templateContext);
+        when(templateEngine.getValue("http://host1/{#group[1]}", String.class)).thenReturn("http://host1/");
+
+        assertThat(render("/v1/(.*)", "http://host1/{#group[1]}", "/v1/ecom")).isEqualTo("http://host1/");
+    }
+
+    private String render(String pattern, String url, String path) {
+        DynamicRoutingPolicyConfiguration configuration = new DynamicRoutingPolicyConfiguration();
+        configuration.setRules(List.of(new Rule(pattern, url)));
+        RouteMatch match = CompiledRuleSet.compile(configuration).match(path, path, templateEngine);
+        return match.getRule().getUrlTemplate().render(match, templateEngine);
+    }
+}